@@ -7,7 +7,6 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.speech.tts.TextToSpeech;
 import android.widget.ScrollView;
 import android.widget.TextView;
@@ -16,9 +15,11 @@ import org.jointheleague.erik.irobot.IRobotInterface;
 import org.jointheleague.erik.irobot.SimpleIRobot;
 
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 import ioio.lib.api.IOIO;
 import ioio.lib.api.exception.ConnectionLostException;
+import ioio.lib.util.FixedRateIOIOLooper;
 import ioio.lib.util.IOIOLooper;
 import ioio.lib.util.android.IOIOActivity;
 
@@ -169,7 +170,8 @@ public class Dashboard extends IOIOActivity
 
     @Override
     public IOIOLooper createIOIOLooper() {
-        return new IOIOLooper() {
+        // Run the pilot every 10 ms, regardless of how long each loop takes.
+        return new FixedRateIOIOLooper(new IOIOLooper() {
 
             public void setup(IOIO ioio) throws ConnectionLostException,
                     InterruptedException {
@@ -191,9 +193,6 @@ public class Dashboard extends IOIOActivity
             }
 
             public void loop() throws ConnectionLostException, InterruptedException {
-                // This thread hogs the CPU and prevents other threads from running (bad scheduler?)
-                // The following sleep is needed to allow access to other threads.
-                SystemClock.sleep(10L);
                 kalina.loop();
             }
 
@@ -203,7 +202,7 @@ public class Dashboard extends IOIOActivity
 
             public void incompatible() {
             }
-        };
+        }, 10, TimeUnit.MILLISECONDS, FixedRateIOIOLooper.OverrunPolicy.SKIP);
     }
 
     /**
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.api;
+
+/**
+ * A listener receiving analog input samples as soon as they arrive from the
+ * IOIO, instead of having the client poll or block on {@link AnalogInput}.
+ * <p>
+ * The IOIO samples all open analog inputs together, once per millisecond. A
+ * listener is registered for a group of inputs via
+ * {@link IOIO#addAnalogFrameListener(AnalogInput[], AnalogFrameListener)} and
+ * is called once per such frame, with the readings of all the inputs in the
+ * group. This makes it possible to process multi-pin sensor arrays without any
+ * extra threads.
+ * <p>
+ * <b>Important:</b> the listener is called on the thread reading data from the
+ * IOIO. It must return quickly and must never block, or the processing of all
+ * incoming data from this IOIO will stall.
+ */
+public interface AnalogFrameListener {
+	/**
+	 * Called for every frame of analog samples.
+	 * 
+	 * @param values
+	 *            The raw readings, ranging from 0 to 1023, in the same order as
+	 *            the inputs passed on registration. An input that was not part
+	 *            of this frame, e.g. because it has just been opened, has the
+	 *            value -1. The array is reused between calls and must not be
+	 *            retained.
+	 */
+	public void frameReceived(int[] values);
+}
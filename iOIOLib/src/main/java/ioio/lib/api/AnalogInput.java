@@ -72,6 +72,11 @@ import ioio.lib.api.exception.ConnectionLostException;
  * lost. The sample rate used for capturing samples can be obtained by calling
  * {@link #getSampleRate()}.
  * <p>
+ * Clients reading fast streams may obtain all available samples at once by
+ * calling {@link #readBuffered(float[], int, int, BatchInfo)} or
+ * {@link #readBufferedRaw(short[], int, int, BatchInfo)}. Each sample is
+ * assigned a sequence number, so that gaps caused by overflow can be located.
+ * <p>
  * The non-buffered versions of the read methods will still behave normally when
  * buffering is enabled. The {@link #read()} and {@link #getVoltage()} methods
  * will always return the most recent value, regardless of the buffer state.
@@ -93,6 +98,27 @@ import ioio.lib.api.exception.ConnectionLostException;
  * @see IOIO#openAnalogInput(int)
  */
 public interface AnalogInput extends Closeable {
+	/**
+	 * Describes a batch of samples obtained by
+	 * {@link AnalogInput#readBuffered(float[], int, int, BatchInfo)} or
+	 * {@link AnalogInput#readBufferedRaw(short[], int, int, BatchInfo)}.
+	 */
+	static public class BatchInfo {
+		/** The number of samples in the batch. */
+		public int count;
+		/**
+		 * The sequence number of the first sample in the batch. Samples are
+		 * numbered consecutively from 0 since {@link #setBuffer(int)} has been
+		 * called, including samples dropped as result of overflow.
+		 */
+		public long firstSequence;
+		/**
+		 * The number of samples dropped as result of overflow since the
+		 * previous batch.
+		 */
+		public int overflowCount;
+	}
+
 	/**
 	 * Gets the analog input reading, as an absolute voltage in Volt units.
 	 * <p>
@@ -214,6 +240,54 @@ public interface AnalogInput extends Closeable {
 	public float getVoltageBuffered() throws InterruptedException,
 			ConnectionLostException;
 
+	/**
+	 * Read all available samples from the internal buffer, up to len. This
+	 * method will block until at least one sample is available, the instance
+	 * is closed (via {@link #close()}), the thread is interrupted (via
+	 * {@link Thread#interrupt()} or connection is lost.
+	 * {@link #setBuffer(int)} must be called prior to this method for setting
+	 * up an internal buffer for storing samples.
+	 * 
+	 * @see #readBuffered()
+	 * @param dst
+	 *            Array to receive the samples, oldest first, as scaled values
+	 *            between 0 and 1.
+	 * @param off
+	 *            Index in dst of the first sample.
+	 * @param len
+	 *            Maximum number of samples to read.
+	 * @param info
+	 *            If not null, receives the details of the batch.
+	 * @return The number of samples read.
+	 * @throws InterruptedException
+	 *             The calling thread has been interrupted.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO is lost.
+	 */
+	public int readBuffered(float[] dst, int off, int len, BatchInfo info)
+			throws InterruptedException, ConnectionLostException;
+
+	/**
+	 * Same as {@link #readBuffered(float[], int, int, BatchInfo)}, but
+	 * returns the raw 10-bit readings, ranging from 0 to 1023.
+	 * 
+	 * @param dst
+	 *            Array to receive the samples, oldest first.
+	 * @param off
+	 *            Index in dst of the first sample.
+	 * @param len
+	 *            Maximum number of samples to read.
+	 * @param info
+	 *            If not null, receives the details of the batch.
+	 * @return The number of samples read.
+	 * @throws InterruptedException
+	 *             The calling thread has been interrupted.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO is lost.
+	 */
+	public int readBufferedRaw(short[] dst, int off, int len, BatchInfo info)
+			throws InterruptedException, ConnectionLostException;
+
 	/**
 	 * Gets the sample rate used for obtaining buffered samples.
 	 * 
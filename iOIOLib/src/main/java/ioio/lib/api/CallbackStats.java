@@ -0,0 +1,64 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.api;
+
+/**
+ * Execution time statistics of a client callback invoked by the library, such
+ * as an {@link AnalogFrameListener}. Useful for spotting
+ * listeners that are too slow to be called on the incoming thread.
+ */
+public class CallbackStats {
+	/** Number of calls. */
+	public final long calls;
+	/** Total time spent in the callback, in nanoseconds. */
+	public final long totalNanos;
+	/** Longest single call, in nanoseconds. */
+	public final long maxNanos;
+
+	public CallbackStats(long calls, long totalNanos, long maxNanos) {
+		this.calls = calls;
+		this.totalNanos = totalNanos;
+		this.maxNanos = maxNanos;
+	}
+
+	/**
+	 * Gets the mean time per call.
+	 *
+	 * @return The mean time in nanoseconds, or 0 if never called.
+	 */
+	public long getMeanNanos() {
+		return calls == 0 ? 0 : totalNanos / calls;
+	}
+
+	@Override
+	public String toString() {
+		return "calls=" + calls + " meanNs=" + getMeanNanos() + " maxNs="
+				+ maxNanos;
+	}
+}
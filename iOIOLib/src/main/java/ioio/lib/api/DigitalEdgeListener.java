@@ -0,0 +1,57 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.api;
+
+/**
+ * A listener receiving the level changes of a {@link DigitalInput} as soon as
+ * they arrive from the IOIO, instead of having a dedicated client thread block
+ * on {@link DigitalInput#waitForValue(boolean)}.
+ * <p>
+ * A listener is registered via
+ * {@link DigitalInput#addEdgeListener(DigitalEdgeListener)}. The initial level
+ * reported when the input is opened is not considered an edge.
+ * <p>
+ * <b>Important:</b> the listener is called on the thread reading data from the
+ * IOIO. It must return quickly and must never block, or the processing of all
+ * incoming data from this IOIO will stall.
+ */
+public interface DigitalEdgeListener {
+	/**
+	 * Called for every level change sensed on the input.
+	 * 
+	 * @param input
+	 *            The input on which the edge occurred.
+	 * @param level
+	 *            The new level. True for "HIGH", false for "LOW".
+	 * @param timestamp
+	 *            The time at which the edge has been received, in
+	 *            {@link System#nanoTime()} units.
+	 */
+	public void edgeDetected(DigitalInput input, boolean level, long timestamp);
+}
@@ -40,6 +40,14 @@ import ioio.lib.api.exception.ConnectionLostException;
  * possible for the client to block until a certain level is sensed, by using
  * {@link #waitForValue(boolean)}.
  * <p>
+ * Level changes can also be handled without a dedicated thread per pin, by
+ * registering a {@link DigitalEdgeListener} via
+ * {@link #addEdgeListener(DigitalEdgeListener)}. Alternatively,
+ * {@link #setEdgeQueue(int)} sets up a queue in which every edge is recorded
+ * along with the time it has been received, to be consumed later with
+ * {@link #readEdges(boolean[], long[], int, int)}. Edges that could not be
+ * observed or queued are counted by {@link #getMissedEdgeCount()}.
+ * <p>
  * The instance is alive since its creation. The first {@link #read()} call
  * block for a few milliseconds until the initial value is updated. If the
  * connection with the IOIO drops at any point, the instance transitions to a
@@ -137,4 +145,93 @@ public interface DigitalInput extends Closeable {
 	 */
 	public void waitForValue(boolean value) throws InterruptedException,
 			ConnectionLostException;
+
+	/**
+	 * Register a listener to be called on every level change of this input.
+	 * The listener is called directly on the thread reading data from the
+	 * IOIO, so it must never block. See {@link DigitalEdgeListener}.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO is lost.
+	 * @see #removeEdgeListener(DigitalEdgeListener)
+	 */
+	public void addEdgeListener(DigitalEdgeListener listener)
+			throws ConnectionLostException;
+
+	/**
+	 * Unregister a listener previously registered with
+	 * {@link #addEdgeListener(DigitalEdgeListener)}. Once this method returns,
+	 * the listener may still be called at most once more.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 */
+	public void removeEdgeListener(DigitalEdgeListener listener);
+
+	/**
+	 * Initializes or destroys an internal queue of edges. When called with a
+	 * positive argument, every subsequent level change is recorded in the
+	 * queue along with its receive time, and can be obtained by calling
+	 * {@link #readEdges(boolean[], long[], int, int)}. Calling this method
+	 * again discards any unread edges.
+	 * <p>
+	 * When called with argument of 0, the queue is destroyed.
+	 * 
+	 * @param capacity
+	 *            The maximum number of unread edges that can be queued. When
+	 *            the queue is full, the oldest edge is dropped and counted as
+	 *            missed.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO is lost.
+	 */
+	public void setEdgeQueue(int capacity) throws ConnectionLostException;
+
+	/**
+	 * Gets the number of edges currently in the queue. Reading that many edges
+	 * is guaranteed not to block.
+	 * 
+	 * @return The number of edges available in the queue.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO is lost.
+	 */
+	public int availableEdges() throws ConnectionLostException;
+
+	/**
+	 * Read all queued edges, up to len. This method will block until at least
+	 * one edge is available, the instance is closed (via {@link #close()}),
+	 * the thread is interrupted (via {@link Thread#interrupt()} or connection
+	 * is lost. {@link #setEdgeQueue(int)} must be called prior to this method
+	 * for setting up the queue.
+	 * 
+	 * @param levels
+	 *            Array to receive the new level of each edge, oldest first.
+	 * @param timestamps
+	 *            Array to receive the receive time of each edge, in
+	 *            {@link System#nanoTime()} units.
+	 * @param off
+	 *            Index in both arrays of the first edge.
+	 * @param len
+	 *            Maximum number of edges to read.
+	 * @return The number of edges read.
+	 * @throws InterruptedException
+	 *             The calling thread has been interrupted.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO is lost.
+	 */
+	public int readEdges(boolean[] levels, long[] timestamps, int off, int len)
+			throws InterruptedException, ConnectionLostException;
+
+	/**
+	 * Gets the number of edges that have been missed since the input has been
+	 * opened. An edge is missed when the level changes and changes back before
+	 * the IOIO reports it, in which case two edges are counted, or when it
+	 * overflows the edge queue.
+	 * 
+	 * @return The number of missed edges.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO is lost.
+	 */
+	public int getMissedEdgeCount() throws ConnectionLostException;
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.api;
+
+/**
+ * Head-of-line statistics of a resource whose incoming data is delivered off
+ * the incoming thread (see {@link IOIO#setDispatchExecutor}). A resource
+ * with a growing backlog or a long wait is the one stalling its consumer.
+ */
+public class DispatchStats {
+	/** The resource, e.g. "UART0" or "pin 40". */
+	public final String resource;
+	/** Number of events currently waiting for delivery. */
+	public final int backlog;
+	/** Largest backlog seen. */
+	public final int maxBacklog;
+	/** How long the oldest waiting event has been waiting, in nanoseconds. */
+	public final long headWaitNanos;
+	/** Longest time an event waited before delivery, in nanoseconds. */
+	public final long maxWaitNanos;
+	/** Time spent in the resource's listener. */
+	public final CallbackStats delivery;
+
+	public DispatchStats(String resource, int backlog, int maxBacklog,
+			long headWaitNanos, long maxWaitNanos, CallbackStats delivery) {
+		this.resource = resource;
+		this.backlog = backlog;
+		this.maxBacklog = maxBacklog;
+		this.headWaitNanos = headWaitNanos;
+		this.maxWaitNanos = maxWaitNanos;
+		this.delivery = delivery;
+	}
+
+	@Override
+	public String toString() {
+		return resource + ": backlog=" + backlog + " maxBacklog="
+				+ maxBacklog + " headWaitNs=" + headWaitNanos
+				+ " maxWaitNs=" + maxWaitNanos + " " + delivery;
+	}
+}
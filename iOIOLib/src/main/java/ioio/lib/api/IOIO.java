@@ -37,6 +37,8 @@ import ioio.lib.api.exception.IncompatibilityException;
 import ioio.lib.api.exception.OutOfResourceException;
 
 import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * This interface provides control over all the IOIO board functions.
@@ -498,6 +500,24 @@ public interface IOIO {
 	public Uart openUart(DigitalInput.Spec rx, DigitalOutput.Spec tx, int baud,
 			Parity parity, StopBits stopbits) throws ConnectionLostException;
 
+	/**
+	 * Same as
+	 * {@link #openUart(DigitalInput.Spec, DigitalOutput.Spec, int, Uart.Parity, Uart.StopBits)}
+	 * , with the receive buffer configured as given. By default, a 1KB buffer
+	 * is used, and data that does not fit is discarded.
+	 * 
+	 * @param buffer
+	 *            The receive buffer capacity and overflow policy. Capacities
+	 *            may not exceed 1MB.
+	 * @throws IllegalArgumentException
+	 *             The buffer spec is invalid.
+	 * @see #openUart(DigitalInput.Spec, DigitalOutput.Spec, int, Uart.Parity,
+	 *      Uart.StopBits)
+	 */
+	public Uart openUart(DigitalInput.Spec rx, DigitalOutput.Spec tx, int baud,
+			Parity parity, StopBits stopbits, Uart.BufferSpec buffer)
+			throws ConnectionLostException;
+
 	/**
 	 * Shorthand for
 	 * {@link #openUart(DigitalInput.Spec, DigitalOutput.Spec, int, Uart.Parity, Uart.StopBits)}
@@ -663,6 +683,79 @@ public interface IOIO {
 	 */
 	public IcspMaster openIcspMaster() throws ConnectionLostException;
 
+	/**
+	 * Register a listener to be called with every frame of samples of a group
+	 * of analog inputs. The listener is called directly on the thread reading
+	 * data from the IOIO, so it must never block. See
+	 * {@link AnalogFrameListener}.
+	 * 
+	 * @param inputs
+	 *            The analog inputs of interest, opened on this IOIO.
+	 * @param listener
+	 *            The listener.
+	 * @throws ConnectionLostException
+	 *             Connection was lost before or during the execution of this
+	 *             method.
+	 * @see #removeAnalogFrameListener(AnalogFrameListener)
+	 */
+	public void addAnalogFrameListener(AnalogInput[] inputs,
+			AnalogFrameListener listener) throws ConnectionLostException;
+
+	/**
+	 * Unregister a listener previously registered with
+	 * {@link #addAnalogFrameListener(AnalogInput[], AnalogFrameListener)}.
+	 * Once this method returns, the listener may still be called at most once
+	 * more.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 */
+	public void removeAnalogFrameListener(AnalogFrameListener listener);
+
+	/**
+	 * Gets execution time statistics of an analog frame listener. For
+	 * diagnostics only.
+	 * 
+	 * @param listener
+	 *            A listener registered with
+	 *            {@link #addAnalogFrameListener(AnalogInput[], AnalogFrameListener)}.
+	 * @return The statistics, or null if the listener is not registered.
+	 */
+	public CallbackStats getAnalogFrameListenerStats(
+			AnalogFrameListener listener);
+
+	/**
+	 * Deliver incoming data of resources opened from now on via the given
+	 * executor, instead of calling into them on the thread that reads the
+	 * connection. A consumer that holds a resource's lock for a long time
+	 * then only delays that resource, not the whole board. Pass null to go
+	 * back to direct delivery. Digital sample and analog frame listeners are
+	 * always called directly.
+	 * 
+	 * @param executor
+	 *            The executor, or null.
+	 */
+	public void setDispatchExecutor(Executor executor);
+
+	/**
+	 * Gets head-of-line statistics of the open resources that were opened
+	 * while a dispatch executor was set. For diagnostics only.
+	 * 
+	 * @return A snapshot of the statistics, one entry per resource.
+	 * @see #setDispatchExecutor(Executor)
+	 */
+	public List<DispatchStats> getDispatchStats();
+
+	/**
+	 * Gets queueing delay statistics for one outgoing priority lane. For
+	 * diagnostics only.
+	 * 
+	 * @param lane
+	 *            The lane.
+	 * @return A snapshot of the lane's statistics.
+	 */
+	public OutgoingLaneStats getOutgoingLaneStats(OutgoingLaneStats.Lane lane);
+
 	/**
 	 * Start a batch of operations. This is strictly an optimization and will
 	 * not change functionality: if the client knows that a sequence of several
@@ -51,6 +51,11 @@ import ioio.lib.api.exception.ConnectionLostException;
  * ({@link #readVisi()}).</li>
  * </ul>
  * <p>
+ * Long sequences of these operations, as used for Flash programming, should
+ * be submitted in one go using {@link #executeSequence(int[], int, int)}. This
+ * pipelines them to the IOIO without a round trip per operation, and
+ * {@link #waitVisiResults(int[], int, int)} then collects the results.
+ * <p>
  * The ICSP module uses fixed pins for its lines. See the user guide for details
  * for your specific board. ICSP is a special feature, introduced for the
  * purpose of programming a IOIO board with another IOIO board. It does not
@@ -83,6 +88,13 @@ import ioio.lib.api.exception.ConnectionLostException;
  * @see IOIO#openIcspMaster()
  */
 public interface IcspMaster extends Closeable {
+	/**
+	 * An entry in a sequence passed to
+	 * {@link #executeSequence(int[], int, int)}, requesting a read of the VISI
+	 * register instead of executing an instruction.
+	 */
+	public static final int READ_VISI = -1;
+
 	/**
 	 * Initiate a sequence that will put the slave device in programming mode.
 	 * This sequence is necessary for executing instructions and reading
@@ -142,4 +154,54 @@ public interface IcspMaster extends Closeable {
 	 */
 	public int waitVisiResult() throws ConnectionLostException,
 			InterruptedException;
+
+	/**
+	 * Execute a sequence of instructions and VISI reads on the slave MCU. Each
+	 * entry is either a 24-bit PIC instruction, as passed to
+	 * {@link #executeInstruction(int)}, or {@link #READ_VISI}, which has the
+	 * same effect as {@link #readVisi()}. The whole sequence is sent
+	 * back-to-back, waiting only when the read queue on the IOIO is full. The
+	 * results of the reads are obtained in order by {@link #waitVisiResult()}
+	 * or {@link #waitVisiResults(int[], int, int)}.
+	 * <p>
+	 * This method must not be called between {@link IOIO#beginBatch()} and
+	 * {@link IOIO#endBatch()}.
+	 * <p>
+	 * The sequence is sent in batches of 32 entries. Messages sent by other
+	 * threads meanwhile join the current batch, so they are delayed until it
+	 * is complete, or longer if the calling thread is descheduled in the
+	 * middle of a batch.
+	 * 
+	 * @param sequence
+	 *            The instructions and reads to execute.
+	 * @param offset
+	 *            Index of the first entry to execute.
+	 * @param length
+	 *            Number of entries to execute.
+	 * @throws ConnectionLostException
+	 *             Connection to the IOIO has been lost.
+	 * @throws InterruptedException
+	 *             Interrupted while blocking.
+	 */
+	public void executeSequence(int[] sequence, int offset, int length)
+			throws ConnectionLostException, InterruptedException;
+
+	/**
+	 * Wait and return several results of VISI reads, in the order they were
+	 * requested. The call will block until count results have been obtained,
+	 * until interrupted, or until connection to the IOIO has been lost.
+	 * 
+	 * @param results
+	 *            Array to receive the results, each an unsigned 16-bit number.
+	 * @param offset
+	 *            Index in results of the first result.
+	 * @param count
+	 *            Number of results to wait for.
+	 * @throws ConnectionLostException
+	 *             Connection to the IOIO has been lost.
+	 * @throws InterruptedException
+	 *             Interrupted while blocking.
+	 */
+	public void waitVisiResults(int[] results, int offset, int count)
+			throws ConnectionLostException, InterruptedException;
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.api;
+
+/**
+ * Queueing delay statistics of one outgoing priority lane.
+ * <p>
+ * Flow-controlled outgoing data (UART, TWI and SPI) waits in per-resource
+ * queues until the IOIO grants credits for it. Those queues are drained in
+ * strict lane order: {@link Lane#CONTROL} first, {@link Lane#BULK} last, so a
+ * lane only gets to send while all higher lanes are idle or out of credits. A
+ * resource that keeps a high lane busy can starve the lanes below it. Each
+ * resource starts in a default lane, which can be changed with e.g.
+ * {@link Uart#setOutgoingLane(Lane)}. Simple pin and configuration commands
+ * are never queued and are not accounted for here. UART writes small enough
+ * to bypass the queue are counted with no delay.
+ * <p>
+ * Obtained by calling {@link IOIO#getOutgoingLaneStats(Lane)}.
+ */
+public class OutgoingLaneStats {
+	/** Outgoing priority lanes, highest priority first. */
+	public enum Lane {
+		/**
+		 * Control and safety traffic, e.g. robot commands. The default for
+		 * UART data.
+		 */
+		CONTROL,
+		/** Real-time I/O. The default for TWI transactions. */
+		REALTIME,
+		/** Bulk transfers. The default for SPI transactions. */
+		BULK
+	}
+
+	/** The lane these statistics refer to. */
+	public final Lane lane;
+	/** Number of packets sent on this lane. */
+	public final long packets;
+	/** Sum of the queueing delays of all packets, in nanoseconds. */
+	public final long totalDelayNanos;
+	/** Longest queueing delay of a single packet, in nanoseconds. */
+	public final long maxDelayNanos;
+
+	public OutgoingLaneStats(Lane lane, long packets, long totalDelayNanos,
+			long maxDelayNanos) {
+		this.lane = lane;
+		this.packets = packets;
+		this.totalDelayNanos = totalDelayNanos;
+		this.maxDelayNanos = maxDelayNanos;
+	}
+
+	/**
+	 * Gets the mean queueing delay.
+	 *
+	 * @return The mean delay in nanoseconds, or 0 if nothing was sent.
+	 */
+	public long getMeanDelayNanos() {
+		return packets == 0 ? 0 : totalDelayNanos / packets;
+	}
+
+	@Override
+	public String toString() {
+		return lane + ": packets=" + packets + " meanDelayNs="
+				+ getMeanDelayNanos() + " maxDelayNs=" + maxDelayNanos;
+	}
+}
@@ -193,6 +193,12 @@ import ioio.lib.api.exception.ConnectionLostException;
  * channel when the input signal is very high frequency. Effectively, this means
  * that the maximum sample rate is 200Hz. This rate has been chosen as it
  * enables measure R/C servo signals without missing pulses.
+ * <p>
+ * The queue holds 32 pulses by default and can be resized by calling
+ * {@link #setQueueCapacity(int)}. When it overflows, the oldest pulses are
+ * dropped and counted by {@link #getOverflowCount()}. Clients consuming pulses
+ * at high rates may drain many of them at once, using
+ * {@link #drainPulses(float[])} or {@link #drainRaw(long[])}.
  * 
  * <p>
  * Typical usage (servo signal pulse width measurement):
@@ -303,6 +309,75 @@ public interface PulseInput extends Closeable {
 	public float waitPulseGetDuration() throws InterruptedException,
 			ConnectionLostException;
 
+	/**
+	 * Reads all queued measurements, up to the size of the given array. If the
+	 * queue is empty, will block until more data arrives, unless the array is
+	 * empty, in which case 0 is returned right away. The calling thread may be
+	 * interrupted in order to abort the call.
+	 * <p>
+	 * This method may not be used if the interface has was opened in frequency
+	 * mode.
+	 * 
+	 * @param out
+	 *            Array to receive the durations, in seconds, oldest first.
+	 * @return The number of durations written to out.
+	 * @throws InterruptedException
+	 *             The calling thread has been interrupted.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO has been lost.
+	 */
+	public int drainPulses(float[] out) throws InterruptedException,
+			ConnectionLostException;
+
+	/**
+	 * Same as {@link #drainPulses(float[])}, but returns the raw durations, in
+	 * units of the clock period divided by the mode's scaling factor, without
+	 * converting them to seconds.
+	 * 
+	 * @param out
+	 *            Array to receive the raw durations, oldest first.
+	 * @return The number of durations written to out.
+	 * @throws InterruptedException
+	 *             The calling thread has been interrupted.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO has been lost.
+	 */
+	public int drainRaw(long[] out) throws InterruptedException,
+			ConnectionLostException;
+
+	/**
+	 * Gets the number of measurements currently in the queue. Draining that
+	 * many measurements is guaranteed not to block.
+	 * 
+	 * @return The number of queued measurements.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO has been lost.
+	 */
+	public int available() throws ConnectionLostException;
+
+	/**
+	 * Gets the number of measurements that have been dropped as result of
+	 * queue overflow, since the instance was opened or
+	 * {@link #setQueueCapacity(int)} was last called.
+	 * 
+	 * @return The number of dropped measurements.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO has been lost.
+	 */
+	public int getOverflowCount() throws ConnectionLostException;
+
+	/**
+	 * Resizes the measurement queue. Any queued measurements are discarded and
+	 * the overflow count is reset.
+	 * 
+	 * @param capacity
+	 *            The maximum number of unread measurements that can be queued
+	 *            before overflow occurs. Must be positive.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO has been lost.
+	 */
+	public void setQueueCapacity(int capacity) throws ConnectionLostException;
+
 	/**
 	 * Gets the momentary frequency of the measured signal. When scaling is
 	 * used, this is compensated for here, so the true frequency of the signal
@@ -319,4 +394,28 @@ public interface PulseInput extends Closeable {
 	 */
 	public float getFrequency() throws InterruptedException,
 			ConnectionLostException;
+
+	/**
+	 * Register a listener to be called whenever new measurements have been received.
+	 * The listener is called directly on the thread reading data from the
+	 * IOIO, so it must never block. See {@link DataAvailableListener}.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO has been lost.
+	 * @see #removeDataAvailableListener(DataAvailableListener)
+	 */
+	public void addDataAvailableListener(DataAvailableListener listener)
+			throws ConnectionLostException;
+
+	/**
+	 * Unregister a listener previously registered with
+	 * {@link #addDataAvailableListener(DataAvailableListener)}. Once this
+	 * method returns, the listener may still be called at most once more.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 */
+	public void removeDataAvailableListener(DataAvailableListener listener);
 }
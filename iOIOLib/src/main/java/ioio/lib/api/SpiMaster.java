@@ -69,6 +69,12 @@ import ioio.lib.api.exception.ConnectionLostException;
  * single method, {@link #writeRead(int, byte[], int, int, byte[], int)}, which
  * gets the request data, and the lengths of the request, the response and the
  * total transaction bytes.
+ * <p>
+ * A single transaction is limited to 64 bytes. Longer transfers, such as a
+ * display refresh, can be done with
+ * {@link #transfer(int, byte[], int, int, byte[], int)}, which splits them into
+ * maximal transactions, keeps as many of them in flight as the IOIO can buffer,
+ * and assembles the response directly into the client's array.
  * 
  * <p>
  * The instance is alive since its creation. If the connection with the IOIO
@@ -127,6 +133,15 @@ public interface SpiMaster extends Closeable {
 		 * edge.
 		 */
 		public boolean sampleOnTrailing;
+		/**
+		 * Whether the slaves tolerate their slave-select line being
+		 * de-asserted every 64 bytes, which is required by
+		 * {@link SpiMaster#transfer(int, byte[], int, int, byte[], int)} for
+		 * longer transfers. Many slaves, e.g. serial Flash memories and
+		 * displays, treat de-selection as the end of a command and do not.
+		 * false by default.
+		 */
+		public boolean toleratesDeselect = false;
 
 		/**
 		 * Constructor.
@@ -209,4 +224,55 @@ public interface SpiMaster extends Closeable {
 	public Result writeReadAsync(int slave, byte[] writeData, int writeSize,
 			int totalSize, byte[] readData, int readSize)
 			throws ConnectionLostException;
+
+	/**
+	 * Perform a transfer of arbitrary length to a single slave. The transfer
+	 * is split into transactions of up to 64 bytes each, which are pipelined
+	 * to the IOIO as fast as its buffer space permits. The semantics of the
+	 * arguments are the same as for
+	 * {@link #writeRead(int, byte[], int, int, byte[], int)}, except that
+	 * totalSize is not limited: the first writeSize bytes of the transfer are
+	 * taken from writeData and the last readSize bytes received are stored in
+	 * readData.
+	 * <p>
+	 * Note that the IOIO de-asserts the slave-select line at the end of every
+	 * transaction, so this method is only suitable for slaves that tolerate
+	 * that, e.g. ones receiving a stream of independent data words. Transfers
+	 * longer than 64 bytes are therefore rejected unless
+	 * {@link Config#toleratesDeselect} has been set when opening.
+	 * 
+	 * @see #writeRead(int, byte[], int, int, byte[], int)
+	 * @throws IllegalArgumentException
+	 *             totalSize exceeds 64 bytes and the slaves do not tolerate
+	 *             de-selection.
+	 * @throws ConnectionLostException
+	 *             Connection to the IOIO has been lost.
+	 * @throws InterruptedException
+	 *             Calling thread has been interrupted.
+	 */
+	public void transfer(int slave, byte[] writeData, int writeSize,
+			int totalSize, byte[] readData, int readSize)
+			throws ConnectionLostException, InterruptedException;
+
+	/**
+	 * The same as {@link #transfer(int, byte[], int, int, byte[], int)}, but
+	 * returns once all the transactions have been queued, and returns a
+	 * {@link Result} object that can be waited on for the response. If
+	 * readSize is 0, the result object is ready immediately.
+	 * 
+	 * @see #transfer(int, byte[], int, int, byte[], int)
+	 */
+	public Result transferAsync(int slave, byte[] writeData, int writeSize,
+			int totalSize, byte[] readData, int readSize)
+			throws ConnectionLostException;
+
+	/**
+	 * Move the transactions of this SPI module to another outgoing priority
+	 * lane. SPI starts in {@link OutgoingLaneStats.Lane#BULK}, the lowest one,
+	 * which only gets to send while the others are idle.
+	 * 
+	 * @param lane
+	 *            The lane.
+	 */
+	public void setOutgoingLane(OutgoingLaneStats.Lane lane);
 }
@@ -52,6 +52,13 @@ import ioio.lib.api.exception.ConnectionLostException;
  * a transaction is executed using the
  * {@link #writeRead(int, boolean, byte[], int, byte[], int)} method.
  * <p>
+ * When many transactions need to be executed together, e.g. when polling
+ * several registers of several slaves, they can be collected into a
+ * {@link Batch}, obtained by {@link #createBatch(int)}, and submitted at once
+ * using {@link #submitBatch(Batch, BatchListener)}. Completion of the entire
+ * batch can then be waited upon once, or handled by a callback. A batch can be
+ * reused once complete, so that periodic polling generates no garbage.
+ * <p>
  * The instance is alive since its creation. If the connection with the IOIO
  * drops at any point, the instance transitions to a disconnected state, in
  * <p>
@@ -103,6 +110,67 @@ public interface TwiMaster extends Closeable {
 				InterruptedException;
 	}
 
+	/**
+	 * A batch of TWI transactions, to be submitted together via
+	 * {@link TwiMaster#submitBatch(Batch, BatchListener)}. Instances are
+	 * obtained by {@link TwiMaster#createBatch(int)} and may be reused once
+	 * complete. {@link #waitReady()} blocks until all the transactions in the
+	 * batch have completed and returns true if all of them succeeded.
+	 */
+	public interface Batch extends Result {
+		/**
+		 * Add a transaction to the batch. The arguments are the same as for
+		 * {@link TwiMaster#writeRead(int, boolean, byte[], int, byte[], int)}
+		 * . The arrays are not copied, and must remain valid until the batch
+		 * completes.
+		 * 
+		 * @return The index of the transaction within the batch.
+		 * @throws IllegalStateException
+		 *             The batch is full or has been submitted and is not yet
+		 *             complete.
+		 */
+		public int add(int address, boolean tenBitAddr, byte[] writeData,
+				int writeSize, byte[] readData, int readSize);
+
+		/**
+		 * Remove all transactions from the batch, so it can be filled again.
+		 * 
+		 * @throws IllegalStateException
+		 *             The batch has been submitted and is not yet complete.
+		 */
+		public void clear();
+
+		/** @return The number of transactions in the batch. */
+		public int size();
+
+		/**
+		 * Whether a transaction succeeded. Only valid once the batch has
+		 * completed.
+		 * 
+		 * @param index
+		 *            The index returned by
+		 *            {@link #add(int, boolean, byte[], int, byte[], int)}.
+		 * @return true if the transaction succeeded.
+		 */
+		public boolean succeeded(int index);
+	}
+
+	/** A callback notified upon completion of a batch. */
+	public interface BatchListener {
+		/**
+		 * Called once all the transactions of the batch have completed. This
+		 * is called on the thread reading data from the IOIO, so it must
+		 * return quickly and must never block. It is not called if the
+		 * connection is lost before completion.
+		 * 
+		 * @param batch
+		 *            The completed batch.
+		 * @param numFailed
+		 *            The number of transactions that failed.
+		 */
+		public void batchCompleted(Batch batch, int numFailed);
+	}
+
 	/**
 	 * Perform a single TWI transaction which includes optional transmission and
 	 * optional reception of data to a single slave. This is a blocking
@@ -145,4 +213,45 @@ public interface TwiMaster extends Closeable {
 	public Result writeReadAsync(int address, boolean tenBitAddr,
 			byte[] writeData, int writeSize, byte[] readData, int readSize)
 			throws ConnectionLostException;
+
+	/**
+	 * Create an empty batch of transactions for this TWI module.
+	 * 
+	 * @param capacity
+	 *            The maximum number of transactions in the batch.
+	 * @return The batch.
+	 */
+	public Batch createBatch(int capacity);
+
+	/**
+	 * Submit all the transactions of a batch for execution, in the order in
+	 * which they have been added. Returns once all transactions have been
+	 * queued, without waiting for their completion. The client can wait on
+	 * the batch, or provide a listener to be notified on completion.
+	 * 
+	 * @param batch
+	 *            A batch created by {@link #createBatch(int)} on this
+	 *            instance.
+	 * @param listener
+	 *            A listener to notify upon completion. May be null.
+	 * @throws ConnectionLostException
+	 *             Connection to the IOIO has been lost.
+	 * @throws IllegalArgumentException
+	 *             The batch was created by another instance.
+	 * @throws IllegalStateException
+	 *             The batch has already been submitted and is not yet
+	 *             complete.
+	 */
+	public void submitBatch(Batch batch, BatchListener listener)
+			throws ConnectionLostException;
+
+	/**
+	 * Move the transactions of this TWI module to another outgoing priority
+	 * lane. TWI starts in {@link OutgoingLaneStats.Lane#REALTIME}. Lanes are
+	 * served in strict priority order, see {@link OutgoingLaneStats}.
+	 * 
+	 * @param lane
+	 *            The lane.
+	 */
+	public void setOutgoingLane(OutgoingLaneStats.Lane lane);
 }
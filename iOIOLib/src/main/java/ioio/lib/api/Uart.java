@@ -91,6 +91,57 @@ public interface Uart extends Closeable {
 		TWO
 	}
 
+	/** What to do with received data that does not fit in the buffer. */
+	enum OverflowPolicy {
+		/** Discard the data that does not fit. */
+		DROP_NEWEST,
+		/** Discard the oldest buffered data to make room. */
+		DROP_OLDEST,
+		/**
+		 * Grow the buffer, up to {@link BufferSpec#maxCapacity}, then discard
+		 * the data that does not fit.
+		 */
+		GROW
+	}
+
+	/** Receive buffer configuration, chosen when opening the UART. */
+	static public class BufferSpec {
+		/**
+		 * The initial capacity in bytes, rounded up to a power of two. At
+		 * most 1MB.
+		 */
+		public int capacity;
+		/** What to do when the buffer is full. */
+		public OverflowPolicy policy;
+		/**
+		 * The capacity up to which {@link OverflowPolicy#GROW} may grow the
+		 * buffer, rounded up to a power of two. At most 1MB.
+		 */
+		public int maxCapacity;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param capacity
+		 *            The initial capacity, in bytes.
+		 * @param policy
+		 *            What to do when the buffer is full.
+		 * @param maxCapacity
+		 *            The capacity up to which the buffer may grow, in bytes.
+		 *            Only used with {@link OverflowPolicy#GROW}.
+		 */
+		public BufferSpec(int capacity, OverflowPolicy policy, int maxCapacity) {
+			this.capacity = capacity;
+			this.policy = policy;
+			this.maxCapacity = maxCapacity;
+		}
+
+		/** Shorthand for BufferSpec(capacity, policy, capacity). */
+		public BufferSpec(int capacity, OverflowPolicy policy) {
+			this(capacity, policy, capacity);
+		}
+	}
+
 	/**
 	 * Gets the input stream.
 	 * 
@@ -104,4 +155,63 @@ public interface Uart extends Closeable {
 	 * @return An output stream.
 	 */
 	public OutputStream getOutputStream();
+
+	/**
+	 * Gets the number of received bytes that have been discarded so far
+	 * because the receive buffer was full.
+	 * 
+	 * @return The number of bytes discarded.
+	 */
+	public long getOverflowCount();
+
+	/**
+	 * Gets the largest number of received bytes that have been buffered at
+	 * once, waiting to be read. Useful for sizing the buffer.
+	 * 
+	 * @return The high watermark, in bytes.
+	 */
+	public int getHighWatermark();
+
+	/**
+	 * Gets the current capacity of the receive buffer, which may have grown
+	 * since opening with {@link OverflowPolicy#GROW}.
+	 * 
+	 * @return The capacity, in bytes.
+	 */
+	public int getBufferCapacity();
+
+	/**
+	 * Register a listener to be called whenever new bytes have been received.
+	 * The listener is called directly on the thread reading data from the
+	 * IOIO, so it must never block. See {@link DataAvailableListener}.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 * @throws ConnectionLostException
+	 *             The connection with the IOIO is lost.
+	 * @see #removeDataAvailableListener(DataAvailableListener)
+	 */
+	public void addDataAvailableListener(DataAvailableListener listener)
+			throws ConnectionLostException;
+
+	/**
+	 * Unregister a listener previously registered with
+	 * {@link #addDataAvailableListener(DataAvailableListener)}. Once this
+	 * method returns, the listener may still be called at most once more.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 */
+	public void removeDataAvailableListener(DataAvailableListener listener);
+
+	/**
+	 * Move the data written to this UART to another outgoing priority lane.
+	 * UARTs start in {@link OutgoingLaneStats.Lane#CONTROL}, the highest one,
+	 * so a UART streaming bulk data should be moved down to keep it from
+	 * starving TWI and SPI traffic.
+	 * 
+	 * @param lane
+	 *            The lane.
+	 */
+	public void setOutgoingLane(OutgoingLaneStats.Lane lane);
 }
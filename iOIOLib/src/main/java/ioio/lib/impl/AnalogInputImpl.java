@@ -45,6 +45,8 @@ class AnalogInputImpl extends AbstractPin implements AnalogInput,
 	int bufferReadCursor_;
 	int bufferWriteCursor_;
 	int bufferOverflowCount_ = 0;
+	int bufferReportedOverflowCount_ = 0;
+	long bufferWriteSequence_ = 0;
 
 	AnalogInputImpl(IOIOImpl ioio, int pin) throws ConnectionLostException {
 		super(ioio, pin);
@@ -113,6 +115,8 @@ class AnalogInputImpl extends AbstractPin implements AnalogInput,
 		bufferReadCursor_ = 0;
 		bufferWriteCursor_ = 0;
 		bufferOverflowCount_ = 0;
+		bufferReportedOverflowCount_ = 0;
+		bufferWriteSequence_ = 0;
 	}
 
 	@Override
@@ -133,7 +137,11 @@ class AnalogInputImpl extends AbstractPin implements AnalogInput,
 			return;
 		}
 		if (bufferSize_ == bufferCapacity_) {
+			// Drop the oldest sample.
 			++bufferOverflowCount_;
+			if (++bufferReadCursor_ == bufferCapacity_) {
+				bufferReadCursor_ = 0;
+			}
 		} else {
 			++bufferSize_;
 		}
@@ -141,9 +149,74 @@ class AnalogInputImpl extends AbstractPin implements AnalogInput,
 		if (bufferWriteCursor_ == bufferCapacity_) {
 			bufferWriteCursor_ = 0;
 		}
+		++bufferWriteSequence_;
 		notifyAll();
 	}
 
+	@Override
+	public synchronized int readBuffered(float[] dst, int off, int len,
+			BatchInfo info) throws InterruptedException,
+			ConnectionLostException {
+		checkState();
+		final int count = bufferWaitBatch(len, info);
+		int cursor = bufferReadCursor_;
+		for (int i = 0; i < count; ++i) {
+			dst[off + i] = (float) buffer_[cursor++] / 1023.0f;
+			if (cursor == bufferCapacity_) {
+				cursor = 0;
+			}
+		}
+		bufferPulled(count);
+		return count;
+	}
+
+	@Override
+	public synchronized int readBufferedRaw(short[] dst, int off, int len,
+			BatchInfo info) throws InterruptedException,
+			ConnectionLostException {
+		checkState();
+		final int count = bufferWaitBatch(len, info);
+		final int first = Math.min(count, bufferCapacity_ - bufferReadCursor_);
+		System.arraycopy(buffer_, bufferReadCursor_, dst, off, first);
+		if (first < count) {
+			System.arraycopy(buffer_, 0, dst, off + first, count - first);
+		}
+		bufferPulled(count);
+		return count;
+	}
+
+	private int bufferWaitBatch(int len, BatchInfo info)
+			throws InterruptedException, ConnectionLostException {
+		if (buffer_ == null) {
+			throw new IllegalStateException(
+					"Need to call setBuffer() before reading buffered values.");
+		}
+		if (len <= 0) {
+			throw new IllegalArgumentException("len must be positive");
+		}
+		while (bufferSize_ == 0 && state_ == State.OPEN) {
+			wait();
+		}
+		checkState();
+		final int count = Math.min(len, bufferSize_);
+		if (info != null) {
+			info.count = count;
+			info.firstSequence = bufferWriteSequence_ - bufferSize_;
+			info.overflowCount = bufferOverflowCount_
+					- bufferReportedOverflowCount_;
+		}
+		bufferReportedOverflowCount_ = bufferOverflowCount_;
+		return count;
+	}
+
+	private void bufferPulled(int count) {
+		bufferSize_ -= count;
+		bufferReadCursor_ += count;
+		if (bufferReadCursor_ >= bufferCapacity_) {
+			bufferReadCursor_ -= bufferCapacity_;
+		}
+	}
+
 	private synchronized short bufferPull() throws InterruptedException,
 			ConnectionLostException {
 		if (buffer_ == null) {
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free, single-producer single-consumer byte ring, exposed as a pair
+ * of blocking streams. At any given time there must be at most one thread
+ * writing and one thread reading, but these may change over time as long as
+ * the handover is synchronized externally (e.g. writes made under a lock).
+ * <p>
+ * The cursors are free-running and only ever advanced by their owner, so the
+ * fast path is a pair of volatile accesses and an array copy. A side that
+ * cannot make progress yields briefly and then parks, and the other side
+ * unparks it after publishing.
+ * After {@link #close()}, reads drain the remaining data and then report end
+ * of stream, and writes fail.
+ */
+class ByteRing {
+	// Number of times to yield before parking, as the other side is often
+	// just about to make progress.
+	private static final int SPIN_COUNT = 16;
+
+	private final byte[] buffer_;
+	private final int mask_;
+	private volatile long writeCursor_ = 0;
+	private volatile long readCursor_ = 0;
+	private volatile boolean closed_ = false;
+	private volatile Thread waitingReader_ = null;
+	private volatile Thread waitingWriter_ = null;
+
+	private final InputStream in_ = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			if (!waitReadable()) {
+				return -1;
+			}
+			final long r = readCursor_;
+			final int b = buffer_[(int) r & mask_] & 0xFF;
+			publishRead(r + 1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return ByteRing.this.read(b, off, len);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) (writeCursor_ - readCursor_);
+		}
+
+		@Override
+		public void close() throws IOException {
+			ByteRing.this.close();
+		}
+	};
+
+	private final OutputStream out_ = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			waitWritable();
+			final long w = writeCursor_;
+			buffer_[(int) w & mask_] = (byte) b;
+			publishWrite(w + 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteRing.this.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			ByteRing.this.close();
+		}
+	};
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity
+	 *            Size of the ring, in bytes. Must be a power of two.
+	 */
+	ByteRing(int capacity) {
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+			throw new IllegalArgumentException(
+					"capacity must be a power of two");
+		}
+		buffer_ = new byte[capacity];
+		mask_ = capacity - 1;
+	}
+
+	InputStream getInputStream() {
+		return in_;
+	}
+
+	OutputStream getOutputStream() {
+		return out_;
+	}
+
+	void close() {
+		closed_ = true;
+		LockSupport.unpark(waitingReader_);
+		LockSupport.unpark(waitingWriter_);
+	}
+
+	private int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!waitReadable()) {
+			return -1;
+		}
+		final long r = readCursor_;
+		final int count = (int) Math.min(len, writeCursor_ - r);
+		final int index = (int) r & mask_;
+		final int first = Math.min(count, buffer_.length - index);
+		System.arraycopy(buffer_, index, b, off, first);
+		System.arraycopy(buffer_, 0, b, off + first, count - first);
+		publishRead(r + count);
+		return count;
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			waitWritable();
+			final long w = writeCursor_;
+			final int count = (int) Math.min(len, buffer_.length
+					- (w - readCursor_));
+			final int index = (int) w & mask_;
+			final int first = Math.min(count, buffer_.length - index);
+			System.arraycopy(b, off, buffer_, index, first);
+			System.arraycopy(b, off + first, buffer_, 0, count - first);
+			publishWrite(w + count);
+			off += count;
+			len -= count;
+		}
+	}
+
+	private void publishRead(long r) {
+		readCursor_ = r;
+		final Thread writer = waitingWriter_;
+		if (writer != null) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	private void publishWrite(long w) {
+		writeCursor_ = w;
+		final Thread reader = waitingReader_;
+		if (reader != null) {
+			LockSupport.unpark(reader);
+		}
+	}
+
+	/** @return false on end of stream. */
+	private boolean waitReadable() throws IOException {
+		for (int i = 0; i < SPIN_COUNT; ++i) {
+			if (writeCursor_ != readCursor_) {
+				return true;
+			}
+			Thread.yield();
+		}
+		waitingReader_ = Thread.currentThread();
+		try {
+			// Re-check after announcing ourselves, so that a concurrent
+			// publish either is seen here or unparks us.
+			while (writeCursor_ == readCursor_ && !closed_) {
+				LockSupport.park(this);
+				// The interrupt status is left set for the caller.
+				if (Thread.currentThread().isInterrupted()) {
+					throw new IOException("Interrupted");
+				}
+			}
+		} finally {
+			waitingReader_ = null;
+		}
+		return writeCursor_ != readCursor_;
+	}
+
+	private void waitWritable() throws IOException {
+		if (closed_) {
+			throw new IOException("Ring closed");
+		}
+		for (int i = 0; i < SPIN_COUNT; ++i) {
+			if (writeCursor_ - readCursor_ < buffer_.length) {
+				return;
+			}
+			Thread.yield();
+		}
+		waitingWriter_ = Thread.currentThread();
+		try {
+			while (writeCursor_ - readCursor_ == buffer_.length && !closed_) {
+				LockSupport.park(this);
+				if (Thread.currentThread().isInterrupted()) {
+					throw new IOException("Interrupted");
+				}
+			}
+		} finally {
+			waitingWriter_ = null;
+		}
+		if (closed_) {
+			throw new IOException("Ring closed");
+		}
+	}
+}
@@ -38,6 +38,7 @@ class Constants {
 	static final int[] INCAP_MODULES_DOUBLE = new int[] { 0, 2, 4};
 	static final int[] INCAP_MODULES_SINGLE = new int[] { 6, 7, 8};
 	static final int BUFFER_SIZE = 1024;
+	static final int MAX_UART_BUFFER_SIZE = 1 << 20;
 	static final int PACKET_BUFFER_SIZE = 256;
 	
 	static final int[][] TWI_PINS = new int[][] {{ 4, 5 }, { 47, 48 }, { 26, 25 }};
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.CallbackStats;
+import ioio.lib.api.DispatchStats;
+import ioio.lib.impl.IncomingState.DataModuleListener;
+import ioio.lib.impl.IncomingState.InputPinListener;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * Stands in for a resource's listener on the incoming thread: events are
+ * copied into a lock-free queue and delivered to the real listener by an
+ * executor, so that a resource whose monitor is held by a slow user thread
+ * only stalls itself rather than the parsing of the whole connection.
+ * <p>
+ * Events of a single resource are delivered in order, by at most one
+ * executor thread at a time.
+ */
+class DecoupledListener implements InputPinListener, DataModuleListener,
+		Runnable {
+	private static final String TAG = "DecoupledListener";
+	private static final int SET_VALUE = 0;
+	private static final int DATA_RECEIVED = 1;
+	private static final int ADDITIONAL_BUFFER = 2;
+
+	private static class Event {
+		final int type;
+		final int value;
+		final byte[] data;
+		final long enqueued;
+
+		Event(int type, int value, byte[] data) {
+			this.type = type;
+			this.value = value;
+			this.data = data;
+			enqueued = System.nanoTime();
+		}
+	}
+
+	private final String resource_;
+	private final InputPinListener pinListener_;
+	private final DataModuleListener moduleListener_;
+	private final Executor executor_;
+	private final Queue<Event> queue_ = new ConcurrentLinkedQueue<Event>();
+	private final AtomicInteger backlog_ = new AtomicInteger();
+	private final AtomicBoolean scheduled_ = new AtomicBoolean();
+	// Written by the incoming thread only.
+	private volatile int maxBacklog_ = 0;
+	// Written by the delivering thread only.
+	private volatile long maxWaitNanos_ = 0;
+	private volatile long calls_ = 0;
+	private volatile long totalNanos_ = 0;
+	private volatile long maxNanos_ = 0;
+
+	DecoupledListener(String resource, InputPinListener listener,
+			Executor executor) {
+		resource_ = resource;
+		pinListener_ = listener;
+		moduleListener_ = null;
+		executor_ = executor;
+	}
+
+	DecoupledListener(String resource, DataModuleListener listener,
+			Executor executor) {
+		resource_ = resource;
+		pinListener_ = null;
+		moduleListener_ = listener;
+		executor_ = executor;
+	}
+
+	@Override
+	public void setValue(int value) {
+		enqueue(new Event(SET_VALUE, value, null));
+	}
+
+	@Override
+	public void dataReceived(byte[] data, int size) {
+		// The protocol reuses its buffer for the next message.
+		final byte[] copy = new byte[size];
+		System.arraycopy(data, 0, copy, 0, Math.min(size, data.length));
+		enqueue(new Event(DATA_RECEIVED, size, copy));
+	}
+
+	@Override
+	public void reportAdditionalBuffer(int bytesToAdd) {
+		enqueue(new Event(ADDITIONAL_BUFFER, bytesToAdd, null));
+	}
+
+	String getResource() {
+		return resource_;
+	}
+
+	DispatchStats getStats() {
+		final Event head = queue_.peek();
+		return new DispatchStats(resource_, backlog_.get(), maxBacklog_,
+				head == null ? 0 : System.nanoTime() - head.enqueued,
+				maxWaitNanos_, new CallbackStats(calls_, totalNanos_,
+						maxNanos_));
+	}
+
+	private void enqueue(Event event) {
+		queue_.add(event);
+		final int backlog = backlog_.incrementAndGet();
+		if (backlog > maxBacklog_) {
+			maxBacklog_ = backlog;
+		}
+		if (scheduled_.compareAndSet(false, true)) {
+			executor_.execute(this);
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Event event;
+			while ((event = queue_.poll()) != null) {
+				backlog_.decrementAndGet();
+				deliver(event);
+			}
+			scheduled_.set(false);
+			// An event may have been added after the last poll, but before
+			// the flag was cleared.
+			if (queue_.isEmpty() || !scheduled_.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+
+	private void deliver(Event event) {
+		final long start = System.nanoTime();
+		final long wait = start - event.enqueued;
+		if (wait > maxWaitNanos_) {
+			maxWaitNanos_ = wait;
+		}
+		try {
+			switch (event.type) {
+			case SET_VALUE:
+				pinListener_.setValue(event.value);
+				break;
+			case DATA_RECEIVED:
+				moduleListener_.dataReceived(event.data, event.value);
+				break;
+			case ADDITIONAL_BUFFER:
+				moduleListener_.reportAdditionalBuffer(event.value);
+				break;
+			}
+		} catch (RuntimeException e) {
+			Log.e(TAG, resource_ + " listener failed", e);
+		}
+		final long elapsed = System.nanoTime() - start;
+		calls_ = calls_ + 1;
+		totalNanos_ = totalNanos_ + elapsed;
+		if (elapsed > maxNanos_) {
+			maxNanos_ = elapsed;
+		}
+	}
+}
@@ -28,30 +28,86 @@
  */
 package ioio.lib.impl;
 
+import ioio.lib.api.DigitalEdgeListener;
 import ioio.lib.api.DigitalInput;
 import ioio.lib.api.exception.ConnectionLostException;
 import ioio.lib.impl.IncomingState.InputPinListener;
+import ioio.lib.util.ListenerArray;
 
 import java.io.IOException;
 
+import android.util.Log;
+
 class DigitalInputImpl extends AbstractPin implements DigitalInput,
 		InputPinListener {
 	private boolean value_;
 	private boolean valid_ = false;
 
+	private final ListenerArray<DigitalEdgeListener> edgeListeners_ = new ListenerArray<DigitalEdgeListener>(
+			new DigitalEdgeListener[0]);
+	boolean[] edgeLevels_;
+	long[] edgeTimestamps_;
+	int edgeCapacity_;
+	int edgeSize_;
+	int edgeReadCursor_;
+	int edgeWriteCursor_;
+	int missedEdgeCount_ = 0;
+
 	DigitalInputImpl(IOIOImpl ioio, int pin) throws ConnectionLostException {
 		super(ioio, pin);
 	}
 
 	@Override
-	synchronized public void setValue(int value) {
+	public void setValue(int value) {
 		// Log.v("DigitalInputImpl", "Pin " + pinNum_ + " value is " + value);
 		assert (value == 0 || value == 1);
-		value_ = (value == 1);
-		if (!valid_) {
-			valid_ = true;
+		final boolean level = (value == 1);
+		final long timestamp = System.nanoTime();
+		synchronized (this) {
+			if (!valid_) {
+				// The initial level is not an edge.
+				valid_ = true;
+				value_ = level;
+				notifyAll();
+				return;
+			}
+			if (level == value_) {
+				// The level has changed and changed back before being
+				// reported.
+				missedEdgeCount_ += 2;
+				return;
+			}
+			value_ = level;
+			edgePush(level, timestamp);
+			notifyAll();
+		}
+		for (DigitalEdgeListener listener : edgeListeners_.get()) {
+			try {
+				listener.edgeDetected(this, level, timestamp);
+			} catch (RuntimeException e) {
+				Log.e("DigitalInputImpl", "Edge listener failed", e);
+			}
+		}
+	}
+
+	private void edgePush(boolean level, long timestamp) {
+		if (edgeLevels_ == null) {
+			return;
+		}
+		if (edgeSize_ == edgeCapacity_) {
+			// Drop the oldest edge.
+			++missedEdgeCount_;
+			if (++edgeReadCursor_ == edgeCapacity_) {
+				edgeReadCursor_ = 0;
+			}
+		} else {
+			++edgeSize_;
+		}
+		edgeLevels_[edgeWriteCursor_] = level;
+		edgeTimestamps_[edgeWriteCursor_] = timestamp;
+		if (++edgeWriteCursor_ == edgeCapacity_) {
+			edgeWriteCursor_ = 0;
 		}
-		notifyAll();
 	}
 
 	@Override
@@ -89,4 +145,80 @@ class DigitalInputImpl extends AbstractPin implements DigitalInput,
 		super.disconnected();
 		notifyAll();
 	}
+
+	@Override
+	synchronized public void addEdgeListener(DigitalEdgeListener listener)
+			throws ConnectionLostException {
+		checkState();
+		edgeListeners_.add(listener);
+	}
+
+	@Override
+	synchronized public void removeEdgeListener(DigitalEdgeListener listener) {
+		edgeListeners_.remove(listener);
+	}
+
+	@Override
+	synchronized public void setEdgeQueue(int capacity)
+			throws ConnectionLostException {
+		checkState();
+		if (capacity <= 0) {
+			edgeLevels_ = null;
+			edgeTimestamps_ = null;
+			capacity = 0;
+		} else {
+			edgeLevels_ = new boolean[capacity];
+			edgeTimestamps_ = new long[capacity];
+		}
+		edgeCapacity_ = capacity;
+		edgeSize_ = 0;
+		edgeReadCursor_ = 0;
+		edgeWriteCursor_ = 0;
+	}
+
+	@Override
+	synchronized public int availableEdges() throws ConnectionLostException {
+		return edgeSize_;
+	}
+
+	@Override
+	synchronized public int readEdges(boolean[] levels, long[] timestamps,
+			int off, int len) throws InterruptedException,
+			ConnectionLostException {
+		checkState();
+		if (edgeLevels_ == null) {
+			throw new IllegalStateException(
+					"Need to call setEdgeQueue() before reading edges.");
+		}
+		if (len <= 0) {
+			throw new IllegalArgumentException("len must be positive");
+		}
+		while (edgeSize_ == 0 && state_ == State.OPEN) {
+			wait();
+		}
+		checkState();
+		final int count = Math.min(len, edgeSize_);
+		final int first = Math.min(count, edgeCapacity_ - edgeReadCursor_);
+		System.arraycopy(edgeLevels_, edgeReadCursor_, levels, off, first);
+		System.arraycopy(edgeTimestamps_, edgeReadCursor_, timestamps, off,
+				first);
+		if (first < count) {
+			System.arraycopy(edgeLevels_, 0, levels, off + first, count
+					- first);
+			System.arraycopy(edgeTimestamps_, 0, timestamps, off + first,
+					count - first);
+		}
+		edgeSize_ -= count;
+		edgeReadCursor_ += count;
+		if (edgeReadCursor_ >= edgeCapacity_) {
+			edgeReadCursor_ -= edgeCapacity_;
+		}
+		return count;
+	}
+
+	@Override
+	synchronized public int getMissedEdgeCount()
+			throws ConnectionLostException {
+		return missedEdgeCount_;
+	}
 }
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.OutgoingLaneStats;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * A single thread servicing all the flow-controlled outgoing queues of one
+ * IOIO.
+ * <p>
+ * Each queue registers a {@link Pump} in a priority lane and gets a
+ * {@link Channel} back, which may later move to another lane. The queue calls {@link Channel#schedule()} whenever it
+ * has both data and credits to send. Scheduled channels of the highest
+ * non-empty lane are served first, round-robin within the lane, one packet
+ * (message) at a time. A channel is never pumped concurrently with itself,
+ * which keeps the per-resource ordering.
+ */
+class FlowControlScheduler {
+	interface Pump {
+		/**
+		 * Sends at most one packet, if data and credits allow.
+		 *
+		 * @return Whether there may be more to send right away.
+		 */
+		boolean pump();
+	}
+
+	private enum ChannelState {
+		IDLE, QUEUED, RUNNING, RUNNING_RESCHEDULE, CLOSED
+	}
+
+	class Channel {
+		private final Pump pump_;
+		private int lane_;
+		private ChannelState state_ = ChannelState.IDLE;
+		private long queuedAt_;
+
+		private Channel(Pump pump, OutgoingLaneStats.Lane lane) {
+			pump_ = pump;
+			lane_ = lane.ordinal();
+		}
+
+		void schedule() {
+			synchronized (FlowControlScheduler.this) {
+				switch (state_) {
+				case IDLE:
+					if (shutdown_) {
+						state_ = ChannelState.CLOSED;
+						break;
+					}
+					enqueue(this);
+					FlowControlScheduler.this.notifyAll();
+					break;
+				case RUNNING:
+					state_ = ChannelState.RUNNING_RESCHEDULE;
+					break;
+				default:
+					break;
+				}
+			}
+		}
+
+		void setLane(OutgoingLaneStats.Lane lane) {
+			synchronized (FlowControlScheduler.this) {
+				if (state_ == ChannelState.QUEUED) {
+					ready_.get(lane_).remove(this);
+					ready_.get(lane.ordinal()).add(this);
+				}
+				lane_ = lane.ordinal();
+			}
+		}
+
+		/** Accounts for a packet sent without going through the scheduler. */
+		void sentDirectly() {
+			synchronized (FlowControlScheduler.this) {
+				++packets_[lane_];
+			}
+		}
+
+		void close() {
+			synchronized (FlowControlScheduler.this) {
+				if (state_ == ChannelState.QUEUED
+						&& ready_.get(lane_).remove(this)) {
+					--numReady_;
+				}
+				state_ = ChannelState.CLOSED;
+			}
+		}
+	}
+
+	private static final int NUM_LANES = OutgoingLaneStats.Lane.values().length;
+
+	private final List<Queue<Channel>> ready_ = new ArrayList<Queue<Channel>>(
+			NUM_LANES);
+	private final long[] packets_ = new long[NUM_LANES];
+	private final long[] totalDelayNanos_ = new long[NUM_LANES];
+	private final long[] maxDelayNanos_ = new long[NUM_LANES];
+	private int numReady_ = 0;
+	private SchedulerThread thread_ = null;
+	private boolean shutdown_ = false;
+
+	FlowControlScheduler() {
+		for (int i = 0; i < NUM_LANES; ++i) {
+			ready_.add(new LinkedList<Channel>());
+		}
+	}
+
+	synchronized Channel register(Pump pump, OutgoingLaneStats.Lane lane) {
+		if (thread_ == null && !shutdown_) {
+			thread_ = new SchedulerThread();
+			thread_.setDaemon(true);
+			thread_.start();
+		}
+		return new Channel(pump, lane);
+	}
+
+	synchronized void shutdown() {
+		shutdown_ = true;
+		for (Queue<Channel> lane : ready_) {
+			for (Channel channel : lane) {
+				channel.state_ = ChannelState.CLOSED;
+			}
+			lane.clear();
+		}
+		numReady_ = 0;
+		notifyAll();
+		if (thread_ != null) {
+			thread_.interrupt();
+		}
+	}
+
+	synchronized OutgoingLaneStats getStats(OutgoingLaneStats.Lane lane) {
+		final int i = lane.ordinal();
+		return new OutgoingLaneStats(lane, packets_[i], totalDelayNanos_[i],
+				maxDelayNanos_[i]);
+	}
+
+	private void enqueue(Channel channel) {
+		channel.state_ = ChannelState.QUEUED;
+		channel.queuedAt_ = System.nanoTime();
+		ready_.get(channel.lane_).add(channel);
+		++numReady_;
+	}
+
+	private Channel dequeue() {
+		for (int i = 0; i < NUM_LANES; ++i) {
+			final Channel channel = ready_.get(i).poll();
+			if (channel != null) {
+				--numReady_;
+				final long delay = System.nanoTime() - channel.queuedAt_;
+				++packets_[i];
+				totalDelayNanos_[i] += delay;
+				if (delay > maxDelayNanos_[i]) {
+					maxDelayNanos_[i] = delay;
+				}
+				channel.state_ = ChannelState.RUNNING;
+				return channel;
+			}
+		}
+		return null;
+	}
+
+	class SchedulerThread extends Thread {
+		@Override
+		public void run() {
+			super.run();
+			try {
+				while (true) {
+					Channel channel;
+					synchronized (FlowControlScheduler.this) {
+						while (numReady_ == 0 && !shutdown_) {
+							FlowControlScheduler.this.wait();
+						}
+						// pump() may swallow the interrupt of shutdown().
+						if (shutdown_) {
+							return;
+						}
+						channel = dequeue();
+						if (channel == null) {
+							numReady_ = 0;
+							continue;
+						}
+					}
+					final boolean more = channel.pump_.pump();
+					synchronized (FlowControlScheduler.this) {
+						if (channel.state_ == ChannelState.CLOSED) {
+							continue;
+						}
+						if (more
+								|| channel.state_ == ChannelState.RUNNING_RESCHEDULE) {
+							enqueue(channel);
+						} else {
+							channel.state_ = ChannelState.IDLE;
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+}
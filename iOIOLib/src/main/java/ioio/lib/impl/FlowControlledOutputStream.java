@@ -28,41 +28,50 @@
  */
 package ioio.lib.impl;
 
+import ioio.lib.api.OutgoingLaneStats;
+
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 
-class FlowControlledOutputStream extends OutputStream {
+class FlowControlledOutputStream extends OutputStream implements
+		FlowControlScheduler.Pump {
 	interface Sender {
 		void send(byte[] data, int size);
 	}
 
 	private final Sender sender_;
-	private final BlockingQueue<Byte> queue_ = new ArrayBlockingQueue<Byte>(
-			Constants.BUFFER_SIZE);
-	private final FlushThread thread_ = new FlushThread();
+	private final byte[] buffer_ = new byte[Constants.BUFFER_SIZE];
+	private final int mask_ = buffer_.length - 1;
+	private final FlowControlScheduler.Channel channel_;
 	private final int maxPacket_;
 	private final byte[] packet_;
 
+	private int readCursor_ = 0;
+	private int size_ = 0;
 	private int readyToSend_ = 0;
+	// Whoever sets this owns packet_ and is the only one allowed to call the
+	// sender (either the scheduler or a direct writer), which keeps the bytes
+	// in order.
+	private boolean sending_ = false;
 	private boolean closed_ = false;
 
-	public FlowControlledOutputStream(Sender sender, int maxPacket) {
+	public FlowControlledOutputStream(Sender sender, int maxPacket,
+			FlowControlScheduler scheduler, OutgoingLaneStats.Lane lane) {
 		sender_ = sender;
 		maxPacket_ = maxPacket;
 		packet_ = new byte[maxPacket];
-		thread_.start();
+		channel_ = scheduler.register(this, lane);
 	}
 
 	@Override
 	synchronized public void flush() throws IOException {
 		try {
-			while (!closed_ && !queue_.isEmpty()) {
+			while (!closed_ && (size_ != 0 || sending_)) {
 				wait();
 			}
 		} catch (InterruptedException e) {
-			throw new IOException("Interrupted");
+			throw new InterruptedIOException("Interrupted");
 		}
 		if (closed_) {
 			throw new IOException("Stream has been closed");
@@ -70,23 +79,113 @@ class FlowControlledOutputStream extends OutputStream {
 	}
 
 	@Override
-	synchronized public void write(int oneByte) throws IOException {
+	public void write(int oneByte) throws IOException {
+		synchronized (this) {
+			checkClosed();
+			if (!acquireDirect(1)) {
+				waitForSpace();
+				buffer_[(readCursor_ + size_) & mask_] = (byte) oneByte;
+				++size_;
+				scheduleIfReady();
+				return;
+			}
+			packet_[0] = (byte) oneByte;
+		}
+		sendDirect(1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return;
+		}
+		synchronized (this) {
+			checkClosed();
+			if (!acquireDirect(len)) {
+				enqueue(b, off, len);
+				return;
+			}
+			System.arraycopy(b, off, packet_, 0, len);
+		}
+		sendDirect(len);
+	}
+
+	/**
+	 * Small writes bypass the flush thread when nothing is pending and the
+	 * remote side has room for them. Must be called with the monitor held.
+	 */
+	private boolean acquireDirect(int len) {
+		if (size_ != 0 || sending_ || len > maxPacket_ || len > readyToSend_) {
+			return false;
+		}
+		readyToSend_ -= len;
+		sending_ = true;
+		return true;
+	}
+
+	private void sendDirect(int len) {
+		channel_.sentDirectly();
+		try {
+			sender_.send(packet_, len);
+		} finally {
+			synchronized (this) {
+				sending_ = false;
+				notifyAll();
+				scheduleIfReady();
+			}
+		}
+	}
+
+	private void scheduleIfReady() {
+		if (size_ != 0 && readyToSend_ != 0 && !sending_) {
+			channel_.schedule();
+		}
+	}
+
+	private void enqueue(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			waitForSpace();
+			final int count = Math.min(len, buffer_.length - size_);
+			final int start = (readCursor_ + size_) & mask_;
+			final int first = Math.min(count, buffer_.length - start);
+			System.arraycopy(b, off, buffer_, start, first);
+			if (first < count) {
+				System.arraycopy(b, off + first, buffer_, 0, count - first);
+			}
+			size_ += count;
+			off += count;
+			len -= count;
+			scheduleIfReady();
+		}
+	}
+
+	private void waitForSpace() throws IOException {
 		try {
-			while (!closed_ && !queue_.offer((byte) oneByte)) {
+			while (!closed_ && size_ == buffer_.length) {
 				wait();
 			}
 		} catch (InterruptedException e) {
-			throw new IOException("Interrupted");
+			throw new InterruptedIOException("Interrupted");
 		}
+		checkClosed();
+	}
+
+	private void checkClosed() throws IOException {
 		if (closed_) {
 			throw new IOException("Stream has been closed");
 		}
-		notifyAll();
+	}
+
+	void setLane(OutgoingLaneStats.Lane lane) {
+		channel_.setLane(lane);
 	}
 
 	synchronized public void readyToSend(int numBytes) {
 		readyToSend_ += numBytes;
-		notifyAll();
+		scheduleIfReady();
 	}
 
 	@Override
@@ -96,32 +195,39 @@ class FlowControlledOutputStream extends OutputStream {
 		}
 		closed_ = true;
 		notifyAll();
-		thread_.interrupt();
+		channel_.close();
 	}
 
-	class FlushThread extends Thread {
-		@Override
-		public void run() {
-			super.run();
-			try {
-				while (true) {
-					int toSend;
-					synchronized (FlowControlledOutputStream.this) {
-						while (readyToSend_ == 0 || queue_.isEmpty()) {
-							FlowControlledOutputStream.this.wait();
-						}
-						toSend = Math.min(maxPacket_,
-								Math.min(readyToSend_, queue_.size()));
-						for (int i = 0; i < toSend; ++i) {
-							packet_[i] = queue_.remove();
-						}
-						readyToSend_ -= toSend;
-						FlowControlledOutputStream.this.notifyAll();
-					}
-					sender_.send(packet_, toSend);
-				}
-			} catch (InterruptedException e) {
+	@Override
+	public boolean pump() {
+		int toSend;
+		synchronized (this) {
+			if (closed_ || readyToSend_ == 0 || size_ == 0 || sending_) {
+				return false;
 			}
+			toSend = Math.min(maxPacket_, Math.min(readyToSend_, size_));
+			final int start = readCursor_ & mask_;
+			final int first = Math.min(toSend, buffer_.length - start);
+			System.arraycopy(buffer_, start, packet_, 0, first);
+			if (first < toSend) {
+				System.arraycopy(buffer_, 0, packet_, first, toSend - first);
+			}
+			readCursor_ = (readCursor_ + toSend) & mask_;
+			size_ -= toSend;
+			readyToSend_ -= toSend;
+			sending_ = true;
+			notifyAll();
+		}
+		try {
+			sender_.send(packet_, toSend);
+		} finally {
+			synchronized (this) {
+				sending_ = false;
+				notifyAll();
+			}
+		}
+		synchronized (this) {
+			return !closed_ && size_ != 0 && readyToSend_ != 0;
 		}
 	}
 }
@@ -28,11 +28,13 @@
  */
 package ioio.lib.impl;
 
+import ioio.lib.api.OutgoingLaneStats;
+
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
-class FlowControlledPacketSender {
+class FlowControlledPacketSender implements FlowControlScheduler.Pump {
 	interface Packet {
 		int getSize();
 	}
@@ -44,14 +46,15 @@ class FlowControlledPacketSender {
 	private final Sender sender_;
 	private final BlockingQueue<Packet> queue_ = new ArrayBlockingQueue<Packet>(
 			Constants.PACKET_BUFFER_SIZE);
-	private final FlushThread thread_ = new FlushThread();
+	private final FlowControlScheduler.Channel channel_;
 
 	private int readyToSend_ = 0;
 	private boolean closed_ = false;
 
-	public FlowControlledPacketSender(Sender sender) {
+	public FlowControlledPacketSender(Sender sender,
+			FlowControlScheduler scheduler, OutgoingLaneStats.Lane lane) {
 		sender_ = sender;
-		thread_.start();
+		channel_ = scheduler.register(this, lane);
 	}
 
 	synchronized public void flush() throws IOException {
@@ -78,41 +81,49 @@ class FlowControlledPacketSender {
 		if (closed_) {
 			throw new IllegalStateException("Stream has been closed");
 		}
-		notifyAll();
+		scheduleIfReady();
+	}
+
+	void setLane(OutgoingLaneStats.Lane lane) {
+		channel_.setLane(lane);
 	}
 
 	synchronized public void readyToSend(int numBytes) {
 		readyToSend_ += numBytes;
-		notifyAll();
+		scheduleIfReady();
 	}
 
 	synchronized public void close() {
 		closed_ = true;
-		thread_.interrupt();
+		notifyAll();
+		channel_.close();
 	}
 
 	synchronized public void kill() {
-		thread_.interrupt();
+		channel_.close();
 	}
 
-	class FlushThread extends Thread {
-		@Override
-		public void run() {
-			super.run();
-			try {
-				while (true) {
-					synchronized (FlowControlledPacketSender.this) {
-						while (queue_.isEmpty()
-								|| readyToSend_ < queue_.peek().getSize()) {
-							FlowControlledPacketSender.this.wait();
-						}
-						FlowControlledPacketSender.this.notifyAll();
-						readyToSend_ -= queue_.peek().getSize();
-					}
-					sender_.send(queue_.remove());
-				}
-			} catch (InterruptedException e) {
+	private void scheduleIfReady() {
+		if (!queue_.isEmpty() && readyToSend_ >= queue_.peek().getSize()) {
+			channel_.schedule();
+		}
+	}
+
+	@Override
+	public boolean pump() {
+		Packet packet;
+		synchronized (this) {
+			if (queue_.isEmpty() || readyToSend_ < queue_.peek().getSize()) {
+				return false;
 			}
+			packet = queue_.remove();
+			readyToSend_ -= packet.getSize();
+			notifyAll();
+		}
+		sender_.send(packet);
+		synchronized (this) {
+			return !queue_.isEmpty()
+					&& readyToSend_ >= queue_.peek().getSize();
 		}
 	}
 }
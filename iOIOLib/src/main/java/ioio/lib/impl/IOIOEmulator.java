@@ -0,0 +1,765 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import android.util.Log;
+
+/**
+ * A pure-Java emulation of the IOIO firmware, speaking the IOIO protocol over
+ * a pair of streams. It enables running the entire library, and applications
+ * built on top of it, without any hardware, e.g. for headless testing and load
+ * testing.
+ * <p>
+ * The emulator keeps track of pin and module state as configured by the host,
+ * and behaves as follows:
+ * <ul>
+ * <li>Digital and analog inputs report the levels set by
+ * {@link #setDigitalInput(int, boolean)} and {@link #setAnalogInput(int, int)}.
+ * Analog inputs are reported once every millisecond.</li>
+ * <li>Digital outputs and PWM settings can be inspected via
+ * {@link #getDigitalOutput(int)}, {@link #getPwmDutyCycle(int)} and
+ * {@link #getPwmPeriod(int)}.</li>
+ * <li>Data written to a UART is passed to its {@link UartDevice}, or echoed
+ * back if none has been set. Devices can send data to the host with
+ * {@link #sendUartData(int, byte[], int)}.</li>
+ * <li>TWI transactions are passed to the {@link TwiDevice} registered for the
+ * addressed slave, and are NACK'ed if there is none.</li>
+ * <li>SPI transactions are passed to the module's {@link SpiDevice}, or looped
+ * back (MISO tied to MOSI) if none has been set.</li>
+ * <li>Input capture modules report the pulse duration set by
+ * {@link #setPulseDuration(int, long)} for their pin, once every millisecond.
+ * </li>
+ * <li>ICSP instructions are passed to the {@link IcspDevice}, if one has been
+ * set. Otherwise, REGOUT returns the low 16 bits of the latest SIX
+ * instruction.</li>
+ * </ul>
+ * Transmit buffer credits are issued as the firmware would, so the host's
+ * flow control is exercised.
+ */
+public class IOIOEmulator {
+	private static final String TAG = "IOIOEmulator";
+	private static final int NUM_PINS = Constants.NUM_PINS;
+	private static final int TX_BUFFER_SIZE = 256;
+	private static final int ICSP_RX_BUFFER_SIZE = 64;
+	private static final int NUM_INCAP_MODULES = 9;
+
+	/** A device attached to a UART of the emulated IOIO. */
+	public interface UartDevice {
+		/**
+		 * Called with data sent by the host. Called on the emulator's thread,
+		 * and may call {@link IOIOEmulator#sendUartData(int, byte[], int)}.
+		 */
+		public void dataReceived(IOIOEmulator emulator, int uartNum,
+				byte[] data, int size);
+	}
+
+	/** A slave on a TWI bus of the emulated IOIO. */
+	public interface TwiDevice {
+		/**
+		 * Execute a transaction.
+		 * 
+		 * @return false to NACK the transaction.
+		 */
+		public boolean writeRead(byte[] writeData, int writeSize,
+				byte[] readData, int readSize);
+	}
+
+	/** The slaves on an SPI bus of the emulated IOIO. */
+	public interface SpiDevice {
+		/**
+		 * Execute a transaction on the slave selected by ssPin. miso is to be
+		 * filled with size bytes of response.
+		 */
+		public void transfer(int ssPin, byte[] mosi, byte[] miso, int size);
+	}
+
+	/** A PIC attached to the ICSP pins of the emulated IOIO. */
+	public interface IcspDevice {
+		/** Execute a 24-bit instruction (SIX). */
+		public void six(int instruction);
+
+		/** Read the 16-bit VISI register (REGOUT). */
+		public int regout();
+	}
+
+	private final InputStream in_;
+	private final OutputStream out_;
+	private final byte[] hardwareId_ = "EMUL0001".getBytes();
+	private final byte[] bootloaderId_ = "EMUL0001".getBytes();
+	private final byte[] firmwareId_ = "EMUL0001".getBytes();
+	private Thread commandThread_;
+	private Thread sampleThread_;
+	private volatile boolean running_ = false;
+
+	// Outgoing message assembly, guarded by this.
+	private final byte[] msg_ = new byte[320];
+	private int msgSize_ = 0;
+
+	// Pin state, guarded by this.
+	private final boolean[] digitalIn_ = new boolean[NUM_PINS];
+	private final boolean[] digitalInSet_ = new boolean[NUM_PINS];
+	private final boolean[] pullUp_ = new boolean[NUM_PINS];
+	private final boolean[] digitalOut_ = new boolean[NUM_PINS];
+	private final boolean[] changeNotify_ = new boolean[NUM_PINS];
+	private final int[] analogIn_ = new int[NUM_PINS];
+	private final boolean[] analogSampled_ = new boolean[NUM_PINS];
+	private boolean analogFormatChanged_ = false;
+	private int[] analogPins_ = new int[0];
+	private final long[] pulseDuration_ = new long[NUM_PINS];
+	private final int[] pwmDutyCycle_ = new int[Constants.NUM_PWM_MODULES];
+	private final int[] pwmPeriod_ = new int[Constants.NUM_PWM_MODULES];
+	private final int[] incapPin_ = new int[NUM_INCAP_MODULES];
+	private final boolean[] incapOpen_ = new boolean[NUM_INCAP_MODULES];
+	private final UartDevice[] uartDevices_ = new UartDevice[Constants.NUM_UART_MODULES];
+	private final SpiDevice[] spiDevices_ = new SpiDevice[Constants.NUM_SPI_MODULES];
+	private final TwiDevice[][] twiDevices_ = new TwiDevice[Constants.NUM_TWI_MODULES][1024];
+	private IcspDevice icspDevice_ = null;
+	private int icspVisi_ = 0;
+
+	// Command decoding, used by the command thread only.
+	private final byte[] data_ = new byte[256];
+	private final byte[] response_ = new byte[256];
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param fromHost
+	 *            The stream on which the host's commands are received.
+	 * @param toHost
+	 *            The stream on which messages to the host are sent.
+	 */
+	public IOIOEmulator(InputStream fromHost, OutputStream toHost) {
+		in_ = new BufferedInputStream(fromHost);
+		out_ = toHost;
+		Arrays.fill(incapPin_, -1);
+	}
+
+	/** Establish the connection with the host and start serving it. */
+	public synchronized void start() {
+		if (running_) {
+			return;
+		}
+		running_ = true;
+		commandThread_ = new Thread(TAG + "-command") {
+			@Override
+			public void run() {
+				serveCommands();
+			}
+		};
+		sampleThread_ = new Thread(TAG + "-sample") {
+			@Override
+			public void run() {
+				sample();
+			}
+		};
+		commandThread_.start();
+		sampleThread_.start();
+	}
+
+	/** Stop serving the host and close the stream to it. */
+	public void stop() {
+		Thread commandThread;
+		Thread sampleThread;
+		synchronized (this) {
+			if (!running_) {
+				return;
+			}
+			running_ = false;
+			commandThread = commandThread_;
+			sampleThread = sampleThread_;
+		}
+		commandThread.interrupt();
+		sampleThread.interrupt();
+		try {
+			out_.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/** Set the level sensed on a digital input pin. */
+	public synchronized void setDigitalInput(int pin, boolean level) {
+		final boolean changed = digitalIn(pin) != level;
+		digitalIn_[pin] = level;
+		digitalInSet_[pin] = true;
+		if (changed && changeNotify_[pin]) {
+			begin(IOIOProtocol.REPORT_DIGITAL_IN_STATUS);
+			put((pin << 2) | (level ? 1 : 0));
+			send();
+		}
+	}
+
+	/** Set the reading of an analog input pin, between 0 and 1023. */
+	public synchronized void setAnalogInput(int pin, int value) {
+		if (value < 0 || value > 1023) {
+			throw new IllegalArgumentException("value must be 0-1023");
+		}
+		analogIn_[pin] = value;
+	}
+
+	/**
+	 * Set the duration of the pulses reported by input capture on a pin, in
+	 * timer ticks. 0 stops reporting.
+	 */
+	public synchronized void setPulseDuration(int pin, long ticks) {
+		pulseDuration_[pin] = ticks;
+	}
+
+	/** Get the level driven by a digital output pin. */
+	public synchronized boolean getDigitalOutput(int pin) {
+		return digitalOut_[pin];
+	}
+
+	/** Get the raw duty cycle setting of a PWM module. */
+	public synchronized int getPwmDutyCycle(int pwmNum) {
+		return pwmDutyCycle_[pwmNum];
+	}
+
+	/** Get the raw period setting of a PWM module. */
+	public synchronized int getPwmPeriod(int pwmNum) {
+		return pwmPeriod_[pwmNum];
+	}
+
+	/** Attach a device to a UART. null restores the default echo. */
+	public synchronized void setUartDevice(int uartNum, UartDevice device) {
+		uartDevices_[uartNum] = device;
+	}
+
+	/** Attach a slave to a TWI bus. null removes it. */
+	public synchronized void setTwiDevice(int twiNum, int address,
+			TwiDevice device) {
+		twiDevices_[twiNum][address] = device;
+	}
+
+	/** Attach slaves to an SPI bus. null restores the default loopback. */
+	public synchronized void setSpiDevice(int spiNum, SpiDevice device) {
+		spiDevices_[spiNum] = device;
+	}
+
+	/** Attach a PIC to the ICSP pins. null restores the default echo. */
+	public synchronized void setIcspDevice(IcspDevice device) {
+		icspDevice_ = device;
+	}
+
+	/** Send data from a UART device to the host. */
+	public synchronized void sendUartData(int uartNum, byte[] data, int size) {
+		for (int off = 0; off < size; off += 64) {
+			final int len = Math.min(64, size - off);
+			begin(IOIOProtocol.UART_DATA);
+			put((uartNum << 6) | (len - 1));
+			for (int i = 0; i < len; ++i) {
+				put(data[off + i] & 0xFF);
+			}
+			send();
+		}
+	}
+
+	private boolean digitalIn(int pin) {
+		return digitalInSet_[pin] ? digitalIn_[pin] : pullUp_[pin];
+	}
+
+	private void begin(int type) {
+		msgSize_ = 0;
+		put(type);
+	}
+
+	private void put(int b) {
+		msg_[msgSize_++] = (byte) b;
+	}
+
+	private void send() {
+		try {
+			out_.write(msg_, 0, msgSize_);
+		} catch (IOException e) {
+			// The host is gone. The command thread will find out.
+		}
+	}
+
+	private void sendTxStatus(int type, int num, int bytes) {
+		begin(type);
+		put(((bytes & 0x3F) << 2) | num);
+		put(bytes >> 6);
+		send();
+	}
+
+	private int read() throws IOException {
+		final int b = in_.read();
+		if (b < 0) {
+			throw new IOException("Host disconnected");
+		}
+		return b;
+	}
+
+	private void read(byte[] buf, int size) throws IOException {
+		for (int i = 0; i < size; ++i) {
+			buf[i] = (byte) read();
+		}
+	}
+
+	private void serveCommands() {
+		synchronized (this) {
+			begin(IOIOProtocol.ESTABLISH_CONNECTION);
+			put('I');
+			put('O');
+			put('I');
+			put('O');
+			for (byte b : hardwareId_) {
+				put(b);
+			}
+			for (byte b : bootloaderId_) {
+				put(b);
+			}
+			for (byte b : firmwareId_) {
+				put(b);
+			}
+			send();
+		}
+		try {
+			while (running_) {
+				handleCommand(read());
+			}
+		} catch (IOException e) {
+			Log.v(TAG, "Command stream ended: " + e.getMessage());
+		}
+		stop();
+	}
+
+	private void handleCommand(int type) throws IOException {
+		int arg1;
+		int arg2;
+		switch (type) {
+		case IOIOProtocol.HARD_RESET:
+			read(data_, 4);
+			throw new IOException("Hard reset");
+
+		case IOIOProtocol.SOFT_RESET:
+			synchronized (this) {
+				softReset();
+				begin(IOIOProtocol.SOFT_RESET);
+				send();
+			}
+			break;
+
+		case IOIOProtocol.CHECK_INTERFACE:
+			read(data_, 8);
+			synchronized (this) {
+				begin(IOIOProtocol.CHECK_INTERFACE_RESPONSE);
+				put(new String(data_, 0, 8).startsWith("IOIO000") ? 1 : 0);
+				send();
+			}
+			break;
+
+		case IOIOProtocol.SET_PIN_DIGITAL_OUT:
+			arg1 = read();
+			synchronized (this) {
+				digitalOut_[arg1 >> 2] = (arg1 & 0x02) != 0;
+			}
+			break;
+
+		case IOIOProtocol.SET_DIGITAL_OUT_LEVEL:
+			arg1 = read();
+			synchronized (this) {
+				digitalOut_[arg1 >> 2] = (arg1 & 0x01) != 0;
+			}
+			break;
+
+		case IOIOProtocol.SET_PIN_DIGITAL_IN:
+			arg1 = read();
+			synchronized (this) {
+				pullUp_[arg1 >> 2] = (arg1 & 0x03) == 1;
+			}
+			break;
+
+		case IOIOProtocol.SET_CHANGE_NOTIFY:
+			arg1 = read();
+			synchronized (this) {
+				final int pin = arg1 >> 2;
+				changeNotify_[pin] = (arg1 & 0x01) != 0;
+				begin(IOIOProtocol.SET_CHANGE_NOTIFY);
+				put(arg1 & ~0x02);
+				send();
+				if (changeNotify_[pin]) {
+					begin(IOIOProtocol.REPORT_DIGITAL_IN_STATUS);
+					put((pin << 2) | (digitalIn(pin) ? 1 : 0));
+					send();
+				}
+			}
+			break;
+
+		case IOIOProtocol.SET_PIN_PWM:
+			read();
+			read();
+			break;
+
+		case IOIOProtocol.SET_PWM_DUTY_CYCLE:
+			arg1 = read();
+			arg2 = read() | (read() << 8);
+			synchronized (this) {
+				pwmDutyCycle_[arg1 >> 2] = arg2;
+			}
+			break;
+
+		case IOIOProtocol.SET_PWM_PERIOD:
+			arg1 = read();
+			arg2 = read() | (read() << 8);
+			synchronized (this) {
+				pwmPeriod_[(arg1 >> 1) & 0x0F] = arg2;
+			}
+			break;
+
+		case IOIOProtocol.SET_PIN_ANALOG_IN:
+			read();
+			break;
+
+		case IOIOProtocol.SET_ANALOG_IN_SAMPLING:
+			arg1 = read();
+			synchronized (this) {
+				analogSampled_[arg1 & 0x3F] = (arg1 & 0x80) != 0;
+				analogFormatChanged_ = true;
+			}
+			break;
+
+		case IOIOProtocol.UART_CONFIG:
+			arg1 = read();
+			arg2 = read() | (read() << 8);
+			synchronized (this) {
+				final int uartNum = arg1 >> 6;
+				// A close request is an all-zero configuration.
+				final boolean open = arg2 != 0 || (arg1 & 0x3F) != 0;
+				begin(IOIOProtocol.UART_STATUS);
+				put((open ? 0x80 : 0x00) | uartNum);
+				send();
+				if (open) {
+					sendTxStatus(IOIOProtocol.UART_REPORT_TX_STATUS, uartNum,
+							TX_BUFFER_SIZE);
+				}
+			}
+			break;
+
+		case IOIOProtocol.UART_DATA:
+			arg1 = read();
+			arg2 = (arg1 & 0x3F) + 1;
+			read(data_, arg2);
+			handleUartData(arg1 >> 6, arg2);
+			break;
+
+		case IOIOProtocol.SET_PIN_UART:
+			read();
+			read();
+			break;
+
+		case IOIOProtocol.SPI_CONFIGURE_MASTER:
+			arg1 = read();
+			read();
+			synchronized (this) {
+				final int spiNum = arg1 >> 5;
+				final boolean open = (arg1 & 0x1F) != 0;
+				begin(IOIOProtocol.SPI_STATUS);
+				put((open ? 0x80 : 0x00) | spiNum);
+				send();
+				if (open) {
+					sendTxStatus(IOIOProtocol.SPI_REPORT_TX_STATUS, spiNum,
+							TX_BUFFER_SIZE);
+				}
+			}
+			break;
+
+		case IOIOProtocol.SPI_MASTER_REQUEST:
+			handleSpiRequest();
+			break;
+
+		case IOIOProtocol.SET_PIN_SPI:
+			read();
+			read();
+			break;
+
+		case IOIOProtocol.I2C_CONFIGURE_MASTER:
+			arg1 = read();
+			synchronized (this) {
+				final int i2cNum = arg1 & 0x03;
+				final boolean open = (arg1 & 0x60) != 0;
+				begin(IOIOProtocol.I2C_STATUS);
+				put((open ? 0x80 : 0x00) | i2cNum);
+				send();
+				if (open) {
+					sendTxStatus(IOIOProtocol.I2C_REPORT_TX_STATUS, i2cNum,
+							TX_BUFFER_SIZE);
+				}
+			}
+			break;
+
+		case IOIOProtocol.I2C_WRITE_READ:
+			handleI2cRequest();
+			break;
+
+		case IOIOProtocol.ICSP_SIX:
+			read(data_, 3);
+			arg1 = (data_[0] & 0xFF) | ((data_[1] & 0xFF) << 8)
+					| ((data_[2] & 0xFF) << 16);
+			synchronized (this) {
+				if (icspDevice_ != null) {
+					icspDevice_.six(arg1);
+				} else {
+					icspVisi_ = arg1 & 0xFFFF;
+				}
+			}
+			break;
+
+		case IOIOProtocol.ICSP_REGOUT:
+			synchronized (this) {
+				arg1 = icspDevice_ != null ? icspDevice_.regout() : icspVisi_;
+				begin(IOIOProtocol.ICSP_RESULT);
+				put(arg1 & 0xFF);
+				put((arg1 >> 8) & 0xFF);
+				send();
+				begin(IOIOProtocol.ICSP_REPORT_RX_STATUS);
+				put(2);
+				put(0);
+				send();
+			}
+			break;
+
+		case IOIOProtocol.ICSP_PROG_ENTER:
+		case IOIOProtocol.ICSP_PROG_EXIT:
+			break;
+
+		case IOIOProtocol.ICSP_CONFIG:
+			arg1 = read();
+			synchronized (this) {
+				begin(IOIOProtocol.ICSP_CONFIG);
+				put(arg1 & 0x01);
+				send();
+				if ((arg1 & 0x01) != 0) {
+					begin(IOIOProtocol.ICSP_REPORT_RX_STATUS);
+					put(ICSP_RX_BUFFER_SIZE & 0xFF);
+					put(ICSP_RX_BUFFER_SIZE >> 8);
+					send();
+				}
+			}
+			break;
+
+		case IOIOProtocol.INCAP_CONFIGURE:
+			arg1 = read();
+			arg2 = read();
+			synchronized (this) {
+				incapOpen_[arg1] = ((arg2 >> 3) & 0x07) != 0;
+				begin(IOIOProtocol.INCAP_STATUS);
+				put((incapOpen_[arg1] ? 0x80 : 0x00) | arg1);
+				send();
+			}
+			break;
+
+		case IOIOProtocol.SET_PIN_INCAP:
+			arg1 = read();
+			arg2 = read();
+			synchronized (this) {
+				incapPin_[arg2 & 0x0F] = (arg2 & 0x80) != 0 ? arg1 : -1;
+			}
+			break;
+
+		case IOIOProtocol.SOFT_CLOSE:
+			synchronized (this) {
+				begin(IOIOProtocol.SOFT_CLOSE);
+				send();
+			}
+			throw new IOException("Soft close");
+
+		default:
+			throw new IOException("Unexpected command: 0x"
+					+ Integer.toHexString(type));
+		}
+	}
+
+	private void handleUartData(int uartNum, int size) {
+		UartDevice device;
+		synchronized (this) {
+			device = uartDevices_[uartNum];
+			if (device == null) {
+				sendUartData(uartNum, data_, size);
+			}
+			sendTxStatus(IOIOProtocol.UART_REPORT_TX_STATUS, uartNum, size);
+		}
+		if (device != null) {
+			device.dataReceived(this, uartNum, data_, size);
+		}
+	}
+
+	private void handleSpiRequest() throws IOException {
+		final int arg1 = read();
+		final int arg2 = read();
+		final int spiNum = arg1 >> 6;
+		final int ssPin = arg1 & 0x3F;
+		final int total = (arg2 & 0x3F) + 1;
+		final int dataBytes = (arg2 & 0x80) != 0 ? read() : total;
+		final int responseBytes = (arg2 & 0x40) != 0 ? read() : total;
+		read(data_, dataBytes);
+		Arrays.fill(data_, dataBytes, total, (byte) 0xFF);
+		SpiDevice device;
+		synchronized (this) {
+			device = spiDevices_[spiNum];
+		}
+		if (device != null) {
+			device.transfer(ssPin, data_, response_, total);
+		} else {
+			System.arraycopy(data_, 0, response_, 0, total);
+		}
+		synchronized (this) {
+			if (responseBytes > 0) {
+				begin(IOIOProtocol.SPI_DATA);
+				put((spiNum << 6) | (responseBytes - 1));
+				put(ssPin);
+				for (int i = total - responseBytes; i < total; ++i) {
+					put(response_[i] & 0xFF);
+				}
+				send();
+			}
+			sendTxStatus(IOIOProtocol.SPI_REPORT_TX_STATUS, spiNum,
+					dataBytes + 4);
+		}
+	}
+
+	private void handleI2cRequest() throws IOException {
+		final int arg1 = read();
+		final int address = ((arg1 >> 6) << 8) | read();
+		final int i2cNum = arg1 & 0x03;
+		final int writeSize = read();
+		final int readSize = read();
+		read(data_, writeSize);
+		TwiDevice device;
+		synchronized (this) {
+			device = twiDevices_[i2cNum][address];
+		}
+		final boolean success = device != null
+				&& device.writeRead(data_, writeSize, response_, readSize);
+		synchronized (this) {
+			begin(IOIOProtocol.I2C_RESULT);
+			put(i2cNum);
+			if (success) {
+				put(readSize);
+				for (int i = 0; i < readSize; ++i) {
+					put(response_[i] & 0xFF);
+				}
+			} else {
+				put(0xFF);
+			}
+			send();
+			sendTxStatus(IOIOProtocol.I2C_REPORT_TX_STATUS, i2cNum,
+					writeSize + 4);
+		}
+	}
+
+	private void softReset() {
+		Arrays.fill(changeNotify_, false);
+		Arrays.fill(analogSampled_, false);
+		Arrays.fill(incapOpen_, false);
+		Arrays.fill(incapPin_, -1);
+		Arrays.fill(pullUp_, false);
+		analogPins_ = new int[0];
+		analogFormatChanged_ = false;
+	}
+
+	private void sample() {
+		try {
+			while (running_) {
+				Thread.sleep(1);
+				synchronized (this) {
+					sampleAnalog();
+					sampleIncap();
+				}
+			}
+		} catch (InterruptedException e) {
+		}
+	}
+
+	private void sampleAnalog() {
+		if (analogFormatChanged_) {
+			analogFormatChanged_ = false;
+			int numPins = 0;
+			for (boolean sampled : analogSampled_) {
+				numPins += sampled ? 1 : 0;
+			}
+			analogPins_ = new int[numPins];
+			numPins = 0;
+			for (int i = 0; i < NUM_PINS; ++i) {
+				if (analogSampled_[i]) {
+					analogPins_[numPins++] = i;
+				}
+			}
+			begin(IOIOProtocol.REPORT_ANALOG_IN_FORMAT);
+			put(numPins);
+			for (int pin : analogPins_) {
+				put(pin);
+			}
+			send();
+		}
+		if (analogPins_.length == 0) {
+			return;
+		}
+		begin(IOIOProtocol.REPORT_ANALOG_IN_STATUS);
+		for (int i = 0; i < analogPins_.length; i += 4) {
+			int header = 0;
+			final int groupSize = Math.min(4, analogPins_.length - i);
+			for (int j = 0; j < groupSize; ++j) {
+				header |= (analogIn_[analogPins_[i + j]] & 0x03) << (2 * j);
+			}
+			put(header);
+			for (int j = 0; j < groupSize; ++j) {
+				put(analogIn_[analogPins_[i + j]] >> 2);
+			}
+		}
+		send();
+	}
+
+	private void sampleIncap() {
+		for (int i = 0; i < NUM_INCAP_MODULES; ++i) {
+			if (!incapOpen_[i] || incapPin_[i] == -1) {
+				continue;
+			}
+			final long duration = pulseDuration_[incapPin_[i]];
+			if (duration == 0) {
+				continue;
+			}
+			int size = 1;
+			while (size < 4 && (duration >> (8 * size)) != 0) {
+				++size;
+			}
+			begin(IOIOProtocol.INCAP_REPORT);
+			put(((size & 0x03) << 6) | i);
+			for (int j = 0; j < size; ++j) {
+				put((int) (duration >> (8 * j)) & 0xFF);
+			}
+			send();
+		}
+	}
+}
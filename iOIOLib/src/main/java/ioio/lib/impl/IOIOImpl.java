@@ -28,14 +28,18 @@
  */
 package ioio.lib.impl;
 
+import ioio.lib.api.AnalogFrameListener;
 import ioio.lib.api.AnalogInput;
+import ioio.lib.api.CallbackStats;
 import ioio.lib.api.DigitalInput;
 import ioio.lib.api.DigitalInput.Spec;
 import ioio.lib.api.DigitalInput.Spec.Mode;
 import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.DispatchStats;
 import ioio.lib.api.IOIO;
 import ioio.lib.api.IOIOConnection;
 import ioio.lib.api.IcspMaster;
+import ioio.lib.api.OutgoingLaneStats;
 import ioio.lib.api.PulseInput;
 import ioio.lib.api.PulseInput.ClockRate;
 import ioio.lib.api.PulseInput.PulseMode;
@@ -46,10 +50,16 @@ import ioio.lib.api.TwiMaster.Rate;
 import ioio.lib.api.Uart;
 import ioio.lib.api.exception.ConnectionLostException;
 import ioio.lib.api.exception.IncompatibilityException;
+import ioio.lib.api.exception.OutOfResourceException;
 import ioio.lib.impl.IOIOProtocol.PwmScale;
 import ioio.lib.impl.IncomingState.DisconnectListener;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.util.Log;
 
@@ -62,9 +72,15 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 
 	private final IOIOConnection connection_;
 	private final IncomingState incomingState_ = new IncomingState();
-	private final boolean openPins_[] = new boolean[Constants.NUM_PINS];
-	private final boolean openTwi_[] = new boolean[Constants.NUM_TWI_MODULES];
-	private boolean openIcsp_ = false;
+	// Ownership is claimed and released with compare-and-set, so that opening
+	// and closing resources doesn't serialize on the IOIOImpl monitor. A
+	// resource is released only after its closing messages have been written,
+	// so the IOIO always sees a close before a reopen.
+	// Bit n is set while pin n is open.
+	private final AtomicLong openPins_ = new AtomicLong();
+	// Bit n is set while TWI n is open.
+	private final AtomicInteger openTwi_ = new AtomicInteger();
+	private final AtomicBoolean openIcsp_ = new AtomicBoolean();
 	private final ModuleAllocator pwmAllocator_ = new ModuleAllocator(
 			Constants.NUM_PWM_MODULES, "PWM");
 	private final ModuleAllocator uartAllocator_ = new ModuleAllocator(
@@ -75,8 +91,10 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 			Constants.INCAP_MODULES_DOUBLE, "INCAP_DOUBLE");
 	private final ModuleAllocator incapAllocatorSingle_ = new ModuleAllocator(
 			Constants.INCAP_MODULES_SINGLE, "INCAP_SINGLE");
+	final FlowControlScheduler flowControlScheduler_ = new FlowControlScheduler();
 	IOIOProtocol protocol_;
-	private State state_ = State.INIT;
+	private WireCapture capture_;
+	private volatile State state_ = State.INIT;
 
 	public IOIOImpl(IOIOConnection con) {
 		connection_ = con;
@@ -101,8 +119,18 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 					if (disconnect_) {
 						throw new ConnectionLostException();
 					}
-					protocol_ = new IOIOProtocol(connection_.getInputStream(),
-							connection_.getOutputStream(), incomingState_);
+					if (connection_ instanceof PushIOIOConnection) {
+						protocol_ = new IOIOProtocol(
+								connection_.getOutputStream(), incomingState_);
+						protocol_.setCapture(capture_);
+						((PushIOIOConnection) connection_)
+								.startReading(protocol_);
+					} else {
+						protocol_ = new IOIOProtocol(
+								connection_.getInputStream(),
+								connection_.getOutputStream(), incomingState_);
+						protocol_.setCapture(capture_);
+					}
 					// Once this block exits, a disconnect will also involve
 					// softClose().
 				}
@@ -146,6 +174,7 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	@Override
 	public synchronized void disconnected() {
 		state_ = State.DEAD;
+		flowControlScheduler_.shutdown();
 		if (disconnect_) {
 			return;
 		}
@@ -190,95 +219,104 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 		incomingState_.addDisconnectListener(listener);
 	}
 
-	synchronized void closePin(int pin) {
+	/**
+	 * Record the traffic of this connection to the given capture. May be
+	 * called before or after connecting. Pass null to stop recording.
+	 */
+	public synchronized void setWireCapture(WireCapture capture) {
+		capture_ = capture;
+		if (protocol_ != null) {
+			protocol_.setCapture(capture);
+		}
+	}
+
+	void closePin(int pin) {
 		try {
 			checkState();
-			if (!openPins_[pin]) {
+			if ((openPins_.get() & (1L << pin)) == 0) {
 				throw new IllegalStateException("Pin not open: " + pin);
 			}
 			protocol_.setPinDigitalIn(pin, DigitalInput.Spec.Mode.FLOATING);
-			openPins_[pin] = false;
+			releasePins(pin);
 		} catch (IOException e) {
 		} catch (ConnectionLostException e) {
 		}
 	}
 
-	synchronized void closePwm(int pwmNum) {
+	void closePwm(int pwmNum) {
 		try {
 			checkState();
-			pwmAllocator_.releaseModule(pwmNum);
 			protocol_.setPwmPeriod(pwmNum, 0, IOIOProtocol.PwmScale.SCALE_1X);
+			pwmAllocator_.releaseModule(pwmNum);
 		} catch (IOException e) {
 		} catch (ConnectionLostException e) {
 		}
 	}
 
-	synchronized void closeUart(int uartNum) {
+	void closeUart(int uartNum) {
 		try {
 			checkState();
-			uartAllocator_.releaseModule(uartNum);
 			protocol_.uartClose(uartNum);
+			uartAllocator_.releaseModule(uartNum);
 		} catch (IOException e) {
 		} catch (ConnectionLostException e) {
 		}
 	}
 
-	synchronized void closeTwi(int twiNum) {
+	void closeTwi(int twiNum) {
 		try {
 			checkState();
-			if (!openTwi_[twiNum]) {
+			if ((openTwi_.get() & (1 << twiNum)) == 0) {
 				throw new IllegalStateException("TWI not open: " + twiNum);
 			}
-			openTwi_[twiNum] = false;
-			openPins_[Constants.TWI_PINS[twiNum][0]] = false;
-			openPins_[Constants.TWI_PINS[twiNum][1]] = false;
 			protocol_.i2cClose(twiNum);
+			releasePins(Constants.TWI_PINS[twiNum]);
+			releaseTwi(twiNum);
 		} catch (IOException e) {
 		} catch (ConnectionLostException e) {
 		}
 	}
 
-	synchronized void closeIcsp() {
+	void closeIcsp() {
 		try {
 			checkState();
-			if (!openIcsp_) {
+			if (!openIcsp_.get()) {
 				throw new IllegalStateException("ICSP not open");
 			}
-			openIcsp_ = false;
-			openPins_[Constants.ICSP_PINS[0]] = false;
-			openPins_[Constants.ICSP_PINS[1]] = false;
 			protocol_.icspClose();
+			releasePins(Constants.ICSP_PINS);
+			openIcsp_.set(false);
 		} catch (ConnectionLostException e) {
 		} catch (IOException e) {
 		}
 	}
 
-	synchronized void closeSpi(int spiNum) {
+	void closeSpi(int spiNum) {
 		try {
 			checkState();
-			spiAllocator_.releaseModule(spiNum);
 			protocol_.spiClose(spiNum);
+			spiAllocator_.releaseModule(spiNum);
 		} catch (IOException e) {
 		} catch (ConnectionLostException e) {
 		}
 	}
 
-	synchronized void closeIncap(int incapNum, boolean doublePrecision) {
+	void closeIncap(int incapNum, boolean doublePrecision) {
 		try {
 			checkState();
+			protocol_.incapClose(incapNum);
 			if (doublePrecision) {
 				incapAllocatorDouble_.releaseModule(incapNum);
 			} else {
 				incapAllocatorSingle_.releaseModule(incapNum);
 			}
-			protocol_.incapClose(incapNum);
 		} catch (IOException e) {
 		} catch (ConnectionLostException e) {
 		}
 	}
 
 	@Override
-	synchronized public void softReset() throws ConnectionLostException {
+	public void softReset() throws ConnectionLostException {
 		checkState();
 		try {
 			protocol_.softReset();
@@ -288,7 +326,7 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	}
 
 	@Override
-	synchronized public void hardReset() throws ConnectionLostException {
+	public void hardReset() throws ConnectionLostException {
 		checkState();
 		try {
 			protocol_.hardReset();
@@ -329,14 +367,13 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	}
 
 	@Override
-	synchronized public DigitalInput openDigitalInput(DigitalInput.Spec spec)
+	public DigitalInput openDigitalInput(DigitalInput.Spec spec)
 			throws ConnectionLostException {
 		checkState();
 		PinFunctionMap.checkValidPin(spec.pin);
-		checkPinFree(spec.pin);
+		claimPins(spec.pin);
 		DigitalInputImpl result = new DigitalInputImpl(this, spec.pin);
 		addDisconnectListener(result);
-		openPins_[spec.pin] = true;
 		incomingState_.addInputPinListener(spec.pin, result);
 		try {
 			protocol_.setPinDigitalIn(spec.pin, spec.mode);
@@ -356,15 +393,14 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	}
 
 	@Override
-	synchronized public DigitalOutput openDigitalOutput(
+	public DigitalOutput openDigitalOutput(
 			DigitalOutput.Spec spec, boolean startValue)
 			throws ConnectionLostException {
 		checkState();
 		PinFunctionMap.checkValidPin(spec.pin);
-		checkPinFree(spec.pin);
+		claimPins(spec.pin);
 		DigitalOutputImpl result = new DigitalOutputImpl(this, spec.pin, startValue);
 		addDisconnectListener(result);
-		openPins_[spec.pin] = true;
 		try {
 			protocol_.setPinDigitalOut(spec.pin, startValue, spec.mode);
 		} catch (IOException e) {
@@ -387,14 +423,13 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	}
 
 	@Override
-	synchronized public AnalogInput openAnalogInput(int pin)
+	public AnalogInput openAnalogInput(int pin)
 			throws ConnectionLostException {
 		checkState();
 		PinFunctionMap.checkSupportsAnalogInput(pin);
-		checkPinFree(pin);
+		claimPins(pin);
 		AnalogInputImpl result = new AnalogInputImpl(this, pin);
 		addDisconnectListener(result);
-		openPins_[pin] = true;
 		incomingState_.addInputPinListener(pin, result);
 		try {
 			protocol_.setPinAnalogIn(pin);
@@ -406,6 +441,43 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 		return result;
 	}
 
+	@Override
+	public void addAnalogFrameListener(AnalogInput[] inputs,
+			AnalogFrameListener listener) throws ConnectionLostException {
+		checkState();
+		int[] pins = new int[inputs.length];
+		for (int i = 0; i < inputs.length; ++i) {
+			if (!(inputs[i] instanceof AnalogInputImpl)
+					|| ((AnalogInputImpl) inputs[i]).ioio_ != this) {
+				throw new IllegalArgumentException(
+						"Input was not opened on this IOIO: " + inputs[i]);
+			}
+			pins[i] = ((AnalogInputImpl) inputs[i]).pinNum_;
+		}
+		incomingState_.addAnalogFrameListener(pins, listener);
+	}
+
+	@Override
+	public void removeAnalogFrameListener(AnalogFrameListener listener) {
+		incomingState_.removeAnalogFrameListener(listener);
+	}
+
+	@Override
+	public void setDispatchExecutor(Executor executor) {
+		incomingState_.setDispatchExecutor(executor);
+	}
+
+	@Override
+	public List<DispatchStats> getDispatchStats() {
+		return incomingState_.getDispatchStats();
+	}
+
+	@Override
+	public CallbackStats getAnalogFrameListenerStats(
+			AnalogFrameListener listener) {
+		return incomingState_.getAnalogFrameListenerStats(listener);
+	}
+
 	@Override
 	public PwmOutput openPwmOutput(int pin, int freqHz)
 			throws ConnectionLostException {
@@ -413,12 +485,10 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	}
 
 	@Override
-	synchronized public PwmOutput openPwmOutput(DigitalOutput.Spec spec,
+	public PwmOutput openPwmOutput(DigitalOutput.Spec spec,
 			int freqHz) throws ConnectionLostException {
 		checkState();
 		PinFunctionMap.checkSupportsPeripheralOutput(spec.pin);
-		checkPinFree(spec.pin);
-		int pwmNum = pwmAllocator_.allocateModule();
 
 		int scale = 0;
 		float baseUs;
@@ -436,9 +506,16 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 			}
 		}
 
+		claimPins(spec.pin);
+		int pwmNum;
+		try {
+			pwmNum = pwmAllocator_.allocateModule();
+		} catch (OutOfResourceException e) {
+			releasePins(spec.pin);
+			throw e;
+		}
 		PwmImpl pwm = new PwmImpl(this, spec.pin, pwmNum, period, baseUs);
 		addDisconnectListener(pwm);
-		openPins_[spec.pin] = true;
 		try {
 			protocol_.setPinDigitalOut(spec.pin, false, spec.mode);
 			protocol_.setPinPwm(spec.pin, pwmNum, true);
@@ -460,32 +537,45 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	}
 
 	@Override
-	synchronized public Uart openUart(DigitalInput.Spec rx,
+	public Uart openUart(DigitalInput.Spec rx, DigitalOutput.Spec tx,
+			int baud, Uart.Parity parity, Uart.StopBits stopbits)
+			throws ConnectionLostException {
+		return openUart(rx, tx, baud, parity, stopbits, new Uart.BufferSpec(
+				Constants.BUFFER_SIZE, Uart.OverflowPolicy.DROP_NEWEST));
+	}
+
+	@Override
+	public Uart openUart(DigitalInput.Spec rx,
 			DigitalOutput.Spec tx, int baud, Uart.Parity parity,
-			Uart.StopBits stopbits) throws ConnectionLostException {
+			Uart.StopBits stopbits, Uart.BufferSpec buffer)
+			throws ConnectionLostException {
 		checkState();
+		checkBufferSpec(buffer);
 		if (rx != null) {
 			PinFunctionMap.checkSupportsPeripheralInput(rx.pin);
-			checkPinFree(rx.pin);
 		}
 		if (tx != null) {
 			PinFunctionMap.checkSupportsPeripheralOutput(tx.pin);
-			checkPinFree(tx.pin);
 		}
 		int rxPin = rx != null ? rx.pin : INVALID_PIN;
 		int txPin = tx != null ? tx.pin : INVALID_PIN;
-		int uartNum = uartAllocator_.allocateModule();
-		UartImpl uart = new UartImpl(this, txPin, rxPin, uartNum);
+		claimPins(rxPin, txPin);
+		int uartNum;
+		try {
+			uartNum = uartAllocator_.allocateModule();
+		} catch (OutOfResourceException e) {
+			releasePins(rxPin, txPin);
+			throw e;
+		}
+		UartImpl uart = new UartImpl(this, txPin, rxPin, uartNum, buffer);
 		addDisconnectListener(uart);
 		incomingState_.addUartListener(uartNum, uart);
 		try {
 			if (rx != null) {
-				openPins_[rx.pin] = true;
 				protocol_.setPinDigitalIn(rx.pin, rx.mode);
 				protocol_.setPinUart(rx.pin, uartNum, false, true);
 			}
 			if (tx != null) {
-				openPins_[tx.pin] = true;
 				protocol_.setPinDigitalOut(tx.pin, true, tx.mode);
 				protocol_.setPinUart(tx.pin, uartNum, true, true);
 			}
@@ -504,15 +594,16 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	}
 
 	@Override
-	synchronized public TwiMaster openTwiMaster(int twiNum, Rate rate,
+	public TwiMaster openTwiMaster(int twiNum, Rate rate,
 			boolean smbus) throws ConnectionLostException {
 		checkState();
-		checkTwiFree(twiNum);
-		checkPinFree(Constants.TWI_PINS[twiNum][0]);
-		checkPinFree(Constants.TWI_PINS[twiNum][1]);
-		openPins_[Constants.TWI_PINS[twiNum][0]] = true;
-		openPins_[Constants.TWI_PINS[twiNum][1]] = true;
-		openTwi_[twiNum] = true;
+		claimTwi(twiNum);
+		try {
+			claimPins(Constants.TWI_PINS[twiNum]);
+		} catch (IllegalArgumentException e) {
+			releaseTwi(twiNum);
+			throw e;
+		}
 		TwiMasterImpl twi = new TwiMasterImpl(this, twiNum);
 		addDisconnectListener(twi);
 		incomingState_.addTwiListener(twiNum, twi);
@@ -526,17 +617,18 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	}
 
 	@Override
-	synchronized public IcspMaster openIcspMaster()
+	public IcspMaster openIcspMaster()
 			throws ConnectionLostException {
 		checkState();
-		checkIcspFree();
-		checkPinFree(Constants.ICSP_PINS[0]);
-		checkPinFree(Constants.ICSP_PINS[1]);
-		checkPinFree(Constants.ICSP_PINS[2]);
-		openPins_[Constants.ICSP_PINS[0]] = true;
-		openPins_[Constants.ICSP_PINS[1]] = true;
-		openPins_[Constants.ICSP_PINS[2]] = true;
-		openIcsp_ = true;
+		if (!openIcsp_.compareAndSet(false, true)) {
+			throw new IllegalArgumentException("ICSP already open");
+		}
+		try {
+			claimPins(Constants.ICSP_PINS);
+		} catch (IllegalArgumentException e) {
+			openIcsp_.set(false);
+			throw e;
+		}
 		IcspMasterImpl icsp = new IcspMasterImpl(this);
 		addDisconnectListener(icsp);
 		incomingState_.addIcspListener(icsp);
@@ -570,35 +662,36 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	}
 
 	@Override
-	synchronized public SpiMaster openSpiMaster(DigitalInput.Spec miso,
+	public SpiMaster openSpiMaster(DigitalInput.Spec miso,
 			DigitalOutput.Spec mosi, DigitalOutput.Spec clk,
 			DigitalOutput.Spec[] slaveSelect, SpiMaster.Config config)
 			throws ConnectionLostException {
 		checkState();
 		int ssPins[] = new int[slaveSelect.length];
-		checkPinFree(miso.pin);
+		int allPins[] = new int[slaveSelect.length + 3];
 		PinFunctionMap.checkSupportsPeripheralInput(miso.pin);
-		checkPinFree(mosi.pin);
 		PinFunctionMap.checkSupportsPeripheralOutput(mosi.pin);
-		checkPinFree(clk.pin);
 		PinFunctionMap.checkSupportsPeripheralOutput(clk.pin);
+		allPins[0] = miso.pin;
+		allPins[1] = mosi.pin;
+		allPins[2] = clk.pin;
 		for (int i = 0; i < slaveSelect.length; ++i) {
-			checkPinFree(slaveSelect[i].pin);
 			ssPins[i] = slaveSelect[i].pin;
+			allPins[i + 3] = ssPins[i];
 		}
+		claimPins(allPins);
 
-		int spiNum = spiAllocator_.allocateModule();
+		int spiNum;
+		try {
+			spiNum = spiAllocator_.allocateModule();
+		} catch (OutOfResourceException e) {
+			releasePins(allPins);
+			throw e;
+		}
 		SpiMasterImpl spi = new SpiMasterImpl(this, spiNum, mosi.pin, miso.pin,
-				clk.pin, ssPins);
+				clk.pin, ssPins, config.toleratesDeselect);
 		addDisconnectListener(spi);
 
-		openPins_[miso.pin] = true;
-		openPins_[mosi.pin] = true;
-		openPins_[clk.pin] = true;
-		for (int i = 0; i < slaveSelect.length; ++i) {
-			openPins_[slaveSelect[i].pin] = true;
-		}
-
 		incomingState_.addSpiListener(spiNum, spi);
 		try {
 			protocol_.setPinDigitalIn(miso.pin, miso.mode);
@@ -622,15 +715,20 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	public PulseInput openPulseInput(Spec spec, ClockRate rate, PulseMode mode,
 			boolean doublePrecision) throws ConnectionLostException {
 		checkState();
-		checkPinFree(spec.pin);
 		PinFunctionMap.checkSupportsPeripheralInput(spec.pin);
-		int incapNum = doublePrecision ? incapAllocatorDouble_.allocateModule()
-				: incapAllocatorSingle_.allocateModule();
+		claimPins(spec.pin);
+		int incapNum;
+		try {
+			incapNum = doublePrecision ? incapAllocatorDouble_.allocateModule()
+					: incapAllocatorSingle_.allocateModule();
+		} catch (OutOfResourceException e) {
+			releasePins(spec.pin);
+			throw e;
+		}
 		IncapImpl incap = new IncapImpl(this, mode, incapNum, spec.pin,
 				rate.hertz, mode.scaling, doublePrecision);
 		addDisconnectListener(incap);
 		incomingState_.addIncapListener(incapNum, incap);
-		openPins_[spec.pin] = true;
 		try {
 			protocol_.setPinDigitalIn(spec.pin, spec.mode);
 			protocol_.setPinIncap(spec.pin, incapNum, true);
@@ -650,21 +748,87 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 				mode, true);
 	}
 
-	private void checkPinFree(int pin) {
-		if (openPins_[pin]) {
-			throw new IllegalArgumentException("Pin already open: " + pin);
+	/**
+	 * Atomically marks all the given pins as open, or none if any of them is
+	 * already open. {@link #INVALID_PIN} entries are ignored.
+	 */
+	private void claimPins(int... pins) {
+		long mask = 0;
+		for (int pin : pins) {
+			if (pin == INVALID_PIN) {
+				continue;
+			}
+			if ((mask & (1L << pin)) != 0) {
+				throw new IllegalArgumentException("Pin used twice: " + pin);
+			}
+			mask |= 1L << pin;
+		}
+		while (true) {
+			final long open = openPins_.get();
+			if ((open & mask) != 0) {
+				throw new IllegalArgumentException("Pin already open: "
+						+ Long.numberOfTrailingZeros(open & mask));
+			}
+			if (openPins_.compareAndSet(open, open | mask)) {
+				return;
+			}
 		}
 	}
 
-	private void checkTwiFree(int twi) {
-		if (openTwi_[twi]) {
-			throw new IllegalArgumentException("TWI already open: " + twi);
+	/** Marks the given pins as free. {@link #INVALID_PIN} entries are ignored. */
+	private void releasePins(int... pins) {
+		long mask = 0;
+		for (int pin : pins) {
+			if (pin != INVALID_PIN) {
+				mask |= 1L << pin;
+			}
+		}
+		while (true) {
+			final long open = openPins_.get();
+			if (openPins_.compareAndSet(open, open & ~mask)) {
+				return;
+			}
 		}
 	}
 
-	private void checkIcspFree() {
-		if (openIcsp_) {
-			throw new IllegalArgumentException("ICSP already open");
+	private void claimTwi(int twi) {
+		// The mask would alias out-of-range numbers onto real modules.
+		if (twi < 0 || twi >= Constants.TWI_PINS.length) {
+			throw new IllegalArgumentException("Invalid TWI number: " + twi);
+		}
+		while (true) {
+			final int open = openTwi_.get();
+			if ((open & (1 << twi)) != 0) {
+				throw new IllegalArgumentException("TWI already open: " + twi);
+			}
+			if (openTwi_.compareAndSet(open, open | (1 << twi))) {
+				return;
+			}
+		}
+	}
+
+	private void releaseTwi(int twi) {
+		while (true) {
+			final int open = openTwi_.get();
+			if (openTwi_.compareAndSet(open, open & ~(1 << twi))) {
+				return;
+			}
+		}
+	}
+
+	private static void checkBufferSpec(Uart.BufferSpec buffer) {
+		if (buffer.policy == null) {
+			throw new IllegalArgumentException("Overflow policy is required");
+		}
+		if (buffer.capacity <= 0
+				|| buffer.capacity > Constants.MAX_UART_BUFFER_SIZE) {
+			throw new IllegalArgumentException("Invalid buffer capacity: "
+					+ buffer.capacity);
+		}
+		if (buffer.policy == Uart.OverflowPolicy.GROW
+				&& buffer.maxCapacity > Constants.MAX_UART_BUFFER_SIZE) {
+			throw new IllegalArgumentException(
+					"Invalid maximum buffer capacity: " + buffer.maxCapacity);
 		}
 	}
 
@@ -683,13 +847,18 @@ public class IOIOImpl implements IOIO, DisconnectListener {
 	}
 
 	@Override
-	public synchronized void beginBatch() throws ConnectionLostException {
+	public OutgoingLaneStats getOutgoingLaneStats(OutgoingLaneStats.Lane lane) {
+		return flowControlScheduler_.getStats(lane);
+	}
+
+	@Override
+	public void beginBatch() throws ConnectionLostException {
 		checkState();
 		protocol_.beginBatch();
 	}
 
 	@Override
-	public synchronized void endBatch() throws ConnectionLostException {
+	public void endBatch() throws ConnectionLostException {
 		checkState();
 		try {
 			protocol_.endBatch();
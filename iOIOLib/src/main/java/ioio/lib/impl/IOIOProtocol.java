@@ -43,7 +43,7 @@ import java.util.Set;
 
 import android.util.Log;
 
-class IOIOProtocol {
+class IOIOProtocol implements PushIOIOConnection.Sink {
 	static final int HARD_RESET                          = 0x00;
 	static final int ESTABLISH_CONNECTION                = 0x00;
 	static final int SOFT_RESET                          = 0x01;
@@ -137,6 +137,7 @@ class IOIOProtocol {
 	private byte[] outbuf_ = new byte[256];
 	private int pos_ = 0;
 	private int batchCounter_ = 0;
+	private volatile WireCapture capture_;
 
 	private void writeByte(int b) throws IOException {
 		assert (b >= 0 && b < 256);
@@ -160,6 +161,10 @@ class IOIOProtocol {
 
 	private void flush() throws IOException {
 		try {
+			final WireCapture capture = capture_;
+			if (capture != null && pos_ > 0) {
+				capture.record(WireCapture.OUTGOING, outbuf_, 0, pos_);
+			}
 			out_.write(outbuf_, 0, pos_);
 		} finally {
 			pos_ = 0;
@@ -418,6 +423,13 @@ class IOIOProtocol {
 	synchronized public void spiMasterRequest(int spiNum, int ssPin,
 			byte data[], int dataBytes, int totalBytes, int responseBytes)
 			throws IOException {
+		spiMasterRequest(spiNum, ssPin, data, 0, dataBytes, totalBytes,
+				responseBytes);
+	}
+
+	synchronized public void spiMasterRequest(int spiNum, int ssPin,
+			byte data[], int dataOffset, int dataBytes, int totalBytes,
+			int responseBytes) throws IOException {
 		final boolean dataNeqTotal = (dataBytes != totalBytes);
 		final boolean resNeqTotal = (responseBytes != totalBytes);
 		beginBatch();
@@ -432,7 +444,7 @@ class IOIOProtocol {
 			writeByte(responseBytes);
 		}
 		for (int i = 0; i < dataBytes; ++i) {
-			writeByte(((int) data[i]) & 0xFF);
+			writeByte(((int) data[dataOffset + i]) & 0xFF);
 		}
 		endBatch();
 	}
@@ -454,40 +466,40 @@ class IOIOProtocol {
 		endBatch();
 	}
 
-	public void icspOpen() throws IOException {
+	synchronized public void icspOpen() throws IOException {
 		beginBatch();
 		writeByte(ICSP_CONFIG);
 		writeByte(0x01);
 		endBatch();
 	}
 
-	public void icspClose() throws IOException {
+	synchronized public void icspClose() throws IOException {
 		beginBatch();
 		writeByte(ICSP_CONFIG);
 		writeByte(0x00);
 		endBatch();
 	}
 
-	public void icspEnter() throws IOException {
+	synchronized public void icspEnter() throws IOException {
 		beginBatch();
 		writeByte(ICSP_PROG_ENTER);
 		endBatch();
 	}
 
-	public void icspExit() throws IOException {
+	synchronized public void icspExit() throws IOException {
 		beginBatch();
 		writeByte(ICSP_PROG_EXIT);
 		endBatch();
 	}
 
-	public void icspSix(int instruction) throws IOException {
+	synchronized public void icspSix(int instruction) throws IOException {
 		beginBatch();
 		writeByte(ICSP_SIX);
 		writeThreeBytes(instruction);
 		endBatch();
 	}
 
-	public void icspRegout() throws IOException {
+	synchronized public void icspRegout() throws IOException {
 		beginBatch();
 		writeByte(ICSP_REGOUT);
 		endBatch();
@@ -556,10 +568,26 @@ class IOIOProtocol {
 		public void handleIncapOpen(int incapNum);
 	}
 
+	/**
+	 * Thrown by the parser when running out of pushed data in the middle of a
+	 * message. Preallocated, as it is part of normal flow.
+	 */
+	private static class IncompleteMessageException extends IOException {
+		private static final long serialVersionUID = 1L;
+		static final IncompleteMessageException INSTANCE = new IncompleteMessageException();
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
 	class IncomingThread extends Thread {
 		private int readOffset_ = 0;
 		private int validBytes_ = 0;
 		private byte[] inbuf_ = new byte[64];
+		private final byte[] data_ = new byte[256];
+		private boolean pushed_ = false;
 
 		private int[] analogFramePins_ = new int[0];
 		private Set<Integer> removedPins_ = new HashSet<Integer>(
@@ -592,6 +620,10 @@ class IOIOProtocol {
 					throw new IOException("Unexpected stream closure");
 				}
 				//Log.v(TAG, "received " + validBytes_ + " bytes");
+				final WireCapture capture = capture_;
+				if (capture != null) {
+					capture.record(WireCapture.INCOMING, inbuf_, 0, validBytes_);
+				}
 				readOffset_ = 0;
 			} catch (IOException e) {
 				Log.i(TAG, "IOIO disconnected");
@@ -601,6 +633,9 @@ class IOIOProtocol {
 
 		private int readByte() throws IOException {
 			if (readOffset_ == validBytes_) {
+				if (pushed_) {
+					throw IncompleteMessageException.INSTANCE;
+				}
 				fillBuf();
 			}
 			int b = inbuf_[readOffset_++];
@@ -619,225 +654,264 @@ class IOIOProtocol {
 		public void run() {
 			super.run();
 			setPriority(MAX_PRIORITY);
+			try {
+				while (true) {
+					parseMessage();
+				}
+			} catch (IOException e) {
+				handler_.handleConnectionLost();
+			}
+		}
+
+		/**
+		 * Parse as many complete messages as possible out of the given data,
+		 * keeping any trailing partial message until more data arrives. Used
+		 * instead of run() when the connection pushes its data.
+		 */
+		void feed(byte[] buf, int size) throws IOException {
+			if (readOffset_ > 0) {
+				System.arraycopy(inbuf_, readOffset_, inbuf_, 0, validBytes_
+						- readOffset_);
+				validBytes_ -= readOffset_;
+				readOffset_ = 0;
+			}
+			if (validBytes_ + size > inbuf_.length) {
+				final byte[] inbuf = new byte[Math.max(inbuf_.length * 2,
+						validBytes_ + size)];
+				System.arraycopy(inbuf_, 0, inbuf, 0, validBytes_);
+				inbuf_ = inbuf;
+			}
+			System.arraycopy(buf, 0, inbuf_, validBytes_, size);
+			validBytes_ += size;
+			while (readOffset_ < validBytes_) {
+				final int messageStart = readOffset_;
+				try {
+					parseMessage();
+				} catch (IncompleteMessageException e) {
+					// All messages are only acted upon once completely read,
+					// so simply re-parse this one when more data arrives.
+					readOffset_ = messageStart;
+					return;
+				}
+			}
+		}
+
+		private void parseMessage() throws IOException {
 			int arg1;
 			int arg2;
 			int numPins;
 			int size;
-			byte[] data = new byte[256];
-			try {
-				while (true) {
-					switch (arg1 = readByte()) {
-					case ESTABLISH_CONNECTION:
-						if (readByte() != 'I' || readByte() != 'O'
-								|| readByte() != 'I' || readByte() != 'O') {
-							throw new IOException(
-									"Bad establish connection magic");
-						}
-						byte[] hardwareId = new byte[8];
-						byte[] bootloaderId = new byte[8];
-						byte[] firmwareId = new byte[8];
-						readBytes(8, hardwareId);
-						readBytes(8, bootloaderId);
-						readBytes(8, firmwareId);
-
-						handler_.handleEstablishConnection(hardwareId,
-								bootloaderId, firmwareId);
-						break;
-
-					case SOFT_RESET:
-						handler_.handleSoftReset();
-						break;
-
-					case REPORT_DIGITAL_IN_STATUS:
-						arg1 = readByte();
-						handler_.handleReportDigitalInStatus(arg1 >> 2,
-								(arg1 & 0x01) == 1);
-						break;
-
-					case SET_CHANGE_NOTIFY:
-						arg1 = readByte();
-						handler_.handleSetChangeNotify(arg1 >> 2,
-								(arg1 & 0x01) == 1);
-						break;
-
-					case REGISTER_PERIODIC_DIGITAL_SAMPLING:
-						// TODO: implement
-						break;
-
-					case REPORT_PERIODIC_DIGITAL_IN_STATUS:
-						// TODO: implement
-						break;
-
-					case REPORT_ANALOG_IN_FORMAT:
-						numPins = readByte();
-						int[] newFormat = new int[numPins];
-						for (int i = 0; i < numPins; ++i) {
-							newFormat[i] = readByte();
-						}
-						findDelta(newFormat);
-						for (Integer i : removedPins_) {
-							handler_.handleAnalogPinStatus(i, false);
-						}
-						for (Integer i : addedPins_) {
-							handler_.handleAnalogPinStatus(i, true);
-						}
-						analogFramePins_ = newFormat;
-						break;
-
-					case REPORT_ANALOG_IN_STATUS:
-						numPins = analogFramePins_.length;
-						int header = 0;
-						int[] values = new int[numPins];
-						for (int i = 0; i < numPins; ++i) {
-							if (i % 4 == 0) {
-								header = readByte();
-							}
-							values[i] = (readByte() << 2) | (header & 0x03);
-							header >>= 2;
-						}
-						handler_.handleReportAnalogInStatus(analogFramePins_,
-								values);
-						break;
-
-					case UART_REPORT_TX_STATUS:
-						arg1 = readByte();
-						arg2 = readByte();
-						handler_.handleUartReportTxStatus(arg1 & 0x03,
-								(arg1 >> 2) | (arg2 << 6));
-						break;
-
-					case UART_DATA:
-						arg1 = readByte();
-						for (int i = 0; i < (arg1 & 0x3F) + 1; ++i) {
-							data[i] = (byte) readByte();
-						}
-						handler_.handleUartData(arg1 >> 6, (arg1 & 0x3F) + 1,
-								data);
-						break;
-
-					case UART_STATUS:
-						arg1 = readByte();
-						if ((arg1 & 0x80) != 0) {
-							handler_.handleUartOpen(arg1 & 0x03);
-						} else {
-							handler_.handleUartClose(arg1 & 0x03);
-						}
-						break;
-
-					case SPI_DATA:
-						arg1 = readByte();
-						arg2 = readByte();
-						for (int i = 0; i < (arg1 & 0x3F) + 1; ++i) {
-							data[i] = (byte) readByte();
-						}
-						handler_.handleSpiData(arg1 >> 6, arg2 & 0x3F, data,
-								(arg1 & 0x3F) + 1);
-						break;
-
-					case SPI_REPORT_TX_STATUS:
-						arg1 = readByte();
-						arg2 = readByte();
-						handler_.handleSpiReportTxStatus(arg1 & 0x03,
-								(arg1 >> 2) | (arg2 << 6));
-						break;
-
-					case SPI_STATUS:
-						arg1 = readByte();
-						if ((arg1 & 0x80) != 0) {
-							handler_.handleSpiOpen(arg1 & 0x03);
-						} else {
-							handler_.handleSpiClose(arg1 & 0x03);
-						}
-						break;
-
-					case I2C_STATUS:
-						arg1 = readByte();
-						if ((arg1 & 0x80) != 0) {
-							handler_.handleI2cOpen(arg1 & 0x03);
-						} else {
-							handler_.handleI2cClose(arg1 & 0x03);
-						}
-						break;
-
-					case I2C_RESULT:
-						arg1 = readByte();
-						arg2 = readByte();
-						if (arg2 != 0xFF) {
-							for (int i = 0; i < arg2; ++i) {
-								data[i] = (byte) readByte();
-							}
-						}
-						handler_.handleI2cResult(arg1 & 0x03, arg2, data);
-						break;
-
-					case I2C_REPORT_TX_STATUS:
-						arg1 = readByte();
-						arg2 = readByte();
-						handler_.handleI2cReportTxStatus(arg1 & 0x03,
-								(arg1 >> 2) | (arg2 << 6));
-						break;
-
-					case CHECK_INTERFACE_RESPONSE:
-						arg1 = readByte();
-						handler_.handleCheckInterfaceResponse((arg1 & 0x01) == 1);
-						break;
-
-					case ICSP_REPORT_RX_STATUS:
-						arg1 = readByte();
-						arg2 = readByte();
-						handler_.handleIcspReportRxStatus(arg1 | (arg2 << 8));
-						break;
-
-					case ICSP_RESULT:
-						data[0] = (byte) readByte();
-						data[1] = (byte) readByte();
-						handler_.handleIcspResult(2, data);
-						break;
-
-					case ICSP_CONFIG:
-						arg1 = readByte();
-						if ((arg1 & 0x01) == 1) {
-							handler_.handleIcspOpen();
-						} else {
-							handler_.handleIcspClose();
-						}
-						break;
-						
-					case INCAP_STATUS:
-						arg1 = readByte();
-						if ((arg1 & 0x80) != 0) {
-							handler_.handleIncapOpen(arg1 & 0x0F);
-						} else {
-							handler_.handleIncapClose(arg1 & 0x0F);
-						}
-						break;
-						
-					case INCAP_REPORT:
-						arg1 = readByte();
-						size = arg1 >> 6;
-						if (size == 0) {
-							size = 4;
-						}
-						readBytes(size, data);
-						handler_.handleIncapReport(arg1 & 0x0F, size, data);
-						break;
-
-					case SOFT_CLOSE:
-						Log.d(TAG, "Received soft close.");
-						throw new IOException("Soft close");
-
-
-					default:
-						in_.close();
-						IOException e = new IOException(
-								"Received unexpected command: 0x"
-										+ Integer.toHexString(arg1));
-						Log.e("IOIOProtocol", "Protocol error", e);
-						throw e;
+			final byte[] data = data_;
+			switch (arg1 = readByte()) {
+			case ESTABLISH_CONNECTION:
+				if (readByte() != 'I' || readByte() != 'O'
+						|| readByte() != 'I' || readByte() != 'O') {
+					throw new IOException(
+							"Bad establish connection magic");
+				}
+				byte[] hardwareId = new byte[8];
+				byte[] bootloaderId = new byte[8];
+				byte[] firmwareId = new byte[8];
+				readBytes(8, hardwareId);
+				readBytes(8, bootloaderId);
+				readBytes(8, firmwareId);
+
+				handler_.handleEstablishConnection(hardwareId,
+						bootloaderId, firmwareId);
+				break;
+
+			case SOFT_RESET:
+				handler_.handleSoftReset();
+				break;
+
+			case REPORT_DIGITAL_IN_STATUS:
+				arg1 = readByte();
+				handler_.handleReportDigitalInStatus(arg1 >> 2,
+						(arg1 & 0x01) == 1);
+				break;
+
+			case SET_CHANGE_NOTIFY:
+				arg1 = readByte();
+				handler_.handleSetChangeNotify(arg1 >> 2,
+						(arg1 & 0x01) == 1);
+				break;
+
+			case REGISTER_PERIODIC_DIGITAL_SAMPLING:
+				// TODO: implement
+				break;
+
+			case REPORT_PERIODIC_DIGITAL_IN_STATUS:
+				// TODO: implement
+				break;
+
+			case REPORT_ANALOG_IN_FORMAT:
+				numPins = readByte();
+				int[] newFormat = new int[numPins];
+				for (int i = 0; i < numPins; ++i) {
+					newFormat[i] = readByte();
+				}
+				findDelta(newFormat);
+				for (Integer i : removedPins_) {
+					handler_.handleAnalogPinStatus(i, false);
+				}
+				for (Integer i : addedPins_) {
+					handler_.handleAnalogPinStatus(i, true);
+				}
+				analogFramePins_ = newFormat;
+				break;
+
+			case REPORT_ANALOG_IN_STATUS:
+				numPins = analogFramePins_.length;
+				int header = 0;
+				int[] values = new int[numPins];
+				for (int i = 0; i < numPins; ++i) {
+					if (i % 4 == 0) {
+						header = readByte();
 					}
+					values[i] = (readByte() << 2) | (header & 0x03);
+					header >>= 2;
 				}
-			} catch (IOException e) {
-				handler_.handleConnectionLost();
+				handler_.handleReportAnalogInStatus(analogFramePins_,
+						values);
+				break;
+
+			case UART_REPORT_TX_STATUS:
+				arg1 = readByte();
+				arg2 = readByte();
+				handler_.handleUartReportTxStatus(arg1 & 0x03,
+						(arg1 >> 2) | (arg2 << 6));
+				break;
+
+			case UART_DATA:
+				arg1 = readByte();
+				for (int i = 0; i < (arg1 & 0x3F) + 1; ++i) {
+					data[i] = (byte) readByte();
+				}
+				handler_.handleUartData(arg1 >> 6, (arg1 & 0x3F) + 1,
+						data);
+				break;
+
+			case UART_STATUS:
+				arg1 = readByte();
+				if ((arg1 & 0x80) != 0) {
+					handler_.handleUartOpen(arg1 & 0x03);
+				} else {
+					handler_.handleUartClose(arg1 & 0x03);
+				}
+				break;
+
+			case SPI_DATA:
+				arg1 = readByte();
+				arg2 = readByte();
+				for (int i = 0; i < (arg1 & 0x3F) + 1; ++i) {
+					data[i] = (byte) readByte();
+				}
+				handler_.handleSpiData(arg1 >> 6, arg2 & 0x3F, data,
+						(arg1 & 0x3F) + 1);
+				break;
+
+			case SPI_REPORT_TX_STATUS:
+				arg1 = readByte();
+				arg2 = readByte();
+				handler_.handleSpiReportTxStatus(arg1 & 0x03,
+						(arg1 >> 2) | (arg2 << 6));
+				break;
+
+			case SPI_STATUS:
+				arg1 = readByte();
+				if ((arg1 & 0x80) != 0) {
+					handler_.handleSpiOpen(arg1 & 0x03);
+				} else {
+					handler_.handleSpiClose(arg1 & 0x03);
+				}
+				break;
+
+			case I2C_STATUS:
+				arg1 = readByte();
+				if ((arg1 & 0x80) != 0) {
+					handler_.handleI2cOpen(arg1 & 0x03);
+				} else {
+					handler_.handleI2cClose(arg1 & 0x03);
+				}
+				break;
+
+			case I2C_RESULT:
+				arg1 = readByte();
+				arg2 = readByte();
+				if (arg2 != 0xFF) {
+					for (int i = 0; i < arg2; ++i) {
+						data[i] = (byte) readByte();
+					}
+				}
+				handler_.handleI2cResult(arg1 & 0x03, arg2, data);
+				break;
+
+			case I2C_REPORT_TX_STATUS:
+				arg1 = readByte();
+				arg2 = readByte();
+				handler_.handleI2cReportTxStatus(arg1 & 0x03,
+						(arg1 >> 2) | (arg2 << 6));
+				break;
+
+			case CHECK_INTERFACE_RESPONSE:
+				arg1 = readByte();
+				handler_.handleCheckInterfaceResponse((arg1 & 0x01) == 1);
+				break;
+
+			case ICSP_REPORT_RX_STATUS:
+				arg1 = readByte();
+				arg2 = readByte();
+				handler_.handleIcspReportRxStatus(arg1 | (arg2 << 8));
+				break;
+
+			case ICSP_RESULT:
+				data[0] = (byte) readByte();
+				data[1] = (byte) readByte();
+				handler_.handleIcspResult(2, data);
+				break;
+
+			case ICSP_CONFIG:
+				arg1 = readByte();
+				if ((arg1 & 0x01) == 1) {
+					handler_.handleIcspOpen();
+				} else {
+					handler_.handleIcspClose();
+				}
+				break;
+				
+			case INCAP_STATUS:
+				arg1 = readByte();
+				if ((arg1 & 0x80) != 0) {
+					handler_.handleIncapOpen(arg1 & 0x0F);
+				} else {
+					handler_.handleIncapClose(arg1 & 0x0F);
+				}
+				break;
+				
+			case INCAP_REPORT:
+				arg1 = readByte();
+				size = arg1 >> 6;
+				if (size == 0) {
+					size = 4;
+				}
+				readBytes(size, data);
+				handler_.handleIncapReport(arg1 & 0x0F, size, data);
+				break;
+
+			case SOFT_CLOSE:
+				Log.d(TAG, "Received soft close.");
+				throw new IOException("Soft close");
+
+
+			default:
+				if (in_ != null) {
+					in_.close();
+				}
+				IOException e = new IOException(
+						"Received unexpected command: 0x"
+								+ Integer.toHexString(arg1));
+				Log.e("IOIOProtocol", "Protocol error", e);
+				throw e;
 			}
 		}
 	}
@@ -854,4 +928,38 @@ class IOIOProtocol {
 		handler_ = handler;
 		thread_.start();
 	}
+
+	/**
+	 * Create an instance for a connection that pushes its incoming data. No
+	 * thread is started; the data is parsed on the caller's thread as it is
+	 * passed to {@link #dataReceived(byte[], int)}.
+	 */
+	public IOIOProtocol(OutputStream out, IncomingHandler handler) {
+		in_ = null;
+		out_ = out;
+		handler_ = handler;
+		thread_.pushed_ = true;
+	}
+
+	/**
+	 * Start (or, with null, stop) recording the traffic of this connection.
+	 */
+	public void setCapture(WireCapture capture) {
+		capture_ = capture;
+	}
+
+	@Override
+	public void dataReceived(byte[] data, int size) throws IOException {
+		final WireCapture capture = capture_;
+		if (capture != null) {
+			capture.record(WireCapture.INCOMING, data, 0, size);
+		}
+		thread_.feed(data, size);
+	}
+
+	@Override
+	public void endOfStream() {
+		Log.i(TAG, "IOIO disconnected");
+		handler_.handleConnectionLost();
+	}
 }
@@ -33,12 +33,15 @@ import ioio.lib.api.exception.ConnectionLostException;
 import ioio.lib.impl.IncomingState.DataModuleListener;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.Queue;
 
 class IcspMasterImpl extends AbstractResource implements IcspMaster,
 		DataModuleListener {
-	private Queue<Integer> resultQueue_ = new LinkedList<Integer>();
+	// Entries of a sequence written per outgoing batch, at most 128 bytes.
+	private static final int SEQUENCE_BATCH_SIZE = 32;
+
+	private int[] resultQueue_ = new int[64];
+	private int resultSize_ = 0;
+	private int resultReadCursor_ = 0;
 	private int rxRemaining_ = 0;
 
 	public IcspMasterImpl(IOIOImpl ioio) throws ConnectionLostException {
@@ -49,7 +52,15 @@ class IcspMasterImpl extends AbstractResource implements IcspMaster,
 	synchronized public void dataReceived(byte[] data, int size) {
 		assert (size == 2);
 		int result = (byteToInt(data[1]) << 8) | byteToInt(data[0]);
-		resultQueue_.add(result);
+		if (resultSize_ == resultQueue_.length) {
+			// Results are never dropped: grow the ring.
+			int[] queue = new int[resultQueue_.length * 2];
+			copyResults(queue, 0, resultSize_);
+			resultQueue_ = queue;
+			resultReadCursor_ = 0;
+		}
+		resultQueue_[(resultReadCursor_ + resultSize_++)
+				% resultQueue_.length] = result;
 		notifyAll();
 	}
 
@@ -94,10 +105,7 @@ class IcspMasterImpl extends AbstractResource implements IcspMaster,
 	synchronized public void readVisi() throws ConnectionLostException,
 			InterruptedException {
 		checkState();
-		while (rxRemaining_ < 2 && state_ == State.OPEN) {
-			wait();
-		}
-		checkState();
+		waitRxSpace();
 		rxRemaining_ -= 2;
 		try {
 			ioio_.protocol_.icspRegout();
@@ -106,6 +114,66 @@ class IcspMasterImpl extends AbstractResource implements IcspMaster,
 		}
 	}
 
+	@Override
+	synchronized public void executeSequence(int[] sequence, int offset,
+			int length) throws ConnectionLostException, InterruptedException {
+		checkState();
+		final IOIOProtocol protocol = ioio_.protocol_;
+		boolean inBatch = false;
+		try {
+			protocol.beginBatch();
+			inBatch = true;
+			int batched = 0;
+			for (int i = offset; i < offset + length; ++i) {
+				if (batched == SEQUENCE_BATCH_SIZE) {
+					// Lets messages of other threads, which are held in the
+					// same batch, go out.
+					inBatch = false;
+					protocol.endBatch();
+					protocol.beginBatch();
+					inBatch = true;
+					batched = 0;
+				}
+				++batched;
+				if (sequence[i] != READ_VISI) {
+					protocol.icspSix(sequence[i]);
+					continue;
+				}
+				if (rxRemaining_ < 2) {
+					// The IOIO only frees up read queue space once it has
+					// seen what we have batched so far.
+					inBatch = false;
+					protocol.endBatch();
+					waitRxSpace();
+					protocol.beginBatch();
+					inBatch = true;
+					batched = 1;
+				}
+				rxRemaining_ -= 2;
+				protocol.icspRegout();
+			}
+			inBatch = false;
+			protocol.endBatch();
+		} catch (IOException e) {
+			throw new ConnectionLostException(e);
+		} finally {
+			if (inBatch) {
+				try {
+					protocol.endBatch();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private void waitRxSpace() throws ConnectionLostException,
+			InterruptedException {
+		while (rxRemaining_ < 2 && state_ == State.OPEN) {
+			wait();
+		}
+		checkState();
+	}
+
 	@Override
 	synchronized public void close() {
 		super.close();
@@ -126,10 +194,44 @@ class IcspMasterImpl extends AbstractResource implements IcspMaster,
 	public synchronized int waitVisiResult() throws ConnectionLostException,
 			InterruptedException {
 		checkState();
-		while (resultQueue_.isEmpty() && state_ == State.OPEN) {
+		while (resultSize_ == 0 && state_ == State.OPEN) {
 			wait();
 		}
 		checkState();
-		return resultQueue_.remove();
+		final int result = resultQueue_[resultReadCursor_];
+		resultPulled(1);
+		return result;
+	}
+
+	@Override
+	public synchronized void waitVisiResults(int[] results, int offset,
+			int count) throws ConnectionLostException, InterruptedException {
+		checkState();
+		while (count > 0) {
+			while (resultSize_ == 0 && state_ == State.OPEN) {
+				wait();
+			}
+			checkState();
+			final int n = Math.min(count, resultSize_);
+			copyResults(results, offset, n);
+			resultPulled(n);
+			offset += n;
+			count -= n;
+		}
+	}
+
+	private void copyResults(int[] dest, int offset, int count) {
+		final int first = Math.min(count, resultQueue_.length
+				- resultReadCursor_);
+		System.arraycopy(resultQueue_, resultReadCursor_, dest, offset, first);
+		if (first < count) {
+			System.arraycopy(resultQueue_, 0, dest, offset + first, count
+					- first);
+		}
+	}
+
+	private void resultPulled(int count) {
+		resultSize_ -= count;
+		resultReadCursor_ = (resultReadCursor_ + count) % resultQueue_.length;
 	}
 }
@@ -1,23 +1,28 @@
 package ioio.lib.impl;
 
+import ioio.lib.api.DataAvailableListener;
 import ioio.lib.api.PulseInput;
 import ioio.lib.api.exception.ConnectionLostException;
 import ioio.lib.impl.IncomingState.DataModuleListener;
-
-import java.util.LinkedList;
-import java.util.Queue;
+import ioio.lib.util.ListenerArray;
+import android.util.Log;
 
 class IncapImpl extends AbstractPin implements DataModuleListener,
 		PulseInput {
-	private static final int MAX_QUEUE_LEN = 32;
+	private static final int DEFAULT_QUEUE_CAPACITY = 32;
 	private final PulseMode mode_;
 	private final int incapNum_;
 	private long lastDuration_;
 	private final float timeBase_;
 	private final boolean doublePrecision_;
 	private boolean valid_ = false;
-	// TODO: a fixed-size array would have been much better than a linked list.
-	private Queue<Long> pulseQueue_ = new LinkedList<Long>();
+	private long[] pulseQueue_ = new long[DEFAULT_QUEUE_CAPACITY];
+	private int queueSize_ = 0;
+	private int queueReadCursor_ = 0;
+	private int queueWriteCursor_ = 0;
+	private int overflowCount_ = 0;
+	private final ListenerArray<DataAvailableListener> dataListeners_ = new ListenerArray<DataAvailableListener>(
+			new DataAvailableListener[0]);
 
 	public IncapImpl(IOIOImpl ioio, PulseMode mode, int incapNum, int pin,
 			int clockRate, int scale, boolean doublePrecision)
@@ -54,27 +59,146 @@ class IncapImpl extends AbstractPin implements DataModuleListener,
 	@Override
 	public synchronized float waitPulseGetDuration()
 			throws InterruptedException, ConnectionLostException {
+		checkPulseMode();
+		waitQueueNotEmpty();
+		final long result = pulseQueue_[queueReadCursor_];
+		queuePulled(1);
+		return timeBase_ * result;
+	}
+
+	@Override
+	public synchronized int drainPulses(float[] out)
+			throws InterruptedException, ConnectionLostException {
+		final int count = waitForPulses(out.length);
+		int cursor = queueReadCursor_;
+		for (int i = 0; i < count; ++i) {
+			out[i] = timeBase_ * pulseQueue_[cursor++];
+			if (cursor == pulseQueue_.length) {
+				cursor = 0;
+			}
+		}
+		queuePulled(count);
+		return count;
+	}
+
+	@Override
+	public synchronized int drainRaw(long[] out) throws InterruptedException,
+			ConnectionLostException {
+		final int count = waitForPulses(out.length);
+		final int first = Math.min(count, pulseQueue_.length
+				- queueReadCursor_);
+		System.arraycopy(pulseQueue_, queueReadCursor_, out, 0, first);
+		if (first < count) {
+			System.arraycopy(pulseQueue_, 0, out, first, count - first);
+		}
+		queuePulled(count);
+		return count;
+	}
+
+	@Override
+	public synchronized int available() throws ConnectionLostException {
+		checkState();
+		return queueSize_;
+	}
+
+	@Override
+	public synchronized int getOverflowCount() throws ConnectionLostException {
+		checkState();
+		return overflowCount_;
+	}
+
+	@Override
+	public synchronized void setQueueCapacity(int capacity)
+			throws ConnectionLostException {
+		checkState();
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(
+					"Queue capacity must be positive. Got: " + capacity);
+		}
+		pulseQueue_ = new long[capacity];
+		queueSize_ = 0;
+		queueReadCursor_ = 0;
+		queueWriteCursor_ = 0;
+		overflowCount_ = 0;
+	}
+
+	private void checkPulseMode() {
 		if (mode_ != PulseMode.POSITIVE && mode_ != PulseMode.NEGATIVE) {
 			throw new IllegalStateException(
 					"Cannot wait for pulse when module was not opened in pulse mode.");
 		}
+	}
+
+	/**
+	 * Waits until pulses are queued, unless max is 0.
+	 *
+	 * @return The number of pulses to drain, at most max.
+	 */
+	private int waitForPulses(int max) throws InterruptedException,
+			ConnectionLostException {
+		checkPulseMode();
+		if (max == 0) {
+			checkState();
+			return 0;
+		}
+		waitQueueNotEmpty();
+		return Math.min(max, queueSize_);
+	}
+
+	private void waitQueueNotEmpty() throws InterruptedException,
+			ConnectionLostException {
 		checkState();
-		while (pulseQueue_.isEmpty() && state_ == State.OPEN) {
+		while (queueSize_ == 0 && state_ == State.OPEN) {
 			wait();
 		}
 		checkState();
-		return timeBase_ * pulseQueue_.remove();
+	}
+
+	private void queuePulled(int count) {
+		queueSize_ -= count;
+		queueReadCursor_ = (queueReadCursor_ + count) % pulseQueue_.length;
 	}
 
 	@Override
-	public synchronized void dataReceived(byte[] data, int size) {
-		lastDuration_ = ByteArrayToLong(data, size);
-		if (pulseQueue_.size() == MAX_QUEUE_LEN) {
-			pulseQueue_.remove();
+	public void dataReceived(byte[] data, int size) {
+		synchronized (this) {
+			lastDuration_ = ByteArrayToLong(data, size);
+			if (queueSize_ == pulseQueue_.length) {
+				// Drop the oldest pulse.
+				++overflowCount_;
+				if (++queueReadCursor_ == pulseQueue_.length) {
+					queueReadCursor_ = 0;
+				}
+			} else {
+				++queueSize_;
+			}
+			pulseQueue_[queueWriteCursor_++] = lastDuration_;
+			if (queueWriteCursor_ == pulseQueue_.length) {
+				queueWriteCursor_ = 0;
+			}
+			valid_ = true;
+			notifyAll();
 		}
-		pulseQueue_.add(lastDuration_);
-		valid_ = true;
-		notifyAll();
+		for (DataAvailableListener listener : dataListeners_.get()) {
+			try {
+				listener.dataAvailable(this);
+			} catch (RuntimeException e) {
+				Log.e("IncapImpl", "Data listener failed", e);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void addDataAvailableListener(
+			DataAvailableListener listener) throws ConnectionLostException {
+		checkState();
+		dataListeners_.add(listener);
+	}
+
+	@Override
+	public synchronized void removeDataAvailableListener(
+			DataAvailableListener listener) {
+		dataListeners_.remove(listener);
 	}
 
 	private static long ByteArrayToLong(byte[] data, int size) {
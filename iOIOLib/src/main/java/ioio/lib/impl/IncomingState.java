@@ -28,13 +28,21 @@
  */
 package ioio.lib.impl;
 
+import ioio.lib.api.AnalogFrameListener;
+import ioio.lib.api.CallbackStats;
+import ioio.lib.api.DispatchStats;
 import ioio.lib.api.exception.ConnectionLostException;
 import ioio.lib.impl.IOIOProtocol.IncomingHandler;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 import android.util.Log;
 
@@ -57,99 +65,115 @@ class IncomingState implements IncomingHandler {
 		void reportAdditionalBuffer(int bytesToAdd);
 	}
 
-	class InputPinState {
-		private Queue<InputPinListener> listeners_ = new ConcurrentLinkedQueue<InputPinListener>();
-		private boolean currentOpen_ = false;
-
-		void pushListener(InputPinListener listener) {
-			listeners_.add(listener);
-		}
-
-		void closeCurrentListener() {
-			if (currentOpen_) {
-				currentOpen_ = false;
-				listeners_.remove();
+	static class AnalogFrameSubscription {
+		final int[] pins_;
+		final int[] values_;
+		final AnalogFrameListener listener_;
+		// Written by the incoming thread only.
+		volatile long calls_ = 0;
+		volatile long totalNanos_ = 0;
+		volatile long maxNanos_ = 0;
+
+		AnalogFrameSubscription(int[] pins, AnalogFrameListener listener) {
+			pins_ = pins;
+			values_ = new int[pins.length];
+			listener_ = listener;
+		}
+
+		CallbackStats getStats() {
+			return new CallbackStats(calls_, totalNanos_, maxNanos_);
+		}
+	}
+
+	/**
+	 * Tracks which listener of a set of pins or modules is current. Listeners
+	 * are queued by the user threads as resources are opened, and become
+	 * current once the IOIO acknowledges the open. The current listeners are
+	 * kept in a plain array, owned by the incoming thread, so that dispatching
+	 * a value is a single array load. A decoupled listener is dropped from
+	 * the dispatch statistics once closed.
+	 */
+	static class ListenerSlots<L> {
+		private final List<Queue<L>> pending_;
+		private final L[] current_;
+		private final ConcurrentMap<String, DecoupledListener> decoupled_;
+
+		ListenerSlots(L[] current,
+				ConcurrentMap<String, DecoupledListener> decoupled) {
+			current_ = current;
+			decoupled_ = decoupled;
+			pending_ = new ArrayList<Queue<L>>(current.length);
+			for (int i = 0; i < current.length; ++i) {
+				pending_.add(new ConcurrentLinkedQueue<L>());
 			}
 		}
 
-		void openNextListener() {
-			assert (!listeners_.isEmpty());
-			if (!currentOpen_) {
-				currentOpen_ = true;
-			}
+		void pushListener(int i, L listener) {
+			pending_.get(i).add(listener);
 		}
 
-		void setValue(int v) {
-			assert (currentOpen_);
-			listeners_.peek().setValue(v);
+		void openNextListener(int i) {
+			if (current_[i] == null) {
+				current_[i] = pending_.get(i).poll();
+				assert (current_[i] != null);
+			}
 		}
-	}
-
-	class DataModuleState {
-		private Queue<DataModuleListener> listeners_ = new ConcurrentLinkedQueue<IncomingState.DataModuleListener>();
-		private boolean currentOpen_ = false;
 
-		void pushListener(DataModuleListener listener) {
-			listeners_.add(listener);
+		void closeCurrentListener(int i) {
+			forget(current_[i]);
+			current_[i] = null;
 		}
 
-		void closeCurrentListener() {
-			if (currentOpen_) {
-				currentOpen_ = false;
-				listeners_.remove();
+		void closeAll() {
+			for (int i = 0; i < current_.length; ++i) {
+				forget(current_[i]);
+				current_[i] = null;
 			}
 		}
 
-		void openNextListener() {
-			assert (!listeners_.isEmpty());
-			if (!currentOpen_) {
-				currentOpen_ = true;
+		private void forget(L listener) {
+			if (listener instanceof DecoupledListener) {
+				final DecoupledListener decoupled = (DecoupledListener) listener;
+				// Unless already replaced by the next one of the resource.
+				decoupled_.remove(decoupled.getResource(), decoupled);
 			}
 		}
-
-		void dataReceived(byte[] data, int size) {
-			assert (currentOpen_);
-			listeners_.peek().dataReceived(data, size);
-		}
-
-		public void reportAdditionalBuffer(int bytesRemaining) {
-			assert (currentOpen_);
-			listeners_.peek().reportAdditionalBuffer(bytesRemaining);
-		}
 	}
 
-	private final InputPinState[] intputPinStates_ = new InputPinState[Constants.NUM_PINS];
-	private final DataModuleState[] uartStates_ = new DataModuleState[Constants.NUM_UART_MODULES];
-	private final DataModuleState[] twiStates_ = new DataModuleState[Constants.NUM_TWI_MODULES];
-	private final DataModuleState[] spiStates_ = new DataModuleState[Constants.NUM_SPI_MODULES];
-	private final DataModuleState[] incapStates_ = new DataModuleState[2
+	// Decoupled listeners of the open resources, by resource name.
+	private final ConcurrentMap<String, DecoupledListener> decoupledListeners_ = new ConcurrentHashMap<String, DecoupledListener>();
+	// Current listeners, indexed by pin or module number. Incoming thread only.
+	private final InputPinListener[] inputPinListeners_ = new InputPinListener[Constants.NUM_PINS];
+	private final DataModuleListener[] uartListeners_ = new DataModuleListener[Constants.NUM_UART_MODULES];
+	private final DataModuleListener[] twiListeners_ = new DataModuleListener[Constants.NUM_TWI_MODULES];
+	private final DataModuleListener[] spiListeners_ = new DataModuleListener[Constants.NUM_SPI_MODULES];
+	private final DataModuleListener[] incapListeners_ = new DataModuleListener[2
 			* Constants.INCAP_MODULES_DOUBLE.length
 			+ Constants.INCAP_MODULES_SINGLE.length];
-	private final DataModuleState icspState_ = new DataModuleState();
+	private final DataModuleListener[] icspListeners_ = new DataModuleListener[1];
+	private final ListenerSlots<InputPinListener> inputPinSlots_ = new ListenerSlots<InputPinListener>(
+			inputPinListeners_, decoupledListeners_);
+	private final ListenerSlots<DataModuleListener> uartSlots_ = new ListenerSlots<DataModuleListener>(
+			uartListeners_, decoupledListeners_);
+	private final ListenerSlots<DataModuleListener> twiSlots_ = new ListenerSlots<DataModuleListener>(
+			twiListeners_, decoupledListeners_);
+	private final ListenerSlots<DataModuleListener> spiSlots_ = new ListenerSlots<DataModuleListener>(
+			spiListeners_, decoupledListeners_);
+	private final ListenerSlots<DataModuleListener> incapSlots_ = new ListenerSlots<DataModuleListener>(
+			incapListeners_, decoupledListeners_);
+	private final ListenerSlots<DataModuleListener> icspSlots_ = new ListenerSlots<DataModuleListener>(
+			icspListeners_, decoupledListeners_);
 	private final Set<DisconnectListener> disconnectListeners_ = new HashSet<IncomingState.DisconnectListener>();
+	private volatile Executor dispatchExecutor_ = null;
+	private volatile AnalogFrameSubscription[] analogFrameSubscriptions_ = new AnalogFrameSubscription[0];
+	// Maps a pin number to its index in the current analog frame, or -1.
+	private final int[] analogFrameIndex_ = new int[Constants.NUM_PINS];
+	private int[] analogFramePins_ = null;
 	private ConnectionState connection_ = ConnectionState.INIT;
 	public String hardwareId_;
 	public String bootloaderId_;
 	public String firmwareId_;
 
-	public IncomingState() {
-		for (int i = 0; i < intputPinStates_.length; ++i) {
-			intputPinStates_[i] = new InputPinState();
-		}
-		for (int i = 0; i < uartStates_.length; ++i) {
-			uartStates_[i] = new DataModuleState();
-		}
-		for (int i = 0; i < twiStates_.length; ++i) {
-			twiStates_[i] = new DataModuleState();
-		}
-		for (int i = 0; i < spiStates_.length; ++i) {
-			spiStates_[i] = new DataModuleState();
-		}
-		for (int i = 0; i < incapStates_.length; ++i) {
-			incapStates_[i] = new DataModuleState();
-		}
-	}
-
 	synchronized public void waitConnectionEstablished()
 			throws InterruptedException, ConnectionLostException {
 		while (connection_ == ConnectionState.INIT) {
@@ -182,27 +206,103 @@ class IncomingState implements IncomingHandler {
 	}
 
 	public void addInputPinListener(int pin, InputPinListener listener) {
-		intputPinStates_[pin].pushListener(listener);
+		inputPinSlots_.pushListener(pin, decouple("pin " + pin, listener));
 	}
 
 	public void addUartListener(int uartNum, DataModuleListener listener) {
-		uartStates_[uartNum].pushListener(listener);
+		uartSlots_.pushListener(uartNum, decouple("UART" + uartNum, listener));
 	}
 
 	public void addTwiListener(int twiNum, DataModuleListener listener) {
-		twiStates_[twiNum].pushListener(listener);
+		twiSlots_.pushListener(twiNum, decouple("TWI" + twiNum, listener));
 	}
 
 	public void addIncapListener(int incapNum, DataModuleListener listener) {
-		incapStates_[incapNum].pushListener(listener);
+		incapSlots_.pushListener(incapNum, decouple("INCAP" + incapNum, listener));
 	}
 
 	public void addIcspListener(DataModuleListener listener) {
-		icspState_.pushListener(listener);
+		icspSlots_.pushListener(0, decouple("ICSP", listener));
 	}
 
 	public void addSpiListener(int spiNum, DataModuleListener listener) {
-		spiStates_[spiNum].pushListener(listener);
+		spiSlots_.pushListener(spiNum, decouple("SPI" + spiNum, listener));
+	}
+
+	/**
+	 * Deliver the data of resources opened from now on using the given
+	 * executor rather than on the incoming thread. Null restores direct
+	 * delivery.
+	 */
+	public void setDispatchExecutor(Executor executor) {
+		dispatchExecutor_ = executor;
+	}
+
+	public List<DispatchStats> getDispatchStats() {
+		final List<DispatchStats> result = new ArrayList<DispatchStats>(
+				decoupledListeners_.size());
+		for (DecoupledListener listener : decoupledListeners_.values()) {
+			result.add(listener.getStats());
+		}
+		return result;
+	}
+
+	private InputPinListener decouple(String resource,
+			InputPinListener listener) {
+		final Executor executor = dispatchExecutor_;
+		if (executor == null) {
+			return listener;
+		}
+		final DecoupledListener decoupled = new DecoupledListener(resource,
+				listener, executor);
+		decoupledListeners_.put(resource, decoupled);
+		return decoupled;
+	}
+
+	private DataModuleListener decouple(String resource,
+			DataModuleListener listener) {
+		final Executor executor = dispatchExecutor_;
+		if (executor == null) {
+			return listener;
+		}
+		final DecoupledListener decoupled = new DecoupledListener(resource,
+				listener, executor);
+		decoupledListeners_.put(resource, decoupled);
+		return decoupled;
+	}
+
+	synchronized public void addAnalogFrameListener(int[] pins,
+			AnalogFrameListener listener) {
+		final AnalogFrameSubscription[] old = analogFrameSubscriptions_;
+		final AnalogFrameSubscription[] subscriptions = new AnalogFrameSubscription[old.length + 1];
+		System.arraycopy(old, 0, subscriptions, 0, old.length);
+		subscriptions[old.length] = new AnalogFrameSubscription(pins, listener);
+		analogFrameSubscriptions_ = subscriptions;
+	}
+
+	synchronized public void removeAnalogFrameListener(
+			AnalogFrameListener listener) {
+		final AnalogFrameSubscription[] old = analogFrameSubscriptions_;
+		for (int i = 0; i < old.length; ++i) {
+			if (old[i].listener_ == listener) {
+				final AnalogFrameSubscription[] subscriptions = new AnalogFrameSubscription[old.length - 1];
+				System.arraycopy(old, 0, subscriptions, 0, i);
+				System.arraycopy(old, i + 1, subscriptions, i, old.length - i
+						- 1);
+				analogFrameSubscriptions_ = subscriptions;
+				return;
+			}
+		}
+	}
+
+	public CallbackStats getAnalogFrameListenerStats(
+			AnalogFrameListener listener) {
+		for (AnalogFrameSubscription s : analogFrameSubscriptions_) {
+			if (s.listener_ == listener) {
+				return s.getStats();
+			}
+		}
+		return null;
 	}
 
 	synchronized public void addDisconnectListener(DisconnectListener listener)
@@ -236,22 +336,12 @@ class IncomingState implements IncomingHandler {
 	@Override
 	public void handleSoftReset() {
 		// logMethod("handleSoftReset");
-		for (InputPinState pinState : intputPinStates_) {
-			pinState.closeCurrentListener();
-		}
-		for (DataModuleState uartState : uartStates_) {
-			uartState.closeCurrentListener();
-		}
-		for (DataModuleState twiState : twiStates_) {
-			twiState.closeCurrentListener();
-		}
-		for (DataModuleState spiState : spiStates_) {
-			spiState.closeCurrentListener();
-		}
-		for (DataModuleState incapState : incapStates_) {
-			incapState.closeCurrentListener();
-		}
-		icspState_.closeCurrentListener();
+		inputPinSlots_.closeAll();
+		uartSlots_.closeAll();
+		twiSlots_.closeAll();
+		spiSlots_.closeAll();
+		incapSlots_.closeAll();
+		icspSlots_.closeAll();
 	}
 
 	@Override
@@ -266,9 +356,9 @@ class IncomingState implements IncomingHandler {
 	public void handleSetChangeNotify(int pin, boolean changeNotify) {
 		// logMethod("handleSetChangeNotify", pin, changeNotify);
 		if (changeNotify) {
-			intputPinStates_[pin].openNextListener();
+			inputPinSlots_.openNextListener(pin);
 		} else {
-			intputPinStates_[pin].closeCurrentListener();
+			inputPinSlots_.closeCurrentListener(pin);
 		}
 	}
 
@@ -282,64 +372,64 @@ class IncomingState implements IncomingHandler {
 	public void handleAnalogPinStatus(int pin, boolean open) {
 		// logMethod("handleAnalogPinStatus", pin, open);
 		if (open) {
-			intputPinStates_[pin].openNextListener();
+			inputPinSlots_.openNextListener(pin);
 		} else {
-			intputPinStates_[pin].closeCurrentListener();
+			inputPinSlots_.closeCurrentListener(pin);
 		}
 	}
 
 	@Override
 	public void handleUartData(int uartNum, int numBytes, byte[] data) {
 		// logMethod("handleUartData", uartNum, numBytes, data);
-		uartStates_[uartNum].dataReceived(data, numBytes);
+		uartListeners_[uartNum].dataReceived(data, numBytes);
 	}
 
 	@Override
 	public void handleUartOpen(int uartNum) {
 		// logMethod("handleUartOpen", uartNum);
-		uartStates_[uartNum].openNextListener();
+		uartSlots_.openNextListener(uartNum);
 	}
 
 	@Override
 	public void handleUartClose(int uartNum) {
 		// logMethod("handleUartClose", uartNum);
-		uartStates_[uartNum].closeCurrentListener();
+		uartSlots_.closeCurrentListener(uartNum);
 	}
 
 	@Override
 	public void handleSpiOpen(int spiNum) {
 		// logMethod("handleSpiOpen", spiNum);
-		spiStates_[spiNum].openNextListener();
+		spiSlots_.openNextListener(spiNum);
 	}
 
 	@Override
 	public void handleSpiClose(int spiNum) {
 		// logMethod("handleSpiClose", spiNum);
-		spiStates_[spiNum].closeCurrentListener();
+		spiSlots_.closeCurrentListener(spiNum);
 	}
 
 	@Override
 	public void handleI2cOpen(int i2cNum) {
 		// logMethod("handleI2cOpen", i2cNum);
-		twiStates_[i2cNum].openNextListener();
+		twiSlots_.openNextListener(i2cNum);
 	}
 
 	@Override
 	public void handleI2cClose(int i2cNum) {
 		// logMethod("handleI2cClose", i2cNum);
-		twiStates_[i2cNum].closeCurrentListener();
+		twiSlots_.closeCurrentListener(i2cNum);
 	}
 
 	@Override
 	public void handleIcspOpen() {
 		// logMethod("handleIcspOpen");
-		icspState_.openNextListener();
+		icspSlots_.openNextListener(0);
 	}
 
 	@Override
 	public void handleIcspClose() {
 		// logMethod("handleIcspClose");
-		icspState_.closeCurrentListener();
+		icspSlots_.closeCurrentListener(0);
 	}
 
 	@Override
@@ -361,31 +451,31 @@ class IncomingState implements IncomingHandler {
 	@Override
 	public void handleUartReportTxStatus(int uartNum, int bytesRemaining) {
 		// logMethod("handleUartReportTxStatus", uartNum, bytesRemaining);
-		uartStates_[uartNum].reportAdditionalBuffer(bytesRemaining);
+		uartListeners_[uartNum].reportAdditionalBuffer(bytesRemaining);
 	}
 
 	@Override
 	public void handleI2cReportTxStatus(int i2cNum, int bytesRemaining) {
 		// logMethod("handleI2cReportTxStatus", i2cNum, bytesRemaining);
-		twiStates_[i2cNum].reportAdditionalBuffer(bytesRemaining);
+		twiListeners_[i2cNum].reportAdditionalBuffer(bytesRemaining);
 	}
 
 	@Override
 	public void handleSpiData(int spiNum, int ssPin, byte[] data, int dataBytes) {
 		// logMethod("handleSpiData", spiNum, ssPin, data, dataBytes);
-		spiStates_[spiNum].dataReceived(data, dataBytes);
+		spiListeners_[spiNum].dataReceived(data, dataBytes);
 	}
 
 	@Override
 	public void handleIcspReportRxStatus(int bytesRemaining) {
 		// logMethod("handleIcspReportRxStatus", bytesRemaining);
-		icspState_.reportAdditionalBuffer(bytesRemaining);
+		icspListeners_[0].reportAdditionalBuffer(bytesRemaining);
 	}
 
 	@Override
 	public void handleReportDigitalInStatus(int pin, boolean level) {
 		// logMethod("handleReportDigitalInStatus", pin, level);
-		intputPinStates_[pin].setValue(level ? 1 : 0);
+		inputPinListeners_[pin].setValue(level ? 1 : 0);
 	}
 
 	@Override
@@ -398,44 +488,80 @@ class IncomingState implements IncomingHandler {
 	public void handleReportAnalogInStatus(int pins[], int values[]) {
 		// logMethod("handleReportAnalogInStatus", pins, values);
 		for (int i = 0; i < pins.length; ++i) {
-			intputPinStates_[pins[i]].setValue(values[i]);
+			inputPinListeners_[pins[i]].setValue(values[i]);
+		}
+		final AnalogFrameSubscription[] subscriptions = analogFrameSubscriptions_;
+		if (subscriptions.length != 0) {
+			dispatchAnalogFrame(pins, values, subscriptions);
+		}
+	}
+
+	private void dispatchAnalogFrame(int[] pins, int[] values,
+			AnalogFrameSubscription[] subscriptions) {
+		if (pins != analogFramePins_) {
+			// The frame format has changed.
+			for (int i = 0; i < analogFrameIndex_.length; ++i) {
+				analogFrameIndex_[i] = -1;
+			}
+			for (int i = 0; i < pins.length; ++i) {
+				analogFrameIndex_[pins[i]] = i;
+			}
+			analogFramePins_ = pins;
+		}
+		for (AnalogFrameSubscription s : subscriptions) {
+			for (int i = 0; i < s.pins_.length; ++i) {
+				final int index = analogFrameIndex_[s.pins_[i]];
+				s.values_[i] = index == -1 ? -1 : values[index];
+			}
+			final long start = System.nanoTime();
+			try {
+				s.listener_.frameReceived(s.values_);
+			} catch (RuntimeException e) {
+				Log.e("IncomingState", "Analog frame listener failed", e);
+			}
+			final long elapsed = System.nanoTime() - start;
+			s.calls_ = s.calls_ + 1;
+			s.totalNanos_ = s.totalNanos_ + elapsed;
+			if (elapsed > s.maxNanos_) {
+				s.maxNanos_ = elapsed;
+			}
 		}
 	}
 
 	@Override
 	public void handleSpiReportTxStatus(int spiNum, int bytesRemaining) {
 		// logMethod("handleSpiReportTxStatus", spiNum, bytesRemaining);
-		spiStates_[spiNum].reportAdditionalBuffer(bytesRemaining);
+		spiListeners_[spiNum].reportAdditionalBuffer(bytesRemaining);
 	}
 
 	@Override
 	public void handleI2cResult(int i2cNum, int size, byte[] data) {
 		// logMethod("handleI2cResult", i2cNum, size, data);
-		twiStates_[i2cNum].dataReceived(data, size);
+		twiListeners_[i2cNum].dataReceived(data, size);
 	}
 
 	@Override
 	public void handleIncapReport(int incapNum, int size, byte[] data) {
 		// logMethod("handleIncapReport", incapNum, size, data);
-		incapStates_[incapNum].dataReceived(data, size);
+		incapListeners_[incapNum].dataReceived(data, size);
 	}
 
 	@Override
 	public void handleIncapClose(int incapNum) {
 		// logMethod("handleIncapClose", incapNum);
-		incapStates_[incapNum].closeCurrentListener();
+		incapSlots_.closeCurrentListener(incapNum);
 	}
 
 	@Override
 	public void handleIncapOpen(int incapNum) {
 		// logMethod("handleIncapOpen", incapNum);
-		incapStates_[incapNum].openNextListener();
+		incapSlots_.openNextListener(incapNum);
 	}
 
 	@Override
 	public void handleIcspResult(int size, byte[] data) {
 		// logMethod("handleIcspResult", size, data);
-		icspState_.dataReceived(data, size);
+		icspListeners_[0].dataReceived(data, size);
 	}
 
 	private void checkNotDisconnected() throws ConnectionLostException {
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.IOIOConnection;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An in-process connection, backed by a pair of lock-free byte rings. The
+ * library talks to one end of it as it would to a IOIO, while the other end,
+ * exposed by {@link #getPeerInputStream()} and {@link #getPeerOutputStream()},
+ * is served by whatever plays the IOIO, typically an {@link IOIOEmulator} or a
+ * test harness. As no kernel or I/O is involved, this is suitable for
+ * measuring the library's own overhead.
+ */
+public class LoopbackIOIOConnection implements IOIOConnection {
+	private final ByteRing toPeer_;
+	private final ByteRing toHost_;
+	private boolean disconnect_ = false;
+
+	public LoopbackIOIOConnection() {
+		this(Constants.BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity
+	 *            Capacity of each direction, in bytes. Must be a power of two.
+	 */
+	public LoopbackIOIOConnection(int capacity) {
+		toPeer_ = new ByteRing(capacity);
+		toHost_ = new ByteRing(capacity);
+	}
+
+	/** The stream on which the peer receives what the library sends. */
+	public InputStream getPeerInputStream() {
+		return toPeer_.getInputStream();
+	}
+
+	/** The stream on which the peer sends to the library. */
+	public OutputStream getPeerOutputStream() {
+		return toHost_.getOutputStream();
+	}
+
+	@Override
+	synchronized public void waitForConnect() throws ConnectionLostException {
+		if (disconnect_) {
+			throw new ConnectionLostException();
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		synchronized (this) {
+			if (disconnect_) {
+				return;
+			}
+			disconnect_ = true;
+		}
+		toPeer_.close();
+		toHost_.close();
+	}
+
+	@Override
+	public InputStream getInputStream() throws ConnectionLostException {
+		return toHost_.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws ConnectionLostException {
+		return toPeer_.getOutputStream();
+	}
+}
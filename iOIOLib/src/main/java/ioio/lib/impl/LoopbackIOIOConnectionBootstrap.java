@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+
+package ioio.lib.impl;
+
+import ioio.lib.api.IOIOConnection;
+import ioio.lib.spi.IOIOConnectionBootstrap;
+import ioio.lib.spi.IOIOConnectionFactory;
+
+import java.util.Collection;
+
+/**
+ * Provides in-process {@link LoopbackIOIOConnection}s, whose other end is
+ * served by a {@link Peer} set by the client, e.g. a test harness playing the
+ * IOIO. This bootstrap is not registered by default. Pass its class name to
+ * {@link ioio.lib.util.IOIOConnectionRegistry#addBootstraps(String[])} and
+ * call {@link #setPeer(Peer)} before the connections are created. No
+ * connections are offered while no peer is set.
+ */
+public class LoopbackIOIOConnectionBootstrap implements
+		IOIOConnectionBootstrap {
+	/** Serves the peer end of each connection created by this bootstrap. */
+	public interface Peer {
+		/**
+		 * Called on every new connection, before the library uses it. The
+		 * peer streams are {@link LoopbackIOIOConnection#getPeerInputStream()}
+		 * and {@link LoopbackIOIOConnection#getPeerOutputStream()}.
+		 */
+		public void connectionCreated(LoopbackIOIOConnection connection);
+	}
+
+	/** The number of connections offered. */
+	public static final int NUM_CONNECTIONS = 1;
+
+	private static volatile Peer peer_ = null;
+
+	/** Sets the peer of the connections created from now on. */
+	public static void setPeer(Peer peer) {
+		peer_ = peer;
+	}
+
+	@Override
+	public void getFactories(Collection<IOIOConnectionFactory> result) {
+		if (peer_ == null) {
+			return;
+		}
+		for (int i = 0; i < NUM_CONNECTIONS; ++i) {
+			final Integer index = Integer.valueOf(i);
+			result.add(new IOIOConnectionFactory() {
+				@Override
+				public String getType() {
+					return LoopbackIOIOConnection.class.getCanonicalName();
+				}
+
+				@Override
+				public Object getExtra() {
+					return index;
+				}
+
+				@Override
+				public IOIOConnection createConnection() {
+					final LoopbackIOIOConnection connection = new LoopbackIOIOConnection();
+					peer_.connectionCreated(connection);
+					return connection;
+				}
+			});
+		}
+	}
+}
@@ -30,77 +30,93 @@ package ioio.lib.impl;
 
 import ioio.lib.api.exception.OutOfResourceException;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Utility to allocate and assign unique module ids.
  * A module id is requested via {@link #allocateModule()}
  * and released via {@link #releaseModule(int)}.
+ * <p>
+ * Ids are bits of a single word, claimed and released with compare-and-set,
+ * so allocation never blocks. Ids must be in the range [0, 64).
  *
  * @author birmiwal
  */
 class ModuleAllocator {
-    private final Set<Integer> availableModuleIds_;
-    private final Set<Integer> allocatedModuleIds_;
+	private final long availableModuleIds_;
+	private final AtomicLong allocatedModuleIds_ = new AtomicLong();
 	private final String name_;
 
-    public ModuleAllocator(Collection<Integer> availableModuleIds, String name) {
-        this.availableModuleIds_ = new TreeSet<Integer>(availableModuleIds);
-        allocatedModuleIds_ = new HashSet<Integer>();
-        name_ = name;
-    }
+	public ModuleAllocator(Collection<Integer> availableModuleIds, String name) {
+		long mask = 0;
+		for (int id : availableModuleIds) {
+			mask |= bit(id);
+		}
+		availableModuleIds_ = mask;
+		name_ = name;
+	}
 
-    public ModuleAllocator(int[] availableModuleIds, String name) {
-    	this(getList(availableModuleIds), name);
-    }
+	public ModuleAllocator(int[] availableModuleIds, String name) {
+		long mask = 0;
+		for (int id : availableModuleIds) {
+			mask |= bit(id);
+		}
+		availableModuleIds_ = mask;
+		name_ = name;
+	}
 
-    public ModuleAllocator(int maxModules, String name) {
-        this(getList(maxModules), name);
-    }
+	public ModuleAllocator(int maxModules, String name) {
+		if (maxModules < 0 || maxModules > 64) {
+			throw new IllegalArgumentException("Too many modules: "
+					+ maxModules);
+		}
+		availableModuleIds_ = maxModules == 64 ? -1L : (1L << maxModules) - 1;
+		name_ = name;
+	}
 
-    private static Collection<Integer> getList(int maxModules) {
-        List<Integer> availableModuleIds = new ArrayList<Integer>();
-        for (int i = 0; i < maxModules; i++) {
-            availableModuleIds.add(i);
-        }
-        return availableModuleIds;
-    }
+	private static long bit(int moduleId) {
+		if (moduleId < 0 || moduleId >= 64) {
+			throw new IllegalArgumentException("Invalid module id: "
+					+ moduleId);
+		}
+		return 1L << moduleId;
+	}
 
-    private static Collection<Integer> getList(int[] array) {
-        List<Integer> availableModuleIds = new ArrayList<Integer>(array.length);
-        for (int i : array) {
-            availableModuleIds.add(i);
-        }
-        return availableModuleIds;
-    }
+	/**
+	 * @return the lowest module id that was available, now allocated; throws
+	 *     {@link OutOfResourceException} if nothing was available
+	 */
+	public int allocateModule() {
+		while (true) {
+			final long allocated = allocatedModuleIds_.get();
+			final long free = availableModuleIds_ & ~allocated;
+			if (free == 0) {
+				throw new OutOfResourceException(
+						"No more resources of the requested type: " + name_);
+			}
+			final long bit = Long.lowestOneBit(free);
+			if (allocatedModuleIds_.compareAndSet(allocated, allocated | bit)) {
+				return Long.numberOfTrailingZeros(bit);
+			}
+		}
+	}
 
-    /**
-     * @return a module id that was allocated, or {@code null} if nothing was available
-     */
-    public synchronized Integer allocateModule() {
-        if (availableModuleIds_.isEmpty()) {
-        	throw new OutOfResourceException("No more resources of the requested type: " + name_);
-        }
-        Integer moduleId = availableModuleIds_.iterator().next();
-        availableModuleIds_.remove(moduleId);
-        allocatedModuleIds_.add(moduleId);
-        return moduleId;
-    }
-
-    /**
-     * @param moduleId the moduleId to be released; throws {@link IllegalArgumentException} if
-     *     a moduleId is re-returned, or an invalid moduleId is provided
-     */
-    public synchronized void releaseModule(int moduleId) {
-        if (!allocatedModuleIds_.contains(moduleId)) {
-            throw new IllegalArgumentException("moduleId: " + moduleId+ "; not yet allocated");
-        }
-        availableModuleIds_.add(moduleId);
-        allocatedModuleIds_.remove(moduleId);
-    }
+	/**
+	 * @param moduleId the moduleId to be released; throws {@link IllegalArgumentException} if
+	 *     a moduleId is re-returned, or an invalid moduleId is provided
+	 */
+	public void releaseModule(int moduleId) {
+		final long bit = bit(moduleId);
+		while (true) {
+			final long allocated = allocatedModuleIds_.get();
+			if ((allocated & bit) == 0) {
+				throw new IllegalArgumentException("moduleId: " + moduleId
+						+ "; not yet allocated");
+			}
+			if (allocatedModuleIds_.compareAndSet(allocated, allocated & ~bit)) {
+				return;
+			}
+		}
+	}
 }
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.util.Log;
+
+/**
+ * A single thread servicing any number of non-blocking sockets: it accepts
+ * incoming connections on listening ports and reads the data received on
+ * connected sockets. The data is handed to the
+ * {@link PushIOIOConnection.Sink} of each socket by a fixed pool of dispatcher
+ * threads (see
+ * {@link NioSocketIOIOConnectionBootstrap#DISPATCHER_THREADS_PROPERTY}), in
+ * order and one chunk at a time. Once a connection has
+ * {@link #MAX_PENDING_BUFFERS} read buffers undelivered, reading from its
+ * socket is suspended until its sink catches up. Read buffers are recycled,
+ * so neither threads nor memory grow with the number of connections or the
+ * traffic. A sink that blocks (e.g. in a client listener) holds a dispatcher
+ * thread meanwhile, delaying other connections only once all of them are
+ * held.
+ */
+class NioEventLoop implements Runnable {
+	private static final String TAG = "NioEventLoop";
+	/** Undelivered read buffers of a connection that suspend its reading. */
+	static final int MAX_PENDING_BUFFERS = 16;
+	/** The most undelivered bytes a connection may have. */
+	static final int MAX_PENDING_BYTES = MAX_PENDING_BUFFERS
+			* Constants.BUFFER_SIZE;
+	/** Idle read buffers kept for reuse. */
+	private static final int MAX_FREE_BUFFERS = 4 * MAX_PENDING_BUFFERS;
+	private static NioEventLoop instance_;
+
+	/** Sockets accepted on a port, waiting to be claimed by a connection. */
+	class Acceptor {
+		private final int port_;
+		private final ServerSocketChannel server_;
+		private final Queue<SocketChannel> accepted_ = new LinkedList<SocketChannel>();
+		private int users_ = 0;
+
+		Acceptor(int port) throws IOException {
+			port_ = port;
+			server_ = ServerSocketChannel.open();
+			server_.socket().setReuseAddress(true);
+			server_.socket().bind(new InetSocketAddress(port));
+			server_.configureBlocking(false);
+		}
+
+		synchronized void add(SocketChannel channel) {
+			accepted_.add(channel);
+			notifyAll();
+		}
+
+		/**
+		 * Wait for the next accepted socket, or until the connection is
+		 * aborted, in which case null is returned.
+		 */
+		synchronized SocketChannel take(NioSocketIOIOConnection connection)
+				throws InterruptedException {
+			while (accepted_.isEmpty() && !connection.isDisconnecting()) {
+				wait();
+			}
+			return accepted_.poll();
+		}
+
+		synchronized void wakeUp() {
+			notifyAll();
+		}
+	}
+
+	/** The data received on a socket, on its way to the sink. */
+	private class Inbound implements Runnable {
+		private final PushIOIOConnection.Sink sink_;
+		// Set on registration, before any data arrives.
+		private SelectionKey key_;
+		// All guarded by this.
+		private final Queue<ByteBuffer> chunks_ = new LinkedList<ByteBuffer>();
+		private boolean paused_ = false;
+		private boolean ended_ = false;
+		private boolean scheduled_ = false;
+		// Only accessed by the dispatcher thread running this.
+		private boolean failed_ = false;
+
+		Inbound(PushIOIOConnection.Sink sink) {
+			sink_ = sink;
+		}
+
+		/** @return Whether to keep reading from the socket. */
+		synchronized boolean add(ByteBuffer chunk) {
+			chunks_.add(chunk);
+			schedule();
+			paused_ = chunks_.size() >= MAX_PENDING_BUFFERS;
+			return !paused_;
+		}
+
+		/** No more data will be added. */
+		synchronized void end() {
+			if (!ended_) {
+				ended_ = true;
+				schedule();
+			}
+		}
+
+		private void schedule() {
+			if (!scheduled_) {
+				scheduled_ = true;
+				dispatcher_.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				final ByteBuffer chunk;
+				boolean resume = false;
+				synchronized (this) {
+					chunk = chunks_.poll();
+					if (chunk == null) {
+						scheduled_ = false;
+						if (!ended_) {
+							return;
+						}
+					} else {
+						if (paused_
+								&& chunks_.size() <= MAX_PENDING_BUFFERS / 2) {
+							paused_ = false;
+							resume = true;
+						}
+					}
+				}
+				if (chunk == null) {
+					// Scheduling is off for good, as end() has been called.
+					sink_.endOfStream();
+					return;
+				}
+				if (resume) {
+					resumeReading(key_);
+				}
+				try {
+					if (!failed_) {
+						sink_.dataReceived(chunk.array(), chunk.position());
+					}
+				} catch (IOException e) {
+					failed_ = true;
+					abort(key_);
+				} finally {
+					releaseBuffer(chunk);
+				}
+			}
+		}
+	}
+
+	private final Selector selector_;
+	private final ExecutorService dispatcher_ = Executors.newFixedThreadPool(
+			Integer.getInteger(
+					NioSocketIOIOConnectionBootstrap.DISPATCHER_THREADS_PROPERTY,
+					NioSocketIOIOConnectionBootstrap.DEFAULT_DISPATCHER_THREADS),
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, TAG + " dispatcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	private final Queue<Runnable> tasks_ = new ConcurrentLinkedQueue<Runnable>();
+	private final Map<Integer, Acceptor> acceptors_ = new HashMap<Integer, Acceptor>();
+	// Guarded by itself.
+	private final ByteBuffer[] freeBuffers_ = new ByteBuffer[MAX_FREE_BUFFERS];
+	private int numFreeBuffers_ = 0;
+
+	static synchronized NioEventLoop getInstance() throws IOException {
+		if (instance_ == null) {
+			instance_ = new NioEventLoop();
+			Thread thread = new Thread(instance_, TAG);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return instance_;
+	}
+
+	private NioEventLoop() throws IOException {
+		selector_ = Selector.open();
+	}
+
+	/**
+	 * Start accepting sockets on a port, if not already doing so. Every call
+	 * must be matched by a call to {@link #releaseAcceptor(Acceptor)}.
+	 */
+	synchronized Acceptor obtainAcceptor(int port) throws IOException {
+		Acceptor acceptor = acceptors_.get(port);
+		if (acceptor == null) {
+			final Acceptor newAcceptor = new Acceptor(port);
+			acceptors_.put(port, newAcceptor);
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						newAcceptor.server_.register(selector_,
+								SelectionKey.OP_ACCEPT, newAcceptor);
+					} catch (IOException e) {
+						Log.e(TAG, "Failed to register server socket", e);
+					}
+				}
+			});
+			acceptor = newAcceptor;
+		}
+		++acceptor.users_;
+		return acceptor;
+	}
+
+	synchronized void releaseAcceptor(Acceptor acceptor) {
+		if (--acceptor.users_ > 0) {
+			return;
+		}
+		acceptors_.remove(acceptor.port_);
+		try {
+			// Also cancels its key.
+			acceptor.server_.close();
+		} catch (IOException e) {
+			Log.e(TAG, "Unexpected exception", e);
+		}
+		SocketChannel channel;
+		while ((channel = acceptor.accepted_.poll()) != null) {
+			close(channel);
+		}
+	}
+
+	/** Start pushing data received on a connected socket to a sink. */
+	void register(final SocketChannel channel,
+			final PushIOIOConnection.Sink sink) {
+		final Inbound inbound = new Inbound(sink);
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					inbound.key_ = channel.register(selector_,
+							SelectionKey.OP_READ, inbound);
+				} catch (IOException e) {
+					close(channel);
+					inbound.end();
+				}
+			}
+		});
+	}
+
+	private void resumeReading(final SelectionKey key) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				if (key.isValid()) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			}
+		});
+	}
+
+	/** Drops a connection whose sink failed. */
+	private void abort(final SelectionKey key) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				key.cancel();
+				close((SocketChannel) key.channel());
+				((Inbound) key.attachment()).end();
+			}
+		});
+	}
+
+	private void execute(Runnable task) {
+		// Channels may only be registered while the selector is not blocked.
+		tasks_.add(task);
+		selector_.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector_.select();
+			} catch (IOException e) {
+				Log.e(TAG, "Selector failed", e);
+				return;
+			}
+			Runnable task;
+			while ((task = tasks_.poll()) != null) {
+				task.run();
+			}
+			final Iterator<SelectionKey> it = selector_.selectedKeys()
+					.iterator();
+			while (it.hasNext()) {
+				final SelectionKey key = it.next();
+				it.remove();
+				if (!key.isValid()) {
+					continue;
+				}
+				if (key.isAcceptable()) {
+					accept(key);
+				} else if (key.isReadable()) {
+					read(key);
+				}
+			}
+		}
+	}
+
+	private void accept(SelectionKey key) {
+		final Acceptor acceptor = (Acceptor) key.attachment();
+		try {
+			SocketChannel channel;
+			while ((channel = acceptor.server_.accept()) != null) {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				acceptor.add(channel);
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Failed to accept connection", e);
+		}
+	}
+
+	private void read(SelectionKey key) {
+		final SocketChannel channel = (SocketChannel) key.channel();
+		final Inbound inbound = (Inbound) key.attachment();
+		final ByteBuffer buffer = obtainBuffer();
+		try {
+			final int size = channel.read(buffer);
+			if (size < 0) {
+				throw new IOException("Unexpected stream closure");
+			}
+			if (size == 0) {
+				releaseBuffer(buffer);
+			} else if (!inbound.add(buffer)) {
+				key.interestOps(0);
+			}
+		} catch (IOException e) {
+			releaseBuffer(buffer);
+			key.cancel();
+			close(channel);
+			inbound.end();
+		}
+	}
+
+	private ByteBuffer obtainBuffer() {
+		synchronized (freeBuffers_) {
+			if (numFreeBuffers_ > 0) {
+				final ByteBuffer buffer = freeBuffers_[--numFreeBuffers_];
+				freeBuffers_[numFreeBuffers_] = null;
+				return buffer;
+			}
+		}
+		return ByteBuffer.allocate(Constants.BUFFER_SIZE);
+	}
+
+	private void releaseBuffer(ByteBuffer buffer) {
+		buffer.clear();
+		synchronized (freeBuffers_) {
+			if (numFreeBuffers_ < freeBuffers_.length) {
+				freeBuffers_[numFreeBuffers_++] = buffer;
+			}
+		}
+	}
+
+	private static void close(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			Log.e(TAG, "Unexpected exception", e);
+		}
+	}
+}
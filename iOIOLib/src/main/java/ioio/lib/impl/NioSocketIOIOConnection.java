@@ -0,0 +1,269 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import android.util.Log;
+
+/**
+ * A TCP connection to a IOIO, serviced by the shared {@link NioEventLoop}.
+ * Unlike {@link SocketIOIOConnection}, no thread is dedicated to reading from
+ * this connection, and several instances may listen on the same port, each
+ * claiming the next IOIO that connects to it.
+ * <p>
+ * Incoming data goes either to the sink passed to
+ * {@link #startReading(PushIOIOConnection.Sink)} or to the stream returned by
+ * {@link #getInputStream()}, whichever is requested first.
+ */
+public class NioSocketIOIOConnection implements PushIOIOConnection {
+	private static final String TAG = "NioSocketIOIOConnection";
+	private final int port_;
+	private NioEventLoop loop_;
+	private NioEventLoop.Acceptor acceptor_ = null;
+	private SocketChannel channel_ = null;
+	private ChannelOutputStream out_;
+	private boolean reading_ = false;
+	// The ring behind getInputStream(), if requested.
+	private ByteRing in_ = null;
+	private volatile boolean disconnect_ = false;
+
+	/**
+	 * Writes to a non-blocking channel, waiting for it when it is full. Closing
+	 * releases a writer waiting for the channel.
+	 */
+	static class ChannelOutputStream extends OutputStream {
+		private final SocketChannel channel_;
+		private volatile Selector selector_ = null;
+		private volatile boolean closed_ = false;
+		private byte[] array_ = null;
+		private ByteBuffer buffer_;
+
+		ChannelOutputStream(SocketChannel channel) {
+			channel_ = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		synchronized public void write(byte[] b, int off, int len)
+				throws IOException {
+			if (b != array_) {
+				// The protocol always writes from the same array.
+				array_ = b;
+				buffer_ = ByteBuffer.wrap(b);
+			}
+			buffer_.limit(off + len);
+			buffer_.position(off);
+			while (buffer_.hasRemaining()) {
+				if (channel_.write(buffer_) == 0) {
+					waitWritable();
+				}
+			}
+		}
+
+		private void waitWritable() throws IOException {
+			checkClosed();
+			if (selector_ == null) {
+				final Selector selector = Selector.open();
+				channel_.register(selector, SelectionKey.OP_WRITE);
+				selector_ = selector;
+			}
+			// Checked after publishing the selector, so that a concurrent
+			// close() either is seen here or wakes the select() below.
+			checkClosed();
+			selector_.select();
+			selector_.selectedKeys().clear();
+			checkClosed();
+		}
+
+		private void checkClosed() throws IOException {
+			if (closed_) {
+				throw new IOException("Stream has been closed");
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed_ = true;
+			final Selector selector = selector_;
+			if (selector != null) {
+				selector.wakeup();
+			}
+			synchronized (this) {
+				// A writer has now left, as it has seen closed_.
+				if (selector_ != null) {
+					selector_.close();
+					selector_ = null;
+				}
+			}
+		}
+	}
+
+	public NioSocketIOIOConnection(int port) {
+		port_ = port;
+	}
+
+	@Override
+	public void waitForConnect() throws ConnectionLostException {
+		NioEventLoop.Acceptor acceptor;
+		synchronized (this) {
+			if (disconnect_) {
+				throw new ConnectionLostException();
+			}
+			try {
+				loop_ = NioEventLoop.getInstance();
+				acceptor_ = loop_.obtainAcceptor(port_);
+			} catch (IOException e) {
+				disconnect_ = true;
+				throw new ConnectionLostException(e);
+			}
+			acceptor = acceptor_;
+		}
+		Log.v(TAG, "Waiting for TCP connection");
+		SocketChannel channel;
+		try {
+			channel = acceptor.take(this);
+		} catch (InterruptedException e) {
+			channel = null;
+		} finally {
+			synchronized (this) {
+				acceptor_ = null;
+			}
+			loop_.releaseAcceptor(acceptor);
+		}
+		synchronized (this) {
+			if (channel == null || disconnect_) {
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						Log.e(TAG, "Unexpected exception", e);
+					}
+				}
+				disconnect_ = true;
+				throw new ConnectionLostException();
+			}
+			Log.v(TAG, "TCP connected");
+			channel_ = channel;
+			out_ = new ChannelOutputStream(channel);
+		}
+	}
+
+	boolean isDisconnecting() {
+		return disconnect_;
+	}
+
+	@Override
+	public void disconnect() {
+		NioEventLoop.Acceptor acceptor;
+		SocketChannel channel;
+		ChannelOutputStream out;
+		ByteRing in;
+		synchronized (this) {
+			if (disconnect_) {
+				return;
+			}
+			Log.v(TAG, "Client initiated disconnect");
+			disconnect_ = true;
+			acceptor = acceptor_;
+			channel = channel_;
+			out = out_;
+			in = in_;
+		}
+		if (acceptor != null) {
+			acceptor.wakeUp();
+		}
+		if (out != null) {
+			try {
+				out.close();
+				channel.socket().shutdownOutput();
+			} catch (IOException e) {
+			}
+		}
+		if (in != null) {
+			in.close();
+		}
+	}
+
+	@Override
+	synchronized public void startReading(Sink sink)
+			throws ConnectionLostException {
+		if (channel_ == null || disconnect_) {
+			throw new ConnectionLostException();
+		}
+		if (reading_) {
+			throw new IllegalStateException("Already reading");
+		}
+		reading_ = true;
+		loop_.register(channel_, sink);
+	}
+
+	@Override
+	synchronized public InputStream getInputStream()
+			throws ConnectionLostException {
+		if (in_ == null) {
+			final ByteRing ring = new ByteRing(Constants.BUFFER_SIZE);
+			startReading(new Sink() {
+				@Override
+				public void dataReceived(byte[] data, int size)
+						throws IOException {
+					// Blocking here only suspends reading this connection.
+					ring.getOutputStream().write(data, 0, size);
+				}
+
+				@Override
+				public void endOfStream() {
+					ring.close();
+				}
+			});
+			in_ = ring;
+		}
+		return in_.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws ConnectionLostException {
+		if (out_ == null) {
+			throw new ConnectionLostException();
+		}
+		return out_;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+
+package ioio.lib.impl;
+
+import ioio.lib.api.IOIOConnection;
+import ioio.lib.spi.IOIOConnectionBootstrap;
+import ioio.lib.spi.IOIOConnectionFactory;
+
+import java.util.Collection;
+
+/**
+ * Provides {@link NioSocketIOIOConnection}s on the standard IOIO TCP port. This
+ * bootstrap is not registered by default, as it competes with
+ * {@link SocketIOIOConnectionBootstrap} for the same port. Use it in place of
+ * the latter when many IOIOs are to be served, by passing its class name to
+ * {@link ioio.lib.util.IOIOConnectionRegistry#addBootstraps(String[])}, and
+ * set {@link #NUM_CONNECTIONS_PROPERTY} to the number of IOIOs.
+ */
+public class NioSocketIOIOConnectionBootstrap implements
+		IOIOConnectionBootstrap {
+	/**
+	 * The system property setting the number of IOIOs that may be connected
+	 * simultaneously, i.e. the number of factories provided.
+	 */
+	public static final String NUM_CONNECTIONS_PROPERTY = "ioio.lib.nioSocketConnections";
+	/** The number of connections when the property is not set. */
+	public static final int DEFAULT_NUM_CONNECTIONS = 4;
+	/**
+	 * The system property setting the number of threads delivering incoming
+	 * data to all connections. Read once, when the first connection is made.
+	 */
+	public static final String DISPATCHER_THREADS_PROPERTY = "ioio.lib.nioDispatcherThreads";
+	/** The number of dispatcher threads when the property is not set. */
+	public static final int DEFAULT_DISPATCHER_THREADS = 2;
+
+	@Override
+	public void getFactories(Collection<IOIOConnectionFactory> result) {
+		final int numConnections = Integer.getInteger(NUM_CONNECTIONS_PROPERTY,
+				DEFAULT_NUM_CONNECTIONS);
+		for (int i = 0; i < numConnections; ++i) {
+			final Integer index = Integer.valueOf(i);
+			result.add(new IOIOConnectionFactory() {
+				@Override
+				public String getType() {
+					return NioSocketIOIOConnection.class.getCanonicalName();
+				}
+
+				@Override
+				public Object getExtra() {
+					return index;
+				}
+
+				@Override
+				public IOIOConnection createConnection() {
+					return new NioSocketIOIOConnection(
+							SocketIOIOConnectionBootstrap.IOIO_PORT);
+				}
+			});
+		}
+	}
+}
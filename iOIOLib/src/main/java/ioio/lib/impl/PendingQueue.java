@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+/**
+ * A FIFO of requests awaiting a response from the IOIO, in order of
+ * submission. Each request is represented by its target and an integer tag,
+ * which the target uses to tell apart several requests it has submitted. The
+ * storage is a ring that only grows, so steady-state use does not allocate.
+ */
+class PendingQueue<T extends PendingQueue.Target> {
+	interface Target {
+		/** Wake any thread waiting on this target, as the IOIO is gone. */
+		void abort();
+	}
+
+	private Object[] targets_ = new Object[16];
+	private int[] tags_ = new int[16];
+	private int readCursor_ = 0;
+	private int size_ = 0;
+
+	synchronized void add(T target, int tag) {
+		if (size_ == targets_.length) {
+			grow();
+		}
+		final int i = (readCursor_ + size_) % targets_.length;
+		targets_[i] = target;
+		tags_[i] = tag;
+		++size_;
+	}
+
+	/** Takes back the last request added, for which no response will come. */
+	synchronized void removeLast() {
+		--size_;
+		targets_[(readCursor_ + size_) % targets_.length] = null;
+	}
+
+	synchronized int peekTag() {
+		return tags_[readCursor_];
+	}
+
+	@SuppressWarnings("unchecked")
+	synchronized T remove() {
+		final T target = (T) targets_[readCursor_];
+		targets_[readCursor_] = null;
+		readCursor_ = (readCursor_ + 1) % targets_.length;
+		--size_;
+		return target;
+	}
+
+	synchronized void abortAll() {
+		for (int i = 0; i < size_; ++i) {
+			((Target) targets_[(readCursor_ + i) % targets_.length]).abort();
+		}
+	}
+
+	private void grow() {
+		final Object[] targets = new Object[targets_.length * 2];
+		final int[] tags = new int[targets.length];
+		for (int i = 0; i < size_; ++i) {
+			final int j = (readCursor_ + i) % targets_.length;
+			targets[i] = targets_[j];
+			tags[i] = tags_[j];
+		}
+		targets_ = targets;
+		tags_ = tags;
+		readCursor_ = 0;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.IOIOConnection;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.io.IOException;
+
+/**
+ * A connection which delivers incoming data by pushing it to a {@link Sink}
+ * from threads it owns, rather than by having a dedicated thread block on
+ * {@link #getInputStream()}. This makes it possible to service many
+ * connections from a few threads. Incoming data goes either to the sink or to
+ * {@link #getInputStream()}, whichever is requested first.
+ */
+interface PushIOIOConnection extends IOIOConnection {
+	interface Sink {
+		/**
+		 * Consume incoming data. May block, which suspends the delivery of
+		 * this connection. The buffer is reused once this returns, so it
+		 * must not be retained.
+		 * 
+		 * @throws IOException
+		 *             The data cannot be handled. The connection will be
+		 *             dropped.
+		 */
+		void dataReceived(byte[] data, int size) throws IOException;
+
+		/** The connection has been closed. Called exactly once. */
+		void endOfStream();
+	}
+
+	/**
+	 * Start delivering incoming data. Called once, after
+	 * {@link #waitForConnect()} returned successfully.
+	 * 
+	 * @throws IllegalStateException
+	 *             Incoming data is already being delivered.
+	 */
+	void startReading(Sink sink) throws ConnectionLostException;
+}
@@ -28,38 +28,105 @@
  */
 package ioio.lib.impl;
 
+import ioio.lib.api.Uart.OverflowPolicy;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
-
-import android.util.Log;
+import java.io.InterruptedIOException;
 
+/**
+ * An input stream fed by a single producer (the incoming thread) through
+ * {@link #write(byte[], int)}.
+ * <p>
+ * Data is kept in a power-of-two sized ring of primitive bytes. The producer
+ * and the consumer each own one free-running cursor, so the producer never
+ * takes the monitor, except for waking up a reader when the buffer goes from
+ * empty to non-empty, or when the buffer overflows, in which case the
+ * configured {@link OverflowPolicy} applies.
+ */
 class QueueInputStream extends InputStream {
 	private enum State {
 		OPEN, CLOSED, KILLED
 	};
 
-	private final Queue<Byte> queue_ = new ArrayBlockingQueue<Byte>(
-			Constants.BUFFER_SIZE);
-	private State state_ = State.OPEN;
+	private final OverflowPolicy policy_;
+	private final int maxCapacity_;
+	// Replaced by the producer, under the monitor, when growing.
+	private byte[] buffer_;
+	private int mask_;
+	// Written by the producer only.
+	private volatile int writeCursor_ = 0;
+	private volatile long overflowCount_ = 0;
+	private volatile int highWatermark_ = 0;
+	// Advanced under the monitor, by the consumer when reading and by the
+	// producer when dropping the oldest data.
+	private volatile int readCursor_ = 0;
+	private volatile State state_ = State.OPEN;
+
+	public QueueInputStream() {
+		this(Constants.BUFFER_SIZE);
+	}
+
+	public QueueInputStream(int capacity) {
+		this(capacity, OverflowPolicy.DROP_NEWEST, capacity);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity
+	 *            Initial capacity. Must be a positive power of two.
+	 * @param policy
+	 *            What to do when the buffer is full.
+	 * @param maxCapacity
+	 *            The capacity up to which {@link OverflowPolicy#GROW} may
+	 *            grow the buffer. Must be a power of two, no smaller than
+	 *            capacity. Ignored by the other policies.
+	 */
+	public QueueInputStream(int capacity, OverflowPolicy policy,
+			int maxCapacity) {
+		checkPowerOfTwo(capacity);
+		checkPowerOfTwo(maxCapacity);
+		if (maxCapacity < capacity) {
+			throw new IllegalArgumentException(
+					"Maximum capacity must be at least the capacity");
+		}
+		buffer_ = new byte[capacity];
+		mask_ = capacity - 1;
+		policy_ = policy;
+		maxCapacity_ = maxCapacity;
+	}
+
+	/** Rounds up to the nearest power of two. n must be at most 2^30. */
+	static int roundUpToPowerOfTwo(int n) {
+		if (n > 1 << 30) {
+			throw new IllegalArgumentException(
+					"Cannot round up to a power of two: " + n);
+		}
+		int result = 1;
+		while (result < n) {
+			result <<= 1;
+		}
+		return result;
+	}
+
+	private static void checkPowerOfTwo(int capacity) {
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+			throw new IllegalArgumentException(
+					"Capacity must be a positive power of two. Got: "
+							+ capacity);
+		}
+	}
 
 	@Override
 	synchronized public int read() throws IOException {
-		try {
-			while (state_ == State.OPEN && queue_.isEmpty()) {
-				wait();
-			}
-			if (state_ == State.KILLED) {
-				throw new IOException("Stream has been closed");
-			}
-			if (state_ == State.CLOSED && queue_.isEmpty()) {
-				return -1;
-			}
-			return ((int) queue_.remove()) & 0xFF;
-		} catch (InterruptedException e) {
-			throw new IOException("Interrupted");
+		if (waitForData() == 0) {
+			return -1;
 		}
+		final int r = readCursor_;
+		final int result = ((int) buffer_[r & mask_]) & 0xFF;
+		readCursor_ = r + 1;
+		return result;
 	}
 
 	@Override
@@ -67,42 +134,142 @@ class QueueInputStream extends InputStream {
 		if (len == 0) {
 			return 0;
 		}
+		final int available = waitForData();
+		if (available == 0) {
+			return -1;
+		}
+		if (len > available) {
+			len = available;
+		}
+		final int r = readCursor_;
+		final int start = r & mask_;
+		final int first = Math.min(len, buffer_.length - start);
+		System.arraycopy(buffer_, start, b, off, first);
+		if (first < len) {
+			System.arraycopy(buffer_, 0, b, off + first, len - first);
+		}
+		readCursor_ = r + len;
+		return len;
+	}
+
+	/**
+	 * Blocks until data is available or the stream is no longer open. Must be
+	 * called with the monitor held.
+	 *
+	 * @return The number of bytes available, or 0 on end of stream.
+	 */
+	private int waitForData() throws IOException {
 		try {
-			while (state_ == State.OPEN && queue_.isEmpty()) {
+			while (state_ == State.OPEN && size() == 0) {
 				wait();
 			}
-			if (state_ == State.KILLED) {
-				throw new IOException("Stream has been closed");
-			}
-			if (state_ == State.CLOSED && queue_.isEmpty()) {
-				return -1;
-			}
-			if (len > queue_.size()) {
-				len = queue_.size();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted");
+		}
+		if (state_ == State.KILLED) {
+			throw new IOException("Stream has been closed");
+		}
+		return size();
+	}
+
+	private int size() {
+		return writeCursor_ - readCursor_;
+	}
+
+	public void write(byte[] data, int size) {
+		int offset = 0;
+		if (size > buffer_.length - size()) {
+			if (policy_ == OverflowPolicy.DROP_OLDEST) {
+				if (size > buffer_.length) {
+					offset = size - buffer_.length;
+					overflowCount_ = overflowCount_ + offset;
+					size = buffer_.length;
+				}
+				dropOldest(size);
+			} else if (policy_ != OverflowPolicy.GROW || !grow(size)) {
+				// DROP_NEWEST, or grown to the limit and still not enough
+				// room. The consumer may have made room since the check
+				// above, so this can keep everything.
+				final int accepted = Math.min(size, buffer_.length - size());
+				overflowCount_ = overflowCount_ + size - accepted;
+				size = accepted;
 			}
-			for (int i = 0; i < len; ++i) {
-				b[off++] = queue_.remove();
+		}
+		if (size == 0) {
+			return;
+		}
+		final int w = writeCursor_;
+		final byte[] buffer = buffer_;
+		final int start = w & mask_;
+		final int first = Math.min(size, buffer.length - start);
+		System.arraycopy(data, offset, buffer, start, first);
+		if (first < size) {
+			System.arraycopy(data, offset + first, buffer, 0, size - first);
+		}
+		writeCursor_ = w + size;
+		final int used = w + size - readCursor_;
+		if (used > highWatermark_) {
+			highWatermark_ = used;
+		}
+		// Checked after publishing, so that a reader draining the buffer
+		// concurrently either sees the new data or gets notified.
+		if (readCursor_ == w) {
+			synchronized (this) {
+				notifyAll();
 			}
-			return len;
-		} catch (InterruptedException e) {
-			throw new IOException("Interrupted");
 		}
 	}
 
-	synchronized public void write(byte[] data, int size) {
-		for (int i = 0; i < size; ++i) {
-			if (queue_.size() == Constants.BUFFER_SIZE) {
-				Log.e("QueueInputStream", "Buffer overflow, discarding data");
-				break;
+	/** Discards the oldest buffered bytes so that size more will fit. */
+	private synchronized void dropOldest(int size) {
+		final int drop = size - (buffer_.length - size());
+		if (drop > 0) {
+			readCursor_ = readCursor_ + drop;
+			overflowCount_ = overflowCount_ + drop;
+		}
+	}
+
+	/**
+	 * Grows the buffer towards room for size more bytes, up to the maximum
+	 * capacity.
+	 *
+	 * @return Whether size more bytes fit now.
+	 */
+	private synchronized boolean grow(int size) {
+		final int w = writeCursor_;
+		final int r = readCursor_;
+		final int capacity = Math.min(maxCapacity_,
+				roundUpToPowerOfTwo(w - r + size));
+		if (capacity > buffer_.length) {
+			final byte[] buffer = new byte[capacity];
+			final int mask = capacity - 1;
+			for (int i = r; i != w; ++i) {
+				buffer[i & mask] = buffer_[i & mask_];
 			}
-			queue_.add(data[i]);
+			buffer_ = buffer;
+			mask_ = mask;
 		}
-		notifyAll();
+		return w - r + size <= buffer_.length;
+	}
+
+	/** The number of bytes discarded due to buffer overflow. */
+	public long getOverflowCount() {
+		return overflowCount_;
+	}
+
+	/** The largest number of bytes that have been buffered at once. */
+	public int getHighWatermark() {
+		return highWatermark_;
+	}
+
+	/** The current capacity. */
+	public synchronized int getCapacity() {
+		return buffer_.length;
 	}
 
 	@Override
-	synchronized public int available() throws IOException {
-		return queue_.size();
+	public int available() throws IOException {
+		return size();
 	}
 
 	@Override
@@ -28,6 +28,7 @@
  */
 package ioio.lib.impl;
 
+import ioio.lib.api.OutgoingLaneStats;
 import ioio.lib.api.SpiMaster;
 import ioio.lib.api.exception.ConnectionLostException;
 import ioio.lib.impl.FlowControlledPacketSender.Packet;
@@ -37,16 +38,16 @@ import ioio.lib.impl.IncomingState.DataModuleListener;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import android.util.Log;
 
 class SpiMasterImpl extends AbstractResource implements SpiMaster,
 		DataModuleListener, Sender {
-	public class SpiResult implements Result {
+	public class SpiResult implements Result, PendingQueue.Target {
 		boolean ready_;
 		final byte[] data_;
+		// The number of transactions whose response is still expected.
+		int pendingFragments_;
 		
 		SpiResult(byte[] data) {
 			data_ = data;
@@ -60,11 +61,25 @@ class SpiMasterImpl extends AbstractResource implements SpiMaster,
 			}
 			checkState();
 		}
+
+		synchronized void fragmentReceived(int offset, byte[] data, int size) {
+			System.arraycopy(data, 0, data_, offset, size);
+			if (--pendingFragments_ == 0) {
+				ready_ = true;
+				notify();
+			}
+		}
+
+		@Override
+		public synchronized void abort() {
+			notify();
+		}
 	}
 
 	class OutgoingPacket implements Packet {
 		int writeSize_;
 		byte[] writeData_;
+		int writeOffset_;
 		int ssPin_;
 		int readSize_;
 		int totalSize_;
@@ -75,9 +90,16 @@ class SpiMasterImpl extends AbstractResource implements SpiMaster,
 		}
 	}
 
-	private final Queue<SpiResult> pendingRequests_ = new ConcurrentLinkedQueue<SpiMasterImpl.SpiResult>();
+	private static final int MAX_FRAGMENT_SIZE = 64;
+
+	// Tagged by the offset in the result array of each response.
+	private final PendingQueue<SpiResult> pendingRequests_ = new PendingQueue<SpiResult>();
+	// Keeps the transactions of a transfer consecutive in pendingRequests_
+	// and in the outgoing queue.
+	private final Object submitLock_ = new Object();
 	private final FlowControlledPacketSender outgoing_ = new FlowControlledPacketSender(
-			this);
+			this, ioio_.flowControlScheduler_,
+			OutgoingLaneStats.Lane.BULK);
 
 	private final int spiNum_;
 	private final Map<Integer, Integer> ssPinToIndex_;
@@ -85,10 +107,13 @@ class SpiMasterImpl extends AbstractResource implements SpiMaster,
 	private final int mosiPinNum_;
 	private final int misoPinNum_;
 	private final int clkPinNum_;
+	private final boolean toleratesDeselect_;
 
 	SpiMasterImpl(IOIOImpl ioio, int spiNum, int mosiPinNum, int misoPinNum,
-			int clkPinNum, int[] ssPins) throws ConnectionLostException {
+			int clkPinNum, int[] ssPins, boolean toleratesDeselect)
+			throws ConnectionLostException {
 		super(ioio);
+		toleratesDeselect_ = toleratesDeselect;
 		spiNum_ = spiNum;
 		mosiPinNum_ = mosiPinNum;
 		misoPinNum_ = misoPinNum;
@@ -104,11 +129,7 @@ class SpiMasterImpl extends AbstractResource implements SpiMaster,
 	synchronized public void disconnected() {
 		super.disconnected();
 		outgoing_.kill();
-		for (SpiResult tr : pendingRequests_) {
-			synchronized (tr) {
-				tr.notify();
-			}
-		}
+		pendingRequests_.abortAll();
 	}
 
 	@Override
@@ -124,27 +145,65 @@ class SpiMasterImpl extends AbstractResource implements SpiMaster,
 	public SpiResult writeReadAsync(int slave, byte[] writeData,
 			int writeSize, int totalSize, byte[] readData, int readSize)
 			throws ConnectionLostException {
-		checkState();
-		SpiResult result = new SpiResult(readData);
+		if (totalSize > MAX_FRAGMENT_SIZE) {
+			throw new IllegalArgumentException(
+					"totalSize must not exceed 64 bytes, "
+							+ "use transfer() instead");
+		}
+		return transferAsync(slave, writeData, writeSize, totalSize,
+				readData, readSize);
+	}
 
-		OutgoingPacket p = new OutgoingPacket();
-		p.writeSize_ = writeSize;
-		p.writeData_ = writeData;
-		p.readSize_ = readSize;
-		p.ssPin_ = indexToSsPin_[slave];
-		p.totalSize_ = totalSize;
+	@Override
+	public void transfer(int slave, byte[] writeData, int writeSize,
+			int totalSize, byte[] readData, int readSize)
+			throws ConnectionLostException, InterruptedException {
+		transferAsync(slave, writeData, writeSize, totalSize, readData,
+				readSize).waitReady();
+	}
 
-		if (p.readSize_ > 0) {
-			synchronized (this) {
-				pendingRequests_.add(result);
-			}
+	@Override
+	public SpiResult transferAsync(int slave, byte[] writeData,
+			int writeSize, int totalSize, byte[] readData, int readSize)
+			throws ConnectionLostException {
+		checkState();
+		if (totalSize > MAX_FRAGMENT_SIZE && !toleratesDeselect_) {
+			// The IOIO de-asserts slave select after every transaction.
+			throw new IllegalArgumentException(
+					"Transfers over 64 bytes require Config.toleratesDeselect");
+		}
+		SpiResult result = new SpiResult(readData);
+		final int ssPin = indexToSsPin_[slave];
+		// The response is the suffix of the transfer starting at readStart,
+		// so each transaction's response is a suffix of that transaction.
+		final int readStart = totalSize - readSize;
+		if (readSize > 0) {
+			result.pendingFragments_ = (totalSize - 1) / MAX_FRAGMENT_SIZE
+					- readStart / MAX_FRAGMENT_SIZE + 1;
 		} else {
 			result.ready_ = true;
 		}
-		try {
-			outgoing_.write(p);
-		} catch (IOException e) {
-			Log.e("SpiMasterImpl", "Exception caught", e);
+
+		synchronized (submitLock_) {
+			for (int start = 0; start < totalSize; start += MAX_FRAGMENT_SIZE) {
+				final int end = Math.min(start + MAX_FRAGMENT_SIZE, totalSize);
+				OutgoingPacket p = new OutgoingPacket();
+				p.writeData_ = writeData;
+				p.writeOffset_ = start;
+				p.writeSize_ = Math.max(0, Math.min(writeSize, end) - start);
+				p.readSize_ = Math.max(0, end - Math.max(start, readStart));
+				p.ssPin_ = ssPin;
+				p.totalSize_ = end - start;
+				if (p.readSize_ > 0) {
+					pendingRequests_.add(result,
+							Math.max(start, readStart) - readStart);
+				}
+				try {
+					outgoing_.write(p);
+				} catch (IOException e) {
+					Log.e("SpiMasterImpl", "Exception caught", e);
+				}
+			}
 		}
 		return result;
 	}
@@ -158,12 +217,8 @@ class SpiMasterImpl extends AbstractResource implements SpiMaster,
 
 	@Override
 	public void dataReceived(byte[] data, int size) {
-		SpiResult result = pendingRequests_.remove();
-		synchronized (result) {
-			result.ready_ = true;
-			System.arraycopy(data, 0, result.data_, 0, size);
-			result.notify();
-		}
+		final int offset = pendingRequests_.peekTag();
+		pendingRequests_.remove().fragmentReceived(offset, data, size);
 	}
 
 	@Override
@@ -171,6 +226,11 @@ class SpiMasterImpl extends AbstractResource implements SpiMaster,
 		outgoing_.readyToSend(bytesRemaining);
 	}
 
+	@Override
+	public void setOutgoingLane(OutgoingLaneStats.Lane lane) {
+		outgoing_.setLane(lane);
+	}
+
 	@Override
 	synchronized public void close() {
 		super.close();
@@ -189,7 +249,7 @@ class SpiMasterImpl extends AbstractResource implements SpiMaster,
 		OutgoingPacket p = (OutgoingPacket) packet;
 		try {
 			ioio_.protocol_.spiMasterRequest(spiNum_, p.ssPin_, p.writeData_,
-					p.writeSize_, p.totalSize_, p.readSize_);
+					p.writeOffset_, p.writeSize_, p.totalSize_, p.readSize_);
 		} catch (IOException e) {
 			Log.e("SpiImpl", "Caught exception", e);
 		}
@@ -28,6 +28,7 @@
  */
 package ioio.lib.impl;
 
+import ioio.lib.api.OutgoingLaneStats;
 import ioio.lib.api.TwiMaster;
 import ioio.lib.api.exception.ConnectionLostException;
 import ioio.lib.impl.FlowControlledPacketSender.Packet;
@@ -35,21 +36,21 @@ import ioio.lib.impl.FlowControlledPacketSender.Sender;
 import ioio.lib.impl.IncomingState.DataModuleListener;
 
 import java.io.IOException;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import android.util.Log;
 
 class TwiMasterImpl extends AbstractResource implements TwiMaster,
 		DataModuleListener, Sender {
-	class TwiResult implements Result {
+	interface Completion extends PendingQueue.Target {
+		void complete(int index, boolean success, byte[] data, int size);
+	}
+
+	class TwiResult implements Result, Completion {
 		boolean ready_ = false;
 		boolean success_;
-		final byte[] data_;
-		
-		public TwiResult(byte[] data) {
-			data_ = data;
-		}
+		byte[] data_;
+		// Links pooled instances.
+		TwiResult nextFree_;
 
 		@Override
 		public synchronized boolean waitReady() throws ConnectionLostException,
@@ -60,6 +61,22 @@ class TwiMasterImpl extends AbstractResource implements TwiMaster,
 			checkState();
 			return success_;
 		}
+
+		@Override
+		public synchronized void complete(int index, boolean success,
+				byte[] data, int size) {
+			ready_ = true;
+			success_ = success;
+			if (success_) {
+				System.arraycopy(data, 0, data_, 0, size);
+			}
+			notify();
+		}
+
+		@Override
+		public synchronized void abort() {
+			notify();
+		}
 	}
 
 	class OutgoingPacket implements Packet {
@@ -68,17 +85,171 @@ class TwiMasterImpl extends AbstractResource implements TwiMaster,
 		boolean tenBitAddr_;
 		int addr_;
 		int readSize_;
+		// Whether to return this packet to the pool once sent.
+		boolean pooled_;
+		OutgoingPacket nextFree_;
 
 		@Override
 		public int getSize() {
 			return writeSize_ + 4;
 		}
 
+		void set(int address, boolean tenBitAddr, byte[] writeData,
+				int writeSize, int readSize) {
+			writeSize_ = writeSize;
+			writeData_ = writeData;
+			tenBitAddr_ = tenBitAddr;
+			readSize_ = readSize;
+			addr_ = address;
+		}
+	}
+
+	class TwiBatch implements Batch, Completion {
+		private final OutgoingPacket[] packets_;
+		private final byte[][] readData_;
+		private final boolean[] succeeded_;
+		private int size_ = 0;
+		private int numCompleted_ = 0;
+		private int numFailed_ = 0;
+		private boolean pending_ = false;
+		private BatchListener listener_;
+
+		TwiBatch(int capacity) {
+			packets_ = new OutgoingPacket[capacity];
+			for (int i = 0; i < capacity; ++i) {
+				packets_[i] = new OutgoingPacket();
+			}
+			readData_ = new byte[capacity][];
+			succeeded_ = new boolean[capacity];
+		}
+
+		TwiMasterImpl owner() {
+			return TwiMasterImpl.this;
+		}
+
+		@Override
+		public synchronized int add(int address, boolean tenBitAddr,
+				byte[] writeData, int writeSize, byte[] readData, int readSize) {
+			checkNotPending();
+			if (size_ == packets_.length) {
+				throw new IllegalStateException("Batch is full");
+			}
+			packets_[size_].set(address, tenBitAddr, writeData, writeSize,
+					readSize);
+			readData_[size_] = readData;
+			return size_++;
+		}
+
+		@Override
+		public synchronized void clear() {
+			checkNotPending();
+			for (int i = 0; i < size_; ++i) {
+				packets_[i].writeData_ = null;
+				readData_[i] = null;
+			}
+			size_ = 0;
+		}
+
+		@Override
+		public synchronized int size() {
+			return size_;
+		}
+
+		@Override
+		public synchronized boolean succeeded(int index) {
+			return succeeded_[index];
+		}
+
+		@Override
+		public synchronized boolean waitReady()
+				throws ConnectionLostException, InterruptedException {
+			while (pending_ && state_ != State.DISCONNECTED) {
+				wait();
+			}
+			checkState();
+			return numFailed_ == 0;
+		}
+
+		@Override
+		public void complete(int index, boolean success, byte[] data, int size) {
+			BatchListener listener;
+			int numFailed;
+			synchronized (this) {
+				succeeded_[index] = success;
+				if (success) {
+					System.arraycopy(data, 0, readData_[index], 0, size);
+				} else {
+					++numFailed_;
+				}
+				if (++numCompleted_ < size_) {
+					return;
+				}
+				pending_ = false;
+				listener = listener_;
+				listener_ = null;
+				numFailed = numFailed_;
+				notifyAll();
+			}
+			notifyListener(listener, numFailed);
+		}
+
+		@Override
+		public synchronized void abort() {
+			notifyAll();
+		}
+
+		synchronized void start(BatchListener listener) {
+			checkNotPending();
+			pending_ = true;
+			listener_ = listener;
+			numCompleted_ = 0;
+			numFailed_ = 0;
+		}
+
+		/**
+		 * Fails the requests from the given index on, which were never sent.
+		 * The batch completes once the sent ones have, without notifying the
+		 * listener, as the submitter got an exception instead.
+		 */
+		synchronized void abandon(int numSent) {
+			for (int i = numSent; i < size_; ++i) {
+				succeeded_[i] = false;
+			}
+			numFailed_ += size_ - numSent;
+			numCompleted_ += size_ - numSent;
+			listener_ = null;
+			if (numCompleted_ == size_) {
+				pending_ = false;
+				notifyAll();
+			}
+		}
+
+		void notifyListener(BatchListener listener, int numFailed) {
+			if (listener == null) {
+				return;
+			}
+			try {
+				listener.batchCompleted(this, numFailed);
+			} catch (RuntimeException e) {
+				Log.e("TwiMasterImpl", "Batch listener failed", e);
+			}
+		}
+
+		private void checkNotPending() {
+			if (pending_) {
+				throw new IllegalStateException(
+						"Batch has been submitted and is not yet complete");
+			}
+		}
 	}
 
-	private final Queue<TwiResult> pendingRequests_ = new ConcurrentLinkedQueue<TwiMasterImpl.TwiResult>();
+	private final PendingQueue<Completion> pendingRequests_ = new PendingQueue<Completion>();
+	private final Object poolLock_ = new Object();
+	private OutgoingPacket freePackets_ = null;
+	private TwiResult freeResults_ = null;
 	private final FlowControlledPacketSender outgoing_ = new FlowControlledPacketSender(
-			this);
+			this, ioio_.flowControlScheduler_,
+			OutgoingLaneStats.Lane.REALTIME);
 	private final int twiNum_;
 
 	TwiMasterImpl(IOIOImpl ioio, int twiNum) throws ConnectionLostException {
@@ -90,20 +261,25 @@ class TwiMasterImpl extends AbstractResource implements TwiMaster,
 	synchronized public void disconnected() {
 		super.disconnected();
 		outgoing_.kill();
-		for (TwiResult tr : pendingRequests_) {
-			synchronized (tr) {
-				tr.notify();
-			}
-		}
+		pendingRequests_.abortAll();
 	}
 
 	@Override
 	public boolean writeRead(int address, boolean tenBitAddr, byte[] writeData,
 			int writeSize, byte[] readData, int readSize)
 			throws ConnectionLostException, InterruptedException {
-		Result result = writeReadAsync(address, tenBitAddr, writeData,
-				writeSize, readData, readSize);
-		return result.waitReady();
+		checkState();
+		TwiResult result = obtainResult(readData);
+		try {
+			submit(result, obtainPacket(address, tenBitAddr, writeData,
+					writeSize, readSize));
+		} catch (ConnectionLostException e) {
+			recycleResult(result);
+			throw e;
+		}
+		final boolean success = result.waitReady();
+		recycleResult(result);
+		return success;
 	}
 
 	@Override
@@ -111,37 +287,126 @@ class TwiMasterImpl extends AbstractResource implements TwiMaster,
 			byte[] writeData, int writeSize, byte[] readData, int readSize)
 			throws ConnectionLostException {
 		checkState();
-		TwiResult result = new TwiResult(readData);
+		// The caller owns the result, so it is never pooled.
+		TwiResult result = new TwiResult();
+		result.data_ = readData;
+		submit(result, obtainPacket(address, tenBitAddr, writeData, writeSize,
+				readSize));
+		return result;
+	}
 
-		OutgoingPacket p = new OutgoingPacket();
-		p.writeSize_ = writeSize;
-		p.writeData_ = writeData;
-		p.tenBitAddr_ = tenBitAddr;
-		p.readSize_ = readSize;
-		p.addr_ = address;
+	@Override
+	public Batch createBatch(int capacity) {
+		return new TwiBatch(capacity);
+	}
 
+	@Override
+	public void submitBatch(Batch batch, BatchListener listener)
+			throws ConnectionLostException {
+		checkState();
+		if (!(batch instanceof TwiBatch)
+				|| ((TwiBatch) batch).owner() != this) {
+			throw new IllegalArgumentException(
+					"Batch was not created by this TwiMaster");
+		}
+		TwiBatch b = (TwiBatch) batch;
+		final int size = b.size();
+		if (size == 0) {
+			b.notifyListener(listener, 0);
+			return;
+		}
+		b.start(listener);
 		synchronized (this) {
-			pendingRequests_.add(result);
+			int sent = 0;
 			try {
-				outgoing_.write(p);
+				for (; sent < size; ++sent) {
+					pendingRequests_.add(b, sent);
+					outgoing_.write(b.packets_[sent]);
+				}
 			} catch (IOException e) {
-				Log.e("SpiMasterImpl", "Exception caught", e);
+				throw new ConnectionLostException(e);
+			} finally {
+				if (sent < size) {
+					// No response will come for the rest.
+					pendingRequests_.removeLast();
+					b.abandon(sent);
+				}
 			}
 		}
+	}
+
+	private synchronized void submit(TwiResult result, OutgoingPacket p)
+			throws ConnectionLostException {
+		pendingRequests_.add(result, 0);
+		boolean sent = false;
+		try {
+			outgoing_.write(p);
+			sent = true;
+		} catch (IOException e) {
+			throw new ConnectionLostException(e);
+		} finally {
+			if (!sent) {
+				pendingRequests_.removeLast();
+				if (p.pooled_) {
+					recyclePacket(p);
+				}
+			}
+		}
+	}
+
+	private OutgoingPacket obtainPacket(int address, boolean tenBitAddr,
+			byte[] writeData, int writeSize, int readSize) {
+		OutgoingPacket p;
+		synchronized (poolLock_) {
+			p = freePackets_;
+			if (p != null) {
+				freePackets_ = p.nextFree_;
+			}
+		}
+		if (p == null) {
+			p = new OutgoingPacket();
+			p.pooled_ = true;
+		}
+		p.set(address, tenBitAddr, writeData, writeSize, readSize);
+		return p;
+	}
+
+	private void recyclePacket(OutgoingPacket p) {
+		p.writeData_ = null;
+		synchronized (poolLock_) {
+			p.nextFree_ = freePackets_;
+			freePackets_ = p;
+		}
+	}
+
+	private TwiResult obtainResult(byte[] readData) {
+		TwiResult result;
+		synchronized (poolLock_) {
+			result = freeResults_;
+			if (result != null) {
+				freeResults_ = result.nextFree_;
+			}
+		}
+		if (result == null) {
+			result = new TwiResult();
+		}
+		result.ready_ = false;
+		result.data_ = readData;
 		return result;
 	}
 
+	private void recycleResult(TwiResult result) {
+		result.data_ = null;
+		synchronized (poolLock_) {
+			result.nextFree_ = freeResults_;
+			freeResults_ = result;
+		}
+	}
+
 	@Override
 	public void dataReceived(byte[] data, int size) {
-		TwiResult result = pendingRequests_.remove();
-		synchronized (result) {
-			result.ready_ = true;
-			result.success_ = (size != 0xFF);
-			if (result.success_) {
-				System.arraycopy(data, 0, result.data_, 0, size);
-			}
-			result.notify();
-		}
+		final int index = pendingRequests_.peekTag();
+		pendingRequests_.remove().complete(index, size != 0xFF, data, size);
 	}
 
 	@Override
@@ -149,6 +414,11 @@ class TwiMasterImpl extends AbstractResource implements TwiMaster,
 		outgoing_.readyToSend(bytesRemaining);
 	}
 
+	@Override
+	public void setOutgoingLane(OutgoingLaneStats.Lane lane) {
+		outgoing_.setLane(lane);
+	}
+
 	@Override
 	synchronized public void close() {
 		super.close();
@@ -165,5 +435,8 @@ class TwiMasterImpl extends AbstractResource implements TwiMaster,
 		} catch (IOException e) {
 			Log.e("TwiImpl", "Caught exception", e);
 		}
+		if (p.pooled_) {
+			recyclePacket(p);
+		}
 	}
 }
@@ -28,11 +28,14 @@
  */
 package ioio.lib.impl;
 
+import ioio.lib.api.DataAvailableListener;
 import ioio.lib.api.IOIO;
+import ioio.lib.api.OutgoingLaneStats;
 import ioio.lib.api.Uart;
 import ioio.lib.api.exception.ConnectionLostException;
 import ioio.lib.impl.FlowControlledOutputStream.Sender;
 import ioio.lib.impl.IncomingState.DataModuleListener;
+import ioio.lib.util.ListenerArray;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -41,16 +44,28 @@ import java.io.OutputStream;
 import android.util.Log;
 
 class UartImpl extends AbstractResource implements DataModuleListener, Sender, Uart {
+	private static final String TAG = "UartImpl";
 	private static final int MAX_PACKET = 64;
 	
 	private final int uartNum_;
 	private final int rxPinNum_;
 	private final int txPinNum_;
-	private final FlowControlledOutputStream outgoing_ = new FlowControlledOutputStream(this, MAX_PACKET);
-	private final QueueInputStream incoming_ = new QueueInputStream();
+	private final FlowControlledOutputStream outgoing_ = new FlowControlledOutputStream(
+			this, MAX_PACKET, ioio_.flowControlScheduler_,
+			OutgoingLaneStats.Lane.CONTROL);
+	private final QueueInputStream incoming_;
+	private final ListenerArray<DataAvailableListener> dataListeners_ = new ListenerArray<DataAvailableListener>(
+			new DataAvailableListener[0]);
 	
-	public UartImpl(IOIOImpl ioio, int txPin, int rxPin, int uartNum) throws ConnectionLostException {
+	public UartImpl(IOIOImpl ioio, int txPin, int rxPin, int uartNum,
+			BufferSpec buffer) throws ConnectionLostException {
 		super(ioio);
+		final int capacity = QueueInputStream
+				.roundUpToPowerOfTwo(buffer.capacity);
+		incoming_ = new QueueInputStream(capacity, buffer.policy,
+				buffer.policy == OverflowPolicy.GROW ? Math.max(capacity,
+						QueueInputStream.roundUpToPowerOfTwo(buffer.maxCapacity))
+						: capacity);
 		uartNum_ = uartNum;
 		rxPinNum_ = rxPin;
 		txPinNum_ = txPin;
@@ -59,6 +74,7 @@ class UartImpl extends AbstractResource implements DataModuleListener, Sender, U
 	@Override
 	public void dataReceived(byte[] data, int size) {
 		incoming_.write(data, size);
+		notifyDataListeners();
 	}
 
 	@Override
@@ -66,10 +82,15 @@ class UartImpl extends AbstractResource implements DataModuleListener, Sender, U
 		try {
 			ioio_.protocol_.uartData(uartNum_, size, data);
 		} catch (IOException e) {
-			Log.e("UartImpl", e.getMessage());
+			Log.e(TAG, e.getMessage());
 		}
 	}
 
+	@Override
+	public void setOutgoingLane(OutgoingLaneStats.Lane lane) {
+		outgoing_.setLane(lane);
+	}
+
 	@Override
 	synchronized public void close() {
 		super.close();
@@ -101,6 +122,44 @@ class UartImpl extends AbstractResource implements DataModuleListener, Sender, U
 		return outgoing_;
 	}
 
+	@Override
+	public long getOverflowCount() {
+		return incoming_.getOverflowCount();
+	}
+
+	@Override
+	public int getHighWatermark() {
+		return incoming_.getHighWatermark();
+	}
+
+	@Override
+	public int getBufferCapacity() {
+		return incoming_.getCapacity();
+	}
+
+	@Override
+	synchronized public void addDataAvailableListener(
+			DataAvailableListener listener) throws ConnectionLostException {
+		checkState();
+		dataListeners_.add(listener);
+	}
+
+	@Override
+	synchronized public void removeDataAvailableListener(
+			DataAvailableListener listener) {
+		dataListeners_.remove(listener);
+	}
+
+	private void notifyDataListeners() {
+		for (DataAvailableListener listener : dataListeners_.get()) {
+			try {
+				listener.dataAvailable(this);
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Data listener failed", e);
+			}
+		}
+	}
+
 	@Override
 	public void reportAdditionalBuffer(int bytesRemaining) {
 		outgoing_.readyToSend(bytesRemaining);
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import android.util.Log;
+
+/**
+ * Records the raw traffic of a IOIO connection, in both directions, to a set
+ * of rotating binary files, for offline analysis with
+ * {@link WireCaptureDecoder}.
+ * <p>
+ * Recording only copies the data into a buffer preallocated on construction;
+ * the files are written by a background thread. Should the buffer fill up,
+ * e.g. because storage is slow, whole chunks are dropped and counted rather
+ * than stalling the connection.
+ * <p>
+ * File format: the 8-byte magic {@link #MAGIC}, followed by a wall-clock time
+ * in milliseconds and the {@link System#nanoTime()} reading taken at the same
+ * moment, both at the start of the capture (8 bytes each), followed by records. Each record consists of an
+ * 8-byte {@link System#nanoTime()} timestamp, a 1-byte direction
+ * ({@link #INCOMING} or {@link #OUTGOING}), a 2-byte length and the data. All
+ * numbers are big-endian.
+ */
+public class WireCapture {
+	/** Direction of data sent by the IOIO. */
+	public static final int INCOMING = 0;
+	/** Direction of data sent to the IOIO. */
+	public static final int OUTGOING = 1;
+	public static final byte[] MAGIC = new byte[] { 'I', 'O', 'I', 'O', 'C',
+			'A', 'P', '1' };
+	private static final String TAG = "WireCapture";
+	private static final int RECORD_HEADER_SIZE = 11;
+
+	private final File directory_;
+	private final String prefix_;
+	private final long maxFileSize_;
+	private final int maxFiles_;
+	private final byte[] buffer_;
+	private final byte[] chunk_;
+	private int readCursor_ = 0;
+	private int size_ = 0;
+	private boolean closed_ = false;
+	private long droppedChunks_ = 0;
+	private final Thread writer_;
+	private final long startWallClock_ = System.currentTimeMillis();
+	private final long startNanos_ = System.nanoTime();
+
+	/**
+	 * Constructor. Starts the background writer.
+	 * 
+	 * @param directory
+	 *            Where to create the capture files.
+	 * @param prefix
+	 *            Files are named prefix.0.bin, prefix.1.bin, etc., up to
+	 *            maxFiles, after which the oldest file is overwritten.
+	 * @param bufferSize
+	 *            Size of the in-memory buffer, in bytes.
+	 * @param maxFileSize
+	 *            Size after which a new file is started, in bytes.
+	 * @param maxFiles
+	 *            Number of files to rotate through.
+	 */
+	public WireCapture(File directory, String prefix, int bufferSize,
+			long maxFileSize, int maxFiles) {
+		if (bufferSize < RECORD_HEADER_SIZE + 0xFFFF) {
+			throw new IllegalArgumentException("bufferSize too small");
+		}
+		directory_ = directory;
+		prefix_ = prefix;
+		maxFileSize_ = maxFileSize;
+		maxFiles_ = maxFiles;
+		buffer_ = new byte[bufferSize];
+		chunk_ = new byte[bufferSize];
+		writer_ = new Thread(TAG) {
+			@Override
+			public void run() {
+				writeFiles();
+			}
+		};
+		writer_.start();
+	}
+
+	/** The file number index is written to. */
+	public File getFile(int index) {
+		return new File(directory_, prefix_ + "." + index + ".bin");
+	}
+
+	/**
+	 * Record a chunk of traffic. Never blocks on I/O.
+	 * 
+	 * @param direction
+	 *            {@link #INCOMING} or {@link #OUTGOING}.
+	 */
+	public void record(int direction, byte[] data, int off, int len) {
+		final long timestamp = System.nanoTime();
+		while (len > 0xFFFF) {
+			record(direction, data, off, 0xFFFF);
+			off += 0xFFFF;
+			len -= 0xFFFF;
+		}
+		synchronized (this) {
+			if (closed_) {
+				return;
+			}
+			if (buffer_.length - size_ < RECORD_HEADER_SIZE + len) {
+				++droppedChunks_;
+				return;
+			}
+			final boolean wasEmpty = size_ == 0;
+			for (int i = 7; i >= 0; --i) {
+				put((byte) (timestamp >> (8 * i)));
+			}
+			put((byte) direction);
+			put((byte) (len >> 8));
+			put((byte) len);
+			final int writeCursor = (readCursor_ + size_) % buffer_.length;
+			final int first = Math.min(len, buffer_.length - writeCursor);
+			System.arraycopy(data, off, buffer_, writeCursor, first);
+			System.arraycopy(data, off + first, buffer_, 0, len - first);
+			size_ += len;
+			if (wasEmpty) {
+				notify();
+			}
+		}
+	}
+
+	/** The number of chunks dropped so far as result of buffer overflow. */
+	public synchronized long getDroppedChunks() {
+		return droppedChunks_;
+	}
+
+	/** Write out any buffered data and stop the background writer. */
+	public void close() throws InterruptedException {
+		synchronized (this) {
+			closed_ = true;
+			notify();
+		}
+		writer_.join();
+	}
+
+	private void put(byte b) {
+		buffer_[(readCursor_ + size_++) % buffer_.length] = b;
+	}
+
+	private void writeFiles() {
+		int fileIndex = 0;
+		OutputStream out = null;
+		long fileSize = 0;
+		try {
+			while (true) {
+				int count;
+				synchronized (this) {
+					while (size_ == 0 && !closed_) {
+						wait();
+					}
+					if (size_ == 0) {
+						break;
+					}
+					count = size_;
+					final int first = Math.min(count, buffer_.length
+							- readCursor_);
+					System.arraycopy(buffer_, readCursor_, chunk_, 0, first);
+					System.arraycopy(buffer_, 0, chunk_, first, count - first);
+				}
+				// Rotate on record boundaries only.
+				int pos = 0;
+				while (pos < count) {
+					if (out == null || fileSize >= maxFileSize_) {
+						if (out != null) {
+							out.close();
+							fileIndex = (fileIndex + 1) % maxFiles_;
+						}
+						out = openFile(fileIndex);
+						fileSize = 24;
+					}
+					int end = pos;
+					do {
+						end += RECORD_HEADER_SIZE
+								+ (((chunk_[end + 9] & 0xFF) << 8) | (chunk_[end + 10] & 0xFF));
+					} while (end < count
+							&& fileSize + (end - pos) < maxFileSize_);
+					out.write(chunk_, pos, end - pos);
+					fileSize += end - pos;
+					pos = end;
+				}
+				synchronized (this) {
+					readCursor_ = (readCursor_ + count) % buffer_.length;
+					size_ -= count;
+				}
+			}
+		} catch (InterruptedException e) {
+		} catch (IOException e) {
+			Log.e(TAG, "Capture aborted", e);
+			synchronized (this) {
+				closed_ = true;
+			}
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private OutputStream openFile(int index) throws IOException {
+		OutputStream out = new FileOutputStream(getFile(index));
+		final byte[] header = new byte[24];
+		System.arraycopy(MAGIC, 0, header, 0, 8);
+		for (int i = 0; i < 8; ++i) {
+			header[8 + i] = (byte) (startWallClock_ >> (8 * (7 - i)));
+			header[16 + i] = (byte) (startNanos_ >> (8 * (7 - i)));
+		}
+		out.write(header);
+		return out;
+	}
+}
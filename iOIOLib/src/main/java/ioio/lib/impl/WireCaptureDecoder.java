@@ -0,0 +1,554 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ioio.lib.impl.IOIOProtocol.IncomingHandler;
+
+/**
+ * Offline decoder for files written by {@link WireCapture}.
+ * <p>
+ * Usage: {@code WireCaptureDecoder file...}, where the files are given in
+ * chronological order. Prints three sections to the standard output: a
+ * timeline with one line per decoded message, the number of bytes per second
+ * in each direction of every UART (CSV, ready for plotting) and the periods
+ * during which a UART, SPI or TWI module was starved of flow-control credits,
+ * i.e. its last outgoing data used up the buffer space reported by the IOIO
+ * and no more was reported yet.
+ */
+public class WireCaptureDecoder {
+	// Smallest amount of credit with which anything can be sent.
+	private static final int UART_MIN_CREDIT = 1;
+	private static final int PACKET_MIN_CREDIT = 5;
+	private static final int MODULES_PER_TYPE = 4;
+
+	private static final int UART = 0;
+	private static final int SPI = 1;
+	private static final int TWI = 2;
+	private static final String[] MODULE_NAMES = new String[] { "UART",
+			"SPI", "TWI" };
+
+	private final PrintStream timeline_;
+	private final IOIOProtocol incoming_;
+	private long baseNanos_ = -1;
+	private long now_;
+	private byte[] outgoing_ = new byte[256];
+	private int outgoingSize_ = 0;
+	// Set once the incoming stream has ended, e.g. on a soft close.
+	private boolean incomingEnded_ = false;
+
+	private final int[][] credits_ = new int[3][MODULES_PER_TYPE];
+	private final long[][] starvedSince_ = new long[3][MODULES_PER_TYPE];
+	private final StringBuilder starvation_ = new StringBuilder();
+	// second -> {in, out} per UART.
+	private final Map<Long, long[][]> uartBytes_ = new TreeMap<Long, long[][]>();
+
+	public WireCaptureDecoder(PrintStream timeline) {
+		timeline_ = timeline;
+		incoming_ = new IOIOProtocol(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}, new Handler());
+		for (long[] a : starvedSince_) {
+			Arrays.fill(a, -1);
+		}
+	}
+
+	/** Decode a single capture file. Files must be decoded in order. */
+	public void decode(String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(fileName));
+		try {
+			final byte[] magic = new byte[WireCapture.MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, WireCapture.MAGIC)) {
+				throw new IOException(fileName + " is not a capture file");
+			}
+			final long wallClock = in.readLong();
+			final long nanos = in.readLong();
+			if (baseNanos_ < 0) {
+				baseNanos_ = nanos;
+				timeline_.println("# capture started at " + wallClock
+						+ " ms since epoch");
+			}
+			final byte[] data = new byte[0xFFFF];
+			while (true) {
+				final long timestamp;
+				try {
+					timestamp = in.readLong();
+				} catch (EOFException e) {
+					break;
+				}
+				final int direction;
+				final int len;
+				try {
+					direction = in.readUnsignedByte();
+					len = in.readUnsignedShort();
+					in.readFully(data, 0, len);
+				} catch (EOFException e) {
+					// The capture was cut short, e.g. the process was killed.
+					timeline_.println("# " + fileName + " is truncated");
+					break;
+				}
+				now_ = timestamp - baseNanos_;
+				if (direction == WireCapture.INCOMING) {
+					incoming(data, len);
+				} else {
+					outgoing(data, len);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Print the throughput and starvation summaries. */
+	public void printSummary(PrintStream out) {
+		out.println("# second,uart,bytes_in,bytes_out");
+		for (Map.Entry<Long, long[][]> e : uartBytes_.entrySet()) {
+			final long[][] counts = e.getValue();
+			for (int i = 0; i < MODULES_PER_TYPE; ++i) {
+				if (counts[i][0] != 0 || counts[i][1] != 0) {
+					out.println(e.getKey() + "," + i + "," + counts[i][0] + ","
+							+ counts[i][1]);
+				}
+			}
+		}
+		out.println("# module,starved_from_ms,duration_ms");
+		out.print(starvation_);
+		for (int type = 0; type < 3; ++type) {
+			for (int i = 0; i < MODULES_PER_TYPE; ++i) {
+				if (starvedSince_[type][i] >= 0) {
+					out.println(MODULE_NAMES[type] + i + ","
+							+ millis(starvedSince_[type][i]) + ",unresolved");
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: WireCaptureDecoder file...");
+			System.exit(1);
+		}
+		WireCaptureDecoder decoder = new WireCaptureDecoder(System.out);
+		try {
+			for (String file : args) {
+				decoder.decode(file);
+			}
+		} finally {
+			decoder.printSummary(System.out);
+		}
+	}
+
+	private void incoming(byte[] data, int len) {
+		if (incomingEnded_) {
+			return;
+		}
+		try {
+			incoming_.dataReceived(data, len);
+		} catch (IOException e) {
+			// A soft close or a protocol error ends the incoming stream, as
+			// it does for a live connection.
+			event("< end of stream: " + e.getMessage());
+			incomingEnded_ = true;
+		}
+	}
+
+	private void outgoing(byte[] data, int len) {
+		if (outgoingSize_ + len > outgoing_.length) {
+			final byte[] outgoing = new byte[Math.max(outgoing_.length * 2,
+					outgoingSize_ + len)];
+			System.arraycopy(outgoing_, 0, outgoing, 0, outgoingSize_);
+			outgoing_ = outgoing;
+		}
+		System.arraycopy(data, 0, outgoing_, outgoingSize_, len);
+		outgoingSize_ += len;
+		int pos = 0;
+		int size;
+		while ((size = outgoingMessageSize(outgoing_, pos, outgoingSize_ - pos)) > 0) {
+			decodeOutgoing(outgoing_, pos, size);
+			pos += size;
+		}
+		if (size < 0) {
+			event("> unknown opcode 0x"
+					+ Integer.toHexString(outgoing_[pos] & 0xFF)
+					+ ", discarding " + (outgoingSize_ - pos) + " bytes");
+			pos = outgoingSize_;
+		}
+		System.arraycopy(outgoing_, pos, outgoing_, 0, outgoingSize_ - pos);
+		outgoingSize_ -= pos;
+	}
+
+	/**
+	 * The size of the outgoing message at the given position, 0 if it is
+	 * incomplete or -1 if it cannot be decoded.
+	 */
+	static int outgoingMessageSize(byte[] buf, int pos, int available) {
+		if (available < 1) {
+			return 0;
+		}
+		int size;
+		switch (buf[pos] & 0xFF) {
+		case IOIOProtocol.SOFT_RESET:
+		case IOIOProtocol.ICSP_REGOUT:
+		case IOIOProtocol.ICSP_PROG_ENTER:
+		case IOIOProtocol.ICSP_PROG_EXIT:
+		case IOIOProtocol.SOFT_CLOSE:
+			size = 1;
+			break;
+		case IOIOProtocol.SET_PIN_DIGITAL_OUT:
+		case IOIOProtocol.SET_DIGITAL_OUT_LEVEL:
+		case IOIOProtocol.SET_PIN_DIGITAL_IN:
+		case IOIOProtocol.SET_CHANGE_NOTIFY:
+		case IOIOProtocol.SET_PIN_ANALOG_IN:
+		case IOIOProtocol.SET_ANALOG_IN_SAMPLING:
+		case IOIOProtocol.I2C_CONFIGURE_MASTER:
+		case IOIOProtocol.ICSP_CONFIG:
+			size = 2;
+			break;
+		case IOIOProtocol.SET_PIN_PWM:
+		case IOIOProtocol.SET_PIN_UART:
+		case IOIOProtocol.SPI_CONFIGURE_MASTER:
+		case IOIOProtocol.SET_PIN_SPI:
+		case IOIOProtocol.INCAP_CONFIGURE:
+		case IOIOProtocol.SET_PIN_INCAP:
+			size = 3;
+			break;
+		case IOIOProtocol.SET_PWM_DUTY_CYCLE:
+		case IOIOProtocol.SET_PWM_PERIOD:
+		case IOIOProtocol.UART_CONFIG:
+		case IOIOProtocol.ICSP_SIX:
+			size = 4;
+			break;
+		case IOIOProtocol.HARD_RESET:
+			size = 5;
+			break;
+		case IOIOProtocol.CHECK_INTERFACE:
+			size = 9;
+			break;
+		case IOIOProtocol.UART_DATA:
+			if (available < 2) {
+				return 0;
+			}
+			size = 2 + (buf[pos + 1] & 0x3F) + 1;
+			break;
+		case IOIOProtocol.I2C_WRITE_READ:
+			if (available < 4) {
+				return 0;
+			}
+			size = 5 + (buf[pos + 3] & 0xFF);
+			break;
+		case IOIOProtocol.SPI_MASTER_REQUEST: {
+			if (available < 3) {
+				return 0;
+			}
+			final int flags = buf[pos + 2] & 0xFF;
+			final int totalBytes = (flags & 0x3F) + 1;
+			size = 3;
+			int dataBytes = totalBytes;
+			if ((flags & 0x80) != 0) {
+				if (available < 4) {
+					return 0;
+				}
+				dataBytes = buf[pos + 3] & 0xFF;
+				++size;
+			}
+			if ((flags & 0x40) != 0) {
+				++size;
+			}
+			size += dataBytes;
+			break;
+		}
+		default:
+			return -1;
+		}
+		return size <= available ? size : 0;
+	}
+
+	private void decodeOutgoing(byte[] buf, int pos, int size) {
+		final int opcode = buf[pos] & 0xFF;
+		switch (opcode) {
+		case IOIOProtocol.UART_DATA: {
+			final int uartNum = (buf[pos + 1] & 0xFF) >> 6;
+			final int numBytes = size - 2;
+			event("> uart" + uartNum + " data " + numBytes + " bytes");
+			countUart(uartNum, 1, numBytes);
+			consume(UART, uartNum, numBytes, UART_MIN_CREDIT);
+			break;
+		}
+		case IOIOProtocol.SPI_MASTER_REQUEST: {
+			final int spiNum = (buf[pos + 1] & 0xFF) >> 6;
+			final int totalBytes = (buf[pos + 2] & 0x3F) + 1;
+			event("> spi" + spiNum + " request " + totalBytes + " bytes");
+			consume(SPI, spiNum, size - 3 + 4, PACKET_MIN_CREDIT);
+			break;
+		}
+		case IOIOProtocol.I2C_WRITE_READ: {
+			final int i2cNum = buf[pos + 1] & 0x03;
+			final int writeSize = buf[pos + 3] & 0xFF;
+			final int readSize = buf[pos + 4] & 0xFF;
+			event("> twi" + i2cNum + " write " + writeSize + " read "
+					+ readSize + " bytes");
+			consume(TWI, i2cNum, writeSize + 4, PACKET_MIN_CREDIT);
+			break;
+		}
+		default:
+			final StringBuilder sb = new StringBuilder("> opcode 0x");
+			sb.append(Integer.toHexString(opcode));
+			for (int i = 1; i < size; ++i) {
+				sb.append(' ').append(Integer.toHexString(buf[pos + i] & 0xFF));
+			}
+			event(sb.toString());
+			break;
+		}
+	}
+
+	private void consume(int type, int num, int bytes, int minCredit) {
+		credits_[type][num] -= bytes;
+		if (credits_[type][num] < minCredit && starvedSince_[type][num] < 0) {
+			starvedSince_[type][num] = now_;
+		}
+	}
+
+	private void credit(int type, int num, int bytes) {
+		credits_[type][num] += bytes;
+		final int minCredit = type == UART ? UART_MIN_CREDIT
+				: PACKET_MIN_CREDIT;
+		if (credits_[type][num] >= minCredit && starvedSince_[type][num] >= 0) {
+			starvation_.append(MODULE_NAMES[type]).append(num).append(',')
+					.append(millis(starvedSince_[type][num])).append(',')
+					.append(millis(now_ - starvedSince_[type][num]))
+					.append('\n');
+			starvedSince_[type][num] = -1;
+		}
+	}
+
+	private void reset(int type, int num) {
+		credits_[type][num] = 0;
+		starvedSince_[type][num] = -1;
+	}
+
+	private void countUart(int uartNum, int direction, int bytes) {
+		final Long second = now_ / 1000000000L;
+		long[][] counts = uartBytes_.get(second);
+		if (counts == null) {
+			counts = new long[MODULES_PER_TYPE][2];
+			uartBytes_.put(second, counts);
+		}
+		counts[uartNum][direction] += bytes;
+	}
+
+	private void event(String description) {
+		timeline_.println(millis(now_) + " " + description);
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+
+	private class Handler implements IncomingHandler {
+		@Override
+		public void handleEstablishConnection(byte[] hardwareId,
+				byte[] bootloaderId, byte[] firmwareId) {
+			event("< establish connection hw=" + new String(hardwareId)
+					+ " bl=" + new String(bootloaderId) + " fw="
+					+ new String(firmwareId));
+		}
+
+		@Override
+		public void handleConnectionLost() {
+			event("< connection lost");
+		}
+
+		@Override
+		public void handleSoftReset() {
+			event("< soft reset");
+			for (int type = 0; type < 3; ++type) {
+				for (int i = 0; i < MODULES_PER_TYPE; ++i) {
+					reset(type, i);
+				}
+			}
+		}
+
+		@Override
+		public void handleCheckInterfaceResponse(boolean supported) {
+			event("< check interface " + (supported ? "supported" : "unsupported"));
+		}
+
+		@Override
+		public void handleSetChangeNotify(int pin, boolean changeNotify) {
+			event("< pin " + pin + " change notify " + changeNotify);
+		}
+
+		@Override
+		public void handleReportDigitalInStatus(int pin, boolean level) {
+			event("< pin " + pin + " level " + level);
+		}
+
+		@Override
+		public void handleRegisterPeriodicDigitalSampling(int pin,
+				int freqScale) {
+			event("< pin " + pin + " periodic sampling scale " + freqScale);
+		}
+
+		@Override
+		public void handleReportPeriodicDigitalInStatus(int frameNum,
+				boolean[] values) {
+			event("< digital frame " + frameNum + " of " + values.length
+					+ " pins");
+		}
+
+		@Override
+		public void handleAnalogPinStatus(int pin, boolean open) {
+			event("< analog pin " + pin + (open ? " open" : " closed"));
+		}
+
+		@Override
+		public void handleReportAnalogInStatus(int[] pins, int[] values) {
+			event("< analog frame of " + pins.length + " pins");
+		}
+
+		@Override
+		public void handleUartOpen(int uartNum) {
+			event("< uart" + uartNum + " open");
+			reset(UART, uartNum);
+		}
+
+		@Override
+		public void handleUartClose(int uartNum) {
+			event("< uart" + uartNum + " close");
+			reset(UART, uartNum);
+		}
+
+		@Override
+		public void handleUartData(int uartNum, int numBytes, byte[] data) {
+			event("< uart" + uartNum + " data " + numBytes + " bytes");
+			countUart(uartNum, 0, numBytes);
+		}
+
+		@Override
+		public void handleUartReportTxStatus(int uartNum, int bytesRemaining) {
+			event("< uart" + uartNum + " tx credit " + bytesRemaining);
+			credit(UART, uartNum, bytesRemaining);
+		}
+
+		@Override
+		public void handleSpiOpen(int spiNum) {
+			event("< spi" + spiNum + " open");
+			reset(SPI, spiNum);
+		}
+
+		@Override
+		public void handleSpiClose(int spiNum) {
+			event("< spi" + spiNum + " close");
+			reset(SPI, spiNum);
+		}
+
+		@Override
+		public void handleSpiData(int spiNum, int ssPin, byte[] data,
+				int dataBytes) {
+			event("< spi" + spiNum + " data " + dataBytes + " bytes");
+		}
+
+		@Override
+		public void handleSpiReportTxStatus(int spiNum, int bytesRemaining) {
+			event("< spi" + spiNum + " tx credit " + bytesRemaining);
+			credit(SPI, spiNum, bytesRemaining);
+		}
+
+		@Override
+		public void handleI2cOpen(int i2cNum) {
+			event("< twi" + i2cNum + " open");
+			reset(TWI, i2cNum);
+		}
+
+		@Override
+		public void handleI2cClose(int i2cNum) {
+			event("< twi" + i2cNum + " close");
+			reset(TWI, i2cNum);
+		}
+
+		@Override
+		public void handleI2cResult(int i2cNum, int size, byte[] data) {
+			event("< twi" + i2cNum + (size == 0xFF ? " failed" : " result "
+					+ size + " bytes"));
+		}
+
+		@Override
+		public void handleI2cReportTxStatus(int i2cNum, int bytesRemaining) {
+			event("< twi" + i2cNum + " tx credit " + bytesRemaining);
+			credit(TWI, i2cNum, bytesRemaining);
+		}
+
+		@Override
+		public void handleIcspOpen() {
+			event("< icsp open");
+		}
+
+		@Override
+		public void handleIcspClose() {
+			event("< icsp close");
+		}
+
+		@Override
+		public void handleIcspReportRxStatus(int bytesRemaining) {
+			event("< icsp rx credit " + bytesRemaining);
+		}
+
+		@Override
+		public void handleIcspResult(int size, byte[] data) {
+			event("< icsp result " + size + " bytes");
+		}
+
+		@Override
+		public void handleIncapReport(int incapNum, int size, byte[] data) {
+			event("< incap" + incapNum + " report " + size + " bytes");
+		}
+
+		@Override
+		public void handleIncapClose(int incapNum) {
+			event("< incap" + incapNum + " close");
+		}
+
+		@Override
+		public void handleIncapOpen(int incapNum) {
+			event("< incap" + incapNum + " open");
+		}
+	}
+}
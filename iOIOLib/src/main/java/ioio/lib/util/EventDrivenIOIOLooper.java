@@ -0,0 +1,244 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.util;
+
+import ioio.lib.api.AnalogFrameListener;
+import ioio.lib.api.AnalogInput;
+import ioio.lib.api.Closeable;
+import ioio.lib.api.DataAvailableListener;
+import ioio.lib.api.DigitalEdgeListener;
+import ioio.lib.api.DigitalInput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.PulseInput;
+import ioio.lib.api.Uart;
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * A {@link BaseIOIOLooper} that only runs when there is something to do,
+ * instead of spinning.
+ * <p>
+ * In {@link #setup()}, subclasses open their resources and subscribe to the
+ * ones whose incoming data should trigger processing. {@link #process(boolean)}
+ * is then called whenever new data has arrived on any of them since the
+ * previous call, or {@link #wake()} was called, or the optional timeout
+ * expired with nothing happening. Wakeups are signaled directly from the
+ * thread reading data from the IOIO, and any number of them arriving during
+ * a call to {@link #process(boolean)} result in a single further call, so the
+ * subclass should drain all available data every time. The first call
+ * happens right after setup.
+ * <p>
+ * While idle, the looper thread wakes up a few times a second just to check
+ * whether the connection is still alive.
+ */
+public abstract class EventDrivenIOIOLooper extends BaseIOIOLooper {
+	private static final long STATE_CHECK_MS = 200;
+	private static final long STATE_CHECK_NANOS = STATE_CHECK_MS * 1000000;
+
+	private final long timeoutNanos_;
+	private final Object lock_ = new Object();
+	// Written with lock_ held, read without it on the fast path of wake().
+	private volatile boolean pending_ = true;
+	// The connection process() last ran on. Only used by the looper thread.
+	private IOIO processed_ = null;
+	// When process() last returned. Only used by the looper thread.
+	private long idleSince_;
+	// Set when run by a shared executor, to reschedule on wake().
+	private volatile Runnable wakeCallback_ = null;
+
+	private final DataAvailableListener dataListener_ = new DataAvailableListener() {
+		@Override
+		public void dataAvailable(Closeable resource) {
+			wake();
+		}
+	};
+
+	private final DigitalEdgeListener edgeListener_ = new DigitalEdgeListener() {
+		@Override
+		public void edgeDetected(DigitalInput input, boolean level,
+				long timestamp) {
+			wake();
+		}
+	};
+
+	/** Constructor for a looper that only runs on events. */
+	protected EventDrivenIOIOLooper() {
+		this(0);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param timeoutMs
+	 *            Longest time to go without a call to
+	 *            {@link #process(boolean)}, or 0 for no timeout.
+	 */
+	protected EventDrivenIOIOLooper(long timeoutMs) {
+		if (timeoutMs < 0) {
+			throw new IllegalArgumentException("Timeout must not be negative");
+		}
+		timeoutNanos_ = timeoutMs * 1000000;
+	}
+
+	/**
+	 * Called when new data is available on a subscribed resource, on
+	 * {@link #wake()} or when the timeout expires. Replaces
+	 * {@link #loop()}.
+	 * 
+	 * @param timedOut
+	 *            True if called because the timeout expired with no event.
+	 * @throws ConnectionLostException
+	 *             The connection to the IOIO has been lost.
+	 * @throws InterruptedException
+	 *             The thread has been interrupted.
+	 */
+	protected abstract void process(boolean timedOut)
+			throws ConnectionLostException, InterruptedException;
+
+	/**
+	 * Runs {@link #process(boolean)} when there is something to process.
+	 */
+	@Override
+	public final void loop() throws ConnectionLostException,
+			InterruptedException {
+		if (ioio_ != processed_) {
+			// First call since setup(), which BaseIOIOLooper does not let us
+			// override: a wakeup left over from the previous connection, or
+			// the lack of one, must not matter.
+			processed_ = ioio_;
+			synchronized (lock_) {
+				pending_ = false;
+			}
+			process(false);
+		} else {
+			process(!awaitEvent());
+		}
+		idleSince_ = System.nanoTime();
+	}
+
+	/**
+	 * Requests a call to {@link #process(boolean)}. May be called from any
+	 * thread, e.g. when the user interface has a new command for the IOIO.
+	 */
+	public final void wake() {
+		if (pending_) {
+			return;
+		}
+		synchronized (lock_) {
+			pending_ = true;
+			lock_.notify();
+		}
+		final Runnable callback = wakeCallback_;
+		if (callback != null) {
+			callback.run();
+		}
+	}
+
+	/**
+	 * Gets how long until {@link #loop()} would run without waiting, so that
+	 * a scheduler can run it later instead. Never longer than the period of
+	 * connection state checks.
+	 */
+	long nanosUntilNextRun() {
+		if (pending_ || ioio_ != processed_) {
+			return 0;
+		}
+		long wait = STATE_CHECK_NANOS;
+		if (timeoutNanos_ != 0) {
+			wait = Math.min(wait, idleSince_ + timeoutNanos_
+					- System.nanoTime());
+		}
+		return Math.max(wait, 0);
+	}
+
+	/**
+	 * Sets a callback to run when {@link #wake()} or a subscribed resource
+	 * makes an event pending.
+	 */
+	void setWakeCallback(Runnable callback) {
+		wakeCallback_ = callback;
+	}
+
+	/** Wakes on every chunk of bytes received by uart. */
+	protected void subscribe(Uart uart) throws ConnectionLostException {
+		uart.addDataAvailableListener(dataListener_);
+	}
+
+	/** Wakes on every measurement of input. */
+	protected void subscribe(PulseInput input) throws ConnectionLostException {
+		input.addDataAvailableListener(dataListener_);
+	}
+
+	/** Wakes on every level change of input. */
+	protected void subscribe(DigitalInput input)
+			throws ConnectionLostException {
+		input.addEdgeListener(edgeListener_);
+	}
+
+	/**
+	 * Wakes on every frame of samples of inputs. See
+	 * {@link IOIO#addAnalogFrameListener(AnalogInput[], AnalogFrameListener)}.
+	 */
+	protected void subscribe(AnalogInput... inputs)
+			throws ConnectionLostException {
+		ioio_.addAnalogFrameListener(inputs, new AnalogFrameListener() {
+			@Override
+			public void frameReceived(int[] values) {
+				wake();
+			}
+		});
+	}
+
+	/**
+	 * Waits for an event or the timeout.
+	 * 
+	 * @return True on event, false on timeout.
+	 */
+	private boolean awaitEvent() throws ConnectionLostException,
+			InterruptedException {
+		synchronized (lock_) {
+			while (!pending_) {
+				if (ioio_.getState() != IOIO.State.CONNECTED) {
+					throw new ConnectionLostException();
+				}
+				long waitMs = STATE_CHECK_MS;
+				if (timeoutNanos_ != 0) {
+					final long remaining = idleSince_ + timeoutNanos_
+							- System.nanoTime();
+					if (remaining <= 0) {
+						return false;
+					}
+					waitMs = Math.min(waitMs, (remaining + 999999) / 1000000);
+				}
+				lock_.wait(waitMs);
+			}
+			pending_ = false;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.util;
+
+import ioio.lib.api.IOIO;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link IOIOLooper} that runs another looper's {@link IOIOLooper#loop()}
+ * at a fixed rate.
+ * <p>
+ * Iterations are scheduled on absolute deadlines (start + n * period), so
+ * the time spent in {@link IOIOLooper#loop()} does not add up to drift, as
+ * it does with a sleep at the top of each iteration. When an iteration
+ * overruns its deadline, the {@link OverrunPolicy} decides how the schedule
+ * recovers.
+ * <p>
+ * The jitter (how far the time between iteration starts is off the period),
+ * the execution time of each iteration and the amount of each overrun are
+ * recorded in {@link Histogram}s, which may be read from any thread. Jitter
+ * is recorded rather than the period itself, as the histogram's power-of-two
+ * buckets are fine near zero but would lump all periods of interest into one
+ * or two buckets. They reflect the current connection only and
+ * are cleared on every {@link #setup(IOIO)}.
+ */
+public class FixedRateIOIOLooper implements IOIOLooper {
+	/** What to do when an iteration ends after the next one was due. */
+	public enum OverrunPolicy {
+		/**
+		 * Drop the iterations that were missed and resume on the next
+		 * deadline still in the future. Keeps the phase.
+		 */
+		SKIP,
+		/**
+		 * Run the missed iterations back to back until the schedule is met
+		 * again. Keeps the number of iterations, unless more than
+		 * {@link FixedRateIOIOLooper#MAX_CATCH_UP} were missed, in which case
+		 * the excess is dropped as with {@link #SKIP}, so that a long stall
+		 * does not turn into a burst of back-to-back iterations.
+		 */
+		CATCH_UP
+	}
+
+	/**
+	 * The largest number of missed iterations run back to back under
+	 * {@link OverrunPolicy#CATCH_UP}.
+	 */
+	public static final int MAX_CATCH_UP = 10;
+
+	private final IOIOLooper looper_;
+	private final long periodNanos_;
+	private final OverrunPolicy policy_;
+
+	private final Histogram jitters_ = new Histogram();
+	private final Histogram executions_ = new Histogram();
+	private final Histogram overruns_ = new Histogram();
+	private volatile long skipped_ = 0;
+
+	// Used by the looper thread only.
+	private boolean started_;
+	private long nextDeadline_;
+	private long lastStart_;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param looper
+	 *            The looper to run. Its loop() should not sleep to pace
+	 *            itself.
+	 * @param period
+	 *            The time between iteration starts.
+	 * @param unit
+	 *            The unit of period.
+	 * @param policy
+	 *            How to recover from overruns.
+	 */
+	public FixedRateIOIOLooper(IOIOLooper looper, long period, TimeUnit unit,
+			OverrunPolicy policy) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("Period must be positive");
+		}
+		looper_ = looper;
+		periodNanos_ = unit.toNanos(period);
+		policy_ = policy;
+	}
+
+	@Override
+	public void setup(IOIO ioio) throws ConnectionLostException,
+			InterruptedException {
+		started_ = false;
+		jitters_.reset();
+		executions_.reset();
+		overruns_.reset();
+		skipped_ = 0;
+		looper_.setup(ioio);
+	}
+
+	@Override
+	public void loop() throws ConnectionLostException, InterruptedException {
+		long now = System.nanoTime();
+		if (!started_) {
+			started_ = true;
+			nextDeadline_ = now;
+		} else {
+			final long remaining = nextDeadline_ - now;
+			if (remaining > 0) {
+				Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+				now = System.nanoTime();
+			}
+			jitters_.record(Math.abs(now - lastStart_ - periodNanos_));
+		}
+		lastStart_ = now;
+		try {
+			looper_.loop();
+		} finally {
+			final long end = System.nanoTime();
+			executions_.record(end - now);
+			nextDeadline_ += periodNanos_;
+			final long overrun = end - nextDeadline_;
+			if (overrun > 0) {
+				overruns_.record(overrun);
+				// Deadlines already passed, including the next one.
+				long drop = overrun / periodNanos_ + 1;
+				if (policy_ == OverrunPolicy.CATCH_UP) {
+					drop = Math.max(0, drop - MAX_CATCH_UP);
+				}
+				nextDeadline_ += drop * periodNanos_;
+				skipped_ += drop;
+			}
+		}
+	}
+
+	@Override
+	public void disconnected() {
+		looper_.disconnected();
+	}
+
+	@Override
+	public void incompatible() {
+		looper_.incompatible();
+	}
+
+	/**
+	 * Gets how long the next {@link #loop()} would sleep before running the
+	 * wrapped looper, so that a scheduler can run it later instead.
+	 */
+	long nanosUntilNextRun() {
+		return started_ ? nextDeadline_ - System.nanoTime() : 0;
+	}
+
+	/** Gets the period in nanoseconds. */
+	public long getPeriodNanos() {
+		return periodNanos_;
+	}
+
+	/**
+	 * Gets the histogram of jitter: the absolute difference between the time
+	 * between consecutive iteration starts and the period. Iterations run back
+	 * to back to catch up count as jitter too.
+	 */
+	public Histogram getJitterHistogram() {
+		return jitters_;
+	}
+
+	/** Gets the histogram of the time spent in each iteration. */
+	public Histogram getExecutionHistogram() {
+		return executions_;
+	}
+
+	/**
+	 * Gets the histogram of overruns: by how much an iteration ended after the
+	 * next one was due. Its count is the number of overruns.
+	 */
+	public Histogram getOverrunHistogram() {
+		return overruns_;
+	}
+
+	/**
+	 * Gets the number of iterations dropped since setup, under
+	 * {@link OverrunPolicy#SKIP} or beyond {@link #MAX_CATCH_UP}.
+	 */
+	public long getSkippedCount() {
+		return skipped_;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.util;
+
+/**
+ * A histogram of durations, with power-of-two microsecond buckets: bucket 0
+ * counts durations under 2us, bucket i durations in [2^i, 2^(i+1)) us, and
+ * the last bucket everything longer. Recording is cheap and allocation-free.
+ * All methods are thread-safe.
+ */
+public class Histogram {
+	/** Number of buckets. The last one is open-ended (about 8s and up). */
+	public static final int NUM_BUCKETS = 24;
+
+	private final long[] buckets_ = new long[NUM_BUCKETS];
+	private long count_ = 0;
+	private long totalNanos_ = 0;
+	private long minNanos_ = Long.MAX_VALUE;
+	private long maxNanos_ = 0;
+
+	/**
+	 * Gets the exclusive upper bound of a bucket.
+	 * 
+	 * @param bucket
+	 *            The bucket index.
+	 * @return The bound in nanoseconds, or {@link Long#MAX_VALUE} for the
+	 *         last bucket.
+	 */
+	public static long getBucketUpperBoundNanos(int bucket) {
+		if (bucket >= NUM_BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		return (2L << bucket) * 1000;
+	}
+
+	/**
+	 * Records a duration.
+	 * 
+	 * @param nanos
+	 *            The duration in nanoseconds. Negative values count as 0.
+	 */
+	public synchronized void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		final long us = nanos / 1000;
+		int bucket = us < 2 ? 0 : 63 - Long.numberOfLeadingZeros(us);
+		if (bucket >= NUM_BUCKETS) {
+			bucket = NUM_BUCKETS - 1;
+		}
+		++buckets_[bucket];
+		++count_;
+		totalNanos_ += nanos;
+		if (nanos < minNanos_) {
+			minNanos_ = nanos;
+		}
+		if (nanos > maxNanos_) {
+			maxNanos_ = nanos;
+		}
+	}
+
+	/** Clears all recorded durations. */
+	public synchronized void reset() {
+		for (int i = 0; i < NUM_BUCKETS; ++i) {
+			buckets_[i] = 0;
+		}
+		count_ = 0;
+		totalNanos_ = 0;
+		minNanos_ = Long.MAX_VALUE;
+		maxNanos_ = 0;
+	}
+
+	/** Gets the number of recorded durations. */
+	public synchronized long getCount() {
+		return count_;
+	}
+
+	/** Gets the shortest recorded duration, in nanoseconds, or 0 if empty. */
+	public synchronized long getMinNanos() {
+		return count_ == 0 ? 0 : minNanos_;
+	}
+
+	/** Gets the longest recorded duration, in nanoseconds. */
+	public synchronized long getMaxNanos() {
+		return maxNanos_;
+	}
+
+	/** Gets the mean duration, in nanoseconds, or 0 if empty. */
+	public synchronized long getMeanNanos() {
+		return count_ == 0 ? 0 : totalNanos_ / count_;
+	}
+
+	/**
+	 * Gets an upper estimate of a percentile: the upper bound of the bucket
+	 * containing it, capped at the longest recorded duration.
+	 * 
+	 * @param percentile
+	 *            The percentile, in the range [0, 100].
+	 * @return The estimate in nanoseconds, or 0 if empty.
+	 */
+	public synchronized long getPercentileNanos(double percentile) {
+		if (count_ == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(count_ * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; ++i) {
+			seen += buckets_[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min(getBucketUpperBoundNanos(i), maxNanos_);
+			}
+		}
+		return maxNanos_;
+	}
+
+	/**
+	 * Gets a copy of the bucket counts.
+	 * 
+	 * @return An array of {@link #NUM_BUCKETS} counts.
+	 */
+	public synchronized long[] getBucketCounts() {
+		final long[] result = new long[NUM_BUCKETS];
+		System.arraycopy(buckets_, 0, result, 0, NUM_BUCKETS);
+		return result;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "count=" + count_ + " minNs=" + getMinNanos() + " meanNs="
+				+ getMeanNanos() + " p99Ns=" + getPercentileNanos(99)
+				+ " maxNs=" + maxNanos_;
+	}
+}
@@ -9,6 +9,10 @@ import ioio.lib.spi.IOIOConnectionFactory;
 
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import android.util.Log;
 
@@ -36,12 +40,15 @@ public class IOIOApplicationHelper {
 		protected IOIO ioio_;
 		private boolean abort_ = false;
 		private boolean connected_ = true;
-		private final IOIOLooper looper_;
+		protected final IOIOLooper looper_;
 		private final IOIOConnectionFactory connectionFactory_;
+		private final long reconnectTimeoutMs_;
 
-		IOIOThread(IOIOLooper looper, IOIOConnectionFactory factory) {
+		IOIOThread(IOIOLooper looper, IOIOConnectionFactory factory,
+				long reconnectTimeoutMs) {
 			looper_ = looper;
 			connectionFactory_ = factory;
+			reconnectTimeoutMs_ = reconnectTimeoutMs;
 		}
 
 		@Override
@@ -53,8 +60,13 @@ public class IOIOApplicationHelper {
 						if (abort_) {
 							break;
 						}
-						ioio_ = IOIOFactory.create(connectionFactory_
-								.createConnection());
+						if (reconnectTimeoutMs_ > 0) {
+							ioio_ = new ReconnectingIOIO(connectionFactory_,
+									reconnectTimeoutMs_);
+						} else {
+							ioio_ = IOIOFactory.create(connectionFactory_
+									.createConnection());
+						}
 					}
 				} catch (Exception e) {
 					Log.e(TAG, "Failed to create IOIO, aborting IOIOThread!");
@@ -64,10 +76,7 @@ public class IOIOApplicationHelper {
 				try {
 					ioio_.waitForConnect();
 					connected_ = true;
-					looper_.setup(ioio_);
-					while (!abort_ && ioio_.getState() == IOIO.State.CONNECTED) {
-						looper_.loop();
-					}
+					runLooper();
 				} catch (ConnectionLostException e) {
 				} catch (InterruptedException e) {
 					ioio_.disconnect();
@@ -97,6 +106,16 @@ public class IOIOApplicationHelper {
 			Log.d(TAG, "IOIOThread is exiting");
 		}
 
+		/**
+		 * Sets up the looper and runs it for as long as connected.
+		 */
+		protected void runLooper() throws Exception {
+			looper_.setup(ioio_);
+			while (!abort_ && ioio_.getState() == IOIO.State.CONNECTED) {
+				looper_.loop();
+			}
+		}
+
 		/** Not relevant to subclasses. */
 		public synchronized final void abort() {
 			abort_ = true;
@@ -109,16 +128,237 @@ public class IOIOApplicationHelper {
 		}
 	}
 
+	/**
+	 * An {@link IOIOThread} that runs the looper on a shared executor instead
+	 * of itself: the thread only connects and waits, while the looper runs as
+	 * a sequence of time slices of loop() calls, each resubmitted behind the
+	 * slices of the other boards so that they take turns.
+	 */
+	static private class IOIOTask extends IOIOThread {
+		private final ScheduledExecutorService executor_;
+		private final long sliceNanos_;
+		private final Runnable slice_ = new Runnable() {
+			@Override
+			public void run() {
+				runSlice();
+			}
+		};
+		// Guarded by this.
+		private boolean active_ = false;
+		private boolean setUp_ = false;
+		private Thread runner_ = null;
+		private ScheduledFuture<?> sleeping_ = null;
+		private Exception error_ = null;
+		private volatile boolean stop_ = false;
+
+		IOIOTask(IOIOLooper looper, IOIOConnectionFactory factory,
+				long reconnectTimeoutMs, ScheduledExecutorService executor,
+				long sliceNanos) {
+			super(looper, factory, reconnectTimeoutMs);
+			executor_ = executor;
+			sliceNanos_ = sliceNanos;
+			if (looper instanceof EventDrivenIOIOLooper) {
+				((EventDrivenIOIOLooper) looper)
+						.setWakeCallback(new Runnable() {
+							@Override
+							public void run() {
+								wakeUp();
+							}
+						});
+			}
+		}
+
+		@Override
+		protected synchronized void runLooper() throws Exception {
+			active_ = true;
+			setUp_ = false;
+			error_ = null;
+			stop_ = false;
+			schedule(0);
+			try {
+				while (active_) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				// Don't let the looper outlive this call.
+				stop_ = true;
+				if (runner_ != null) {
+					runner_.interrupt();
+				}
+				if (sleeping_ != null && sleeping_.cancel(false)) {
+					end(null);
+				}
+				while (active_) {
+					try {
+						wait();
+					} catch (InterruptedException e1) {
+					}
+				}
+				throw e;
+			}
+			if (error_ != null) {
+				throw error_;
+			}
+		}
+
+		private void runSlice() {
+			final boolean setUp;
+			synchronized (this) {
+				sleeping_ = null;
+				if (stop_) {
+					end(null);
+					return;
+				}
+				runner_ = Thread.currentThread();
+				setUp = setUp_;
+				setUp_ = true;
+			}
+			long delayNanos;
+			Exception error = null;
+			try {
+				if (!setUp) {
+					looper_.setup(ioio_);
+				}
+				delayNanos = loop();
+			} catch (Exception e) {
+				delayNanos = -1;
+				error = e;
+			}
+			synchronized (this) {
+				runner_ = null;
+				// Don't leak an abort() interrupt to the next task.
+				Thread.interrupted();
+				if (delayNanos < 0 || stop_) {
+					end(error);
+				} else {
+					if (delayNanos > 0) {
+						// An event may have come in since: wakeUp() can't
+						// see this slice yet.
+						delayNanos = Math.max(nanosUntilNextRun(), 0);
+					}
+					schedule(delayNanos);
+				}
+			}
+		}
+
+		/**
+		 * Calls loop() for up to a time slice.
+		 * 
+		 * @return 0 to yield, how long until the looper is due in
+		 *         nanoseconds, or -1 once disconnected.
+		 */
+		private long loop() throws ConnectionLostException,
+				InterruptedException {
+			final long end = System.nanoTime() + sliceNanos_;
+			do {
+				if (stop_ || ioio_.getState() != IOIO.State.CONNECTED) {
+					return -1;
+				}
+				// Come back when due rather than wait on a worker.
+				final long wait = nanosUntilNextRun();
+				if (wait > 0) {
+					return wait;
+				}
+				looper_.loop();
+			} while (System.nanoTime() - end < 0);
+			return 0;
+		}
+
+		private long nanosUntilNextRun() {
+			if (looper_ instanceof FixedRateIOIOLooper) {
+				return ((FixedRateIOIOLooper) looper_).nanosUntilNextRun();
+			}
+			if (looper_ instanceof EventDrivenIOIOLooper) {
+				return ((EventDrivenIOIOLooper) looper_).nanosUntilNextRun();
+			}
+			return 0;
+		}
+
+		/** Runs a slice sleeping until the looper's timeout right away. */
+		private synchronized void wakeUp() {
+			if (sleeping_ != null && sleeping_.cancel(false)) {
+				schedule(0);
+			}
+		}
+
+		private void schedule(long delayNanos) {
+			try {
+				if (delayNanos == 0) {
+					sleeping_ = null;
+					executor_.execute(slice_);
+				} else {
+					sleeping_ = executor_.schedule(slice_, delayNanos,
+							TimeUnit.NANOSECONDS);
+				}
+			} catch (RejectedExecutionException e) {
+				end(e);
+			}
+		}
+
+		private void end(Exception error) {
+			sleeping_ = null;
+			error_ = error;
+			active_ = false;
+			notifyAll();
+		}
+	}
+
 	protected static final String TAG = "IOIOAndroidApplicationHelper";
 	protected final IOIOLooperProvider looperProvider_;
 	private Collection<IOIOThread> threads_ = new LinkedList<IOIOThread>();
 	protected Collection<IOIOConnectionBootstrap> bootstraps_ = IOIOConnectionRegistry
 			.getBootstraps();
+	private long reconnectTimeoutMs_ = 0;
+	private ScheduledExecutorService executor_ = null;
+	private long sliceNanos_ = 0;
 
 	public IOIOApplicationHelper(IOIOLooperProvider provider) {
 		looperProvider_ = provider;
 	}
 
+	/**
+	 * Makes connections survive drops shorter than the given timeout: the
+	 * looper keeps running and all its resources are reopened when the
+	 * connection is restored. See {@link ReconnectingIOIO} for details.
+	 * Takes effect on the next {@link #start()}.
+	 * 
+	 * @param ms
+	 *            How long to try reconnecting before reporting a
+	 *            disconnection to the looper. 0 (default) disables
+	 *            reconnecting.
+	 */
+	public void setReconnectTimeout(long ms) {
+		reconnectTimeoutMs_ = ms;
+	}
+
+	/**
+	 * Runs the loopers of all IOIOs on a shared executor instead of a thread
+	 * each, so that a process supervising many IOIOs has a predictable number
+	 * of looper threads. Each looper calls {@link IOIOLooper#loop()} for up to
+	 * a time slice, then yields to the others. A {@link FixedRateIOIOLooper} is
+	 * rescheduled when it is due and an {@link EventDrivenIOIOLooper} when it
+	 * has an event or times out, instead of waiting on a worker.
+	 * <p>
+	 * Only the loopers are shared. Each IOIO still has its own mostly idle
+	 * threads: one that connects and waits for disconnection, since
+	 * connecting blocks in the underlying {@link ioio.lib.api.IOIOConnection},
+	 * the protocol's incoming thread and its flow control scheduler, plus two
+	 * more when {@link #setReconnectTimeout(long)} is used. A sleep inside
+	 * {@link IOIOLooper#loop()} holds a worker for its duration, so size the
+	 * executor accordingly. The executor is not shut down by {@link #stop()}.
+	 * Takes effect on the next {@link #start()}.
+	 * 
+	 * @param executor
+	 *            The executor, or null to go back to a thread per IOIO.
+	 * @param timeSliceMs
+	 *            How long a looper may keep a worker before yielding.
+	 */
+	public void setSharedExecutor(ScheduledExecutorService executor,
+			long timeSliceMs) {
+		executor_ = executor;
+		sliceNanos_ = TimeUnit.MILLISECONDS.toNanos(timeSliceMs);
+	}
+
 	protected void abortAllThreads() {
 		for (IOIOThread thread : threads_) {
 			thread.abort();
@@ -138,8 +378,15 @@ public class IOIOApplicationHelper {
 		for (IOIOConnectionFactory factory : factories) {
 			IOIOLooper looper = looperProvider_.createIOIOLooper(
 					factory.getType(), factory.getExtra());
-			if (looper != null) {
-				threads_.add(new IOIOThread(looper, factory));
+			if (looper == null) {
+				continue;
+			}
+			if (executor_ != null) {
+				threads_.add(new IOIOTask(looper, factory, reconnectTimeoutMs_,
+						executor_, sliceNanos_));
+			} else {
+				threads_.add(new IOIOThread(looper, factory,
+						reconnectTimeoutMs_));
 			}
 		}
 	}
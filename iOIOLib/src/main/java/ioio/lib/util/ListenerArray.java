@@ -0,0 +1,87 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.util;
+
+import java.util.Arrays;
+
+/**
+ * A copy-on-write array of listeners. Adding and removing copy the array
+ * under a lock, while {@link #get()} returns the current array without
+ * locking or allocating, so that listeners can be called from a hot path
+ * while others are being added or removed from other threads.
+ * 
+ * @param <L>
+ *            The listener type.
+ */
+public class ListenerArray<L> {
+	private volatile L[] listeners_;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param empty
+	 *            An empty array of the listener type.
+	 */
+	public ListenerArray(L[] empty) {
+		listeners_ = empty;
+	}
+
+	/**
+	 * Gets the current listeners. The returned array must not be modified.
+	 */
+	public L[] get() {
+		return listeners_;
+	}
+
+	/** Adds a listener at the end. */
+	public synchronized void add(L listener) {
+		final L[] old = listeners_;
+		final L[] listeners = Arrays.copyOf(old, old.length + 1);
+		listeners[old.length] = listener;
+		listeners_ = listeners;
+	}
+
+	/**
+	 * Removes the first occurrence of a listener.
+	 * 
+	 * @return Whether the listener was found.
+	 */
+	public synchronized boolean remove(L listener) {
+		final L[] old = listeners_;
+		for (int i = 0; i < old.length; ++i) {
+			if (old[i] == listener) {
+				final L[] listeners = Arrays.copyOf(old, old.length - 1);
+				System.arraycopy(old, i + 1, listeners, i, old.length - i - 1);
+				listeners_ = listeners;
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,1422 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.util;
+
+import ioio.lib.api.AnalogFrameListener;
+import ioio.lib.api.AnalogInput;
+import ioio.lib.api.CallbackStats;
+import ioio.lib.api.Closeable;
+import ioio.lib.api.DataAvailableListener;
+import ioio.lib.api.DigitalEdgeListener;
+import ioio.lib.api.DigitalInput;
+import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.DispatchStats;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOFactory;
+import ioio.lib.api.IcspMaster;
+import ioio.lib.api.OutgoingLaneStats;
+import ioio.lib.api.PulseInput;
+import ioio.lib.api.PulseInput.ClockRate;
+import ioio.lib.api.PulseInput.PulseMode;
+import ioio.lib.api.PwmOutput;
+import ioio.lib.api.SpiMaster;
+import ioio.lib.api.TwiMaster;
+import ioio.lib.api.TwiMaster.Rate;
+import ioio.lib.api.Uart;
+import ioio.lib.api.exception.ConnectionLostException;
+import ioio.lib.api.exception.IncompatibilityException;
+import ioio.lib.spi.IOIOConnectionFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import android.util.Log;
+
+/**
+ * A {@link IOIO} that survives short connection drops.
+ * <p>
+ * Every digital input and output, analog input, PWM output and UART opened
+ * through this instance is recorded along with its spec and last known
+ * settings. When the connection drops, a background thread reconnects,
+ * reopens all of them and rebinds the handles previously returned to the
+ * client, so that client code and its state survive the drop. While
+ * reconnecting, {@link #getState()} keeps reporting
+ * {@link IOIO.State#CONNECTED}, and calls on the handles block until the
+ * resource is back. If the connection is not restored within the reconnect
+ * timeout, the instance gives up and behaves like a disconnected IOIO.
+ * Diagnostic statistics refer to the current connection, and start over on
+ * every reconnect.
+ * <p>
+ * Limitations:
+ * <ul>
+ * <li>Data buffered on the IOIO side of a drop is lost: UART bytes in flight,
+ * buffered samples, queued edges and a batch under way. Outputs are
+ * restored to their last written values.</li>
+ * <li>Pulse inputs, SPI, TWI and ICSP are opened on the current connection as
+ * usual, and are not restored.</li>
+ * <li>{@link #softReset()} closes everything on the IOIO side without the
+ * handles knowing; avoid combining the two.</li>
+ * </ul>
+ */
+public class ReconnectingIOIO implements IOIO {
+	private static final String TAG = "ReconnectingIOIO";
+	private static final long RETRY_DELAY_MS = 200;
+
+	private final IOIOConnectionFactory factory_;
+	private final long reconnectTimeoutMs_;
+	private final Thread thread_;
+	private final Thread watchdog_;
+	// The target of the batch opened by each thread, innermost last.
+	private final ThreadLocal<LinkedList<IOIO>> batchTargets_ = new ThreadLocal<LinkedList<IOIO>>();
+
+	// All guarded by this.
+	private final List<Handle<?>> handles_ = new ArrayList<Handle<?>>();
+	private final List<FrameSubscription> frameSubscriptions_ = new ArrayList<FrameSubscription>();
+	private IOIO connecting_ = null;
+	private Executor dispatchExecutor_ = null;
+	// Null while reconnecting.
+	private IOIO current_ = null;
+	private long lostAtMs_ = 0;
+	private State state_ = State.INIT;
+	private boolean started_ = false;
+	private boolean disconnect_ = false;
+	private boolean terminated_ = false;
+
+	/**
+	 * Constructor. No connection is attempted before
+	 * {@link #waitForConnect()}.
+	 * 
+	 * @param factory
+	 *            Creates the connection, again for every reconnect.
+	 * @param reconnectTimeoutMs
+	 *            How long to keep trying to reconnect after a drop before
+	 *            giving up.
+	 */
+	public ReconnectingIOIO(IOIOConnectionFactory factory,
+			long reconnectTimeoutMs) {
+		factory_ = factory;
+		reconnectTimeoutMs_ = reconnectTimeoutMs;
+		thread_ = new Thread(TAG) {
+			@Override
+			public void run() {
+				supervise();
+			}
+		};
+		watchdog_ = new Thread(TAG + " watchdog") {
+			@Override
+			public void run() {
+				enforceTimeout();
+			}
+		};
+	}
+
+	@Override
+	public void waitForConnect() throws ConnectionLostException,
+			IncompatibilityException {
+		synchronized (this) {
+			if (!started_ && !disconnect_) {
+				started_ = true;
+				thread_.start();
+				watchdog_.start();
+			}
+			try {
+				while (state_ == State.INIT && !terminated_) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ConnectionLostException(e);
+			}
+			if (state_ == State.INCOMPATIBLE) {
+				throw new IncompatibilityException(
+						"IOIO has an incompatible firmware version");
+			}
+			if (state_ != State.CONNECTED) {
+				throw new ConnectionLostException();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void disconnect() {
+		disconnect_ = true;
+		if (connecting_ != null) {
+			connecting_.disconnect();
+		}
+		if (current_ != null) {
+			current_.disconnect();
+		}
+		if (!started_) {
+			state_ = State.DEAD;
+			terminated_ = true;
+		}
+		notifyAll();
+	}
+
+	@Override
+	public synchronized void waitForDisconnect() throws InterruptedException {
+		while (!terminated_) {
+			wait();
+		}
+	}
+
+	@Override
+	public synchronized State getState() {
+		return state_;
+	}
+
+	@Override
+	public void softReset() throws ConnectionLostException {
+		awaitCurrent(null).softReset();
+	}
+
+	@Override
+	public void hardReset() throws ConnectionLostException {
+		awaitCurrent(null).hardReset();
+	}
+
+	@Override
+	public String getImplVersion(VersionType v) throws ConnectionLostException {
+		return awaitCurrent(null).getImplVersion(v);
+	}
+
+	@Override
+	public DigitalInput openDigitalInput(DigitalInput.Spec spec)
+			throws ConnectionLostException {
+		return register(new DigitalInputHandle(spec));
+	}
+
+	@Override
+	public DigitalInput openDigitalInput(int pin)
+			throws ConnectionLostException {
+		return openDigitalInput(new DigitalInput.Spec(pin));
+	}
+
+	@Override
+	public DigitalInput openDigitalInput(int pin, DigitalInput.Spec.Mode mode)
+			throws ConnectionLostException {
+		return openDigitalInput(new DigitalInput.Spec(pin, mode));
+	}
+
+	@Override
+	public DigitalOutput openDigitalOutput(DigitalOutput.Spec spec,
+			boolean startValue) throws ConnectionLostException {
+		return register(new DigitalOutputHandle(spec, startValue));
+	}
+
+	@Override
+	public DigitalOutput openDigitalOutput(int pin,
+			DigitalOutput.Spec.Mode mode, boolean startValue)
+			throws ConnectionLostException {
+		return openDigitalOutput(new DigitalOutput.Spec(pin, mode), startValue);
+	}
+
+	@Override
+	public DigitalOutput openDigitalOutput(int pin, boolean startValue)
+			throws ConnectionLostException {
+		return openDigitalOutput(new DigitalOutput.Spec(pin), startValue);
+	}
+
+	@Override
+	public DigitalOutput openDigitalOutput(int pin)
+			throws ConnectionLostException {
+		return openDigitalOutput(new DigitalOutput.Spec(pin), false);
+	}
+
+	@Override
+	public AnalogInput openAnalogInput(int pin) throws ConnectionLostException {
+		return register(new AnalogInputHandle(pin));
+	}
+
+	@Override
+	public PwmOutput openPwmOutput(DigitalOutput.Spec spec, int freqHz)
+			throws ConnectionLostException {
+		return register(new PwmOutputHandle(spec, freqHz));
+	}
+
+	@Override
+	public PwmOutput openPwmOutput(int pin, int freqHz)
+			throws ConnectionLostException {
+		return openPwmOutput(new DigitalOutput.Spec(pin), freqHz);
+	}
+
+	@Override
+	public PulseInput openPulseInput(DigitalInput.Spec spec, ClockRate rate,
+			PulseMode mode, boolean doublePrecision)
+			throws ConnectionLostException {
+		return awaitCurrent(null).openPulseInput(spec, rate, mode,
+				doublePrecision);
+	}
+
+	@Override
+	public PulseInput openPulseInput(int pin, PulseMode mode)
+			throws ConnectionLostException {
+		return awaitCurrent(null).openPulseInput(pin, mode);
+	}
+
+	@Override
+	public Uart openUart(DigitalInput.Spec rx, DigitalOutput.Spec tx,
+			int baud, Uart.Parity parity, Uart.StopBits stopbits)
+			throws ConnectionLostException {
+		return openUart(rx, tx, baud, parity, stopbits, null);
+	}
+
+	@Override
+	public Uart openUart(DigitalInput.Spec rx, DigitalOutput.Spec tx,
+			int baud, Uart.Parity parity, Uart.StopBits stopbits,
+			Uart.BufferSpec buffer) throws ConnectionLostException {
+		return register(new UartHandle(rx, tx, baud, parity, stopbits, buffer));
+	}
+
+	@Override
+	public Uart openUart(int rx, int tx, int baud, Uart.Parity parity,
+			Uart.StopBits stopbits) throws ConnectionLostException {
+		return openUart(rx == INVALID_PIN ? null : new DigitalInput.Spec(rx),
+				tx == INVALID_PIN ? null : new DigitalOutput.Spec(tx), baud,
+				parity, stopbits);
+	}
+
+	@Override
+	public SpiMaster openSpiMaster(DigitalInput.Spec miso,
+			DigitalOutput.Spec mosi, DigitalOutput.Spec clk,
+			DigitalOutput.Spec[] slaveSelect, SpiMaster.Config config)
+			throws ConnectionLostException {
+		return awaitCurrent(null).openSpiMaster(miso, mosi, clk, slaveSelect,
+				config);
+	}
+
+	@Override
+	public SpiMaster openSpiMaster(int miso, int mosi, int clk,
+			int[] slaveSelect, SpiMaster.Rate rate)
+			throws ConnectionLostException {
+		return awaitCurrent(null).openSpiMaster(miso, mosi, clk, slaveSelect,
+				rate);
+	}
+
+	@Override
+	public SpiMaster openSpiMaster(int miso, int mosi, int clk,
+			int slaveSelect, SpiMaster.Rate rate)
+			throws ConnectionLostException {
+		return awaitCurrent(null).openSpiMaster(miso, mosi, clk, slaveSelect,
+				rate);
+	}
+
+	@Override
+	public TwiMaster openTwiMaster(int twiNum, Rate rate, boolean smbus)
+			throws ConnectionLostException {
+		return awaitCurrent(null).openTwiMaster(twiNum, rate, smbus);
+	}
+
+	@Override
+	public IcspMaster openIcspMaster() throws ConnectionLostException {
+		return awaitCurrent(null).openIcspMaster();
+	}
+
+	@Override
+	public void addAnalogFrameListener(AnalogInput[] inputs,
+			AnalogFrameListener listener) throws ConnectionLostException {
+		final AnalogInputHandle[] handles = new AnalogInputHandle[inputs.length];
+		for (int i = 0; i < inputs.length; ++i) {
+			if (!(inputs[i] instanceof AnalogInputHandle)) {
+				throw new IllegalArgumentException(
+						"Input was not opened on this IOIO: " + inputs[i]);
+			}
+			handles[i] = (AnalogInputHandle) inputs[i];
+		}
+		final FrameSubscription subscription = new FrameSubscription(handles,
+				listener);
+		synchronized (this) {
+			IOIO ioio = null;
+			while (true) {
+				ioio = awaitCurrent(ioio);
+				try {
+					subscription.apply(ioio);
+					frameSubscriptions_.add(subscription);
+					return;
+				} catch (ConnectionLostException e) {
+				}
+			}
+		}
+	}
+
+	@Override
+	public void removeAnalogFrameListener(AnalogFrameListener listener) {
+		IOIO ioio;
+		synchronized (this) {
+			for (int i = 0; i < frameSubscriptions_.size(); ++i) {
+				if (frameSubscriptions_.get(i).listener_ == listener) {
+					frameSubscriptions_.remove(i);
+					break;
+				}
+			}
+			ioio = current_;
+		}
+		if (ioio != null) {
+			ioio.removeAnalogFrameListener(listener);
+		}
+	}
+
+	@Override
+	public CallbackStats getAnalogFrameListenerStats(
+			AnalogFrameListener listener) {
+		final IOIO ioio;
+		synchronized (this) {
+			ioio = current_;
+		}
+		return ioio == null ? null : ioio.getAnalogFrameListenerStats(listener);
+	}
+
+	@Override
+	public void setDispatchExecutor(Executor executor) {
+		final IOIO ioio;
+		synchronized (this) {
+			dispatchExecutor_ = executor;
+			ioio = current_;
+		}
+		if (ioio != null) {
+			ioio.setDispatchExecutor(executor);
+		}
+	}
+
+	@Override
+	public List<DispatchStats> getDispatchStats() {
+		final IOIO ioio;
+		synchronized (this) {
+			ioio = current_;
+		}
+		return ioio == null ? Collections.<DispatchStats> emptyList() : ioio
+				.getDispatchStats();
+	}
+
+	@Override
+	public OutgoingLaneStats getOutgoingLaneStats(OutgoingLaneStats.Lane lane) {
+		final IOIO ioio;
+		synchronized (this) {
+			ioio = current_;
+		}
+		return ioio == null ? new OutgoingLaneStats(lane, 0, 0, 0) : ioio
+				.getOutgoingLaneStats(lane);
+	}
+
+	@Override
+	public void beginBatch() throws ConnectionLostException {
+		final IOIO ioio = awaitCurrent(null);
+		ioio.beginBatch();
+		LinkedList<IOIO> targets = batchTargets_.get();
+		if (targets == null) {
+			targets = new LinkedList<IOIO>();
+			batchTargets_.set(targets);
+		}
+		targets.addLast(ioio);
+	}
+
+	@Override
+	public void endBatch() throws ConnectionLostException {
+		final LinkedList<IOIO> targets = batchTargets_.get();
+		if (targets == null || targets.isEmpty()) {
+			throw new IllegalStateException("endBatch() without beginBatch()");
+		}
+		try {
+			targets.removeLast().endBatch();
+		} catch (ConnectionLostException e) {
+			// The batch went down with the connection. Outputs are restored
+			// to their last written values on reconnect.
+		}
+	}
+
+	private synchronized <H extends Handle<?>> H register(H handle)
+			throws ConnectionLostException {
+		IOIO ioio = null;
+		while (true) {
+			ioio = awaitCurrent(ioio);
+			try {
+				handle.bind(ioio);
+				handles_.add(handle);
+				return handle;
+			} catch (ConnectionLostException e) {
+				// Wait for the next connection.
+			}
+		}
+	}
+
+	/**
+	 * Waits for a live connection other than stale, for at most the
+	 * reconnect timeout.
+	 */
+	private synchronized IOIO awaitCurrent(IOIO stale)
+			throws ConnectionLostException {
+		final long start = System.currentTimeMillis();
+		while (true) {
+			checkState();
+			if (current_ != null && current_ != stale) {
+				return current_;
+			}
+			awaitChange(start);
+		}
+	}
+
+	/**
+	 * Waits for handle to be bound to a live resource other than stale, for
+	 * at most the reconnect timeout.
+	 */
+	private synchronized <T extends Closeable> T awaitTarget(Handle<T> handle,
+			T stale) throws ConnectionLostException {
+		final long start = System.currentTimeMillis();
+		while (true) {
+			if (handle.closed_) {
+				throw new IllegalStateException(
+						"Trying to use a closed resource");
+			}
+			checkState();
+			if (handle.failed_) {
+				throw new ConnectionLostException();
+			}
+			if (current_ != null && handle.target_ != stale) {
+				return handle.target_;
+			}
+			awaitChange(start);
+		}
+	}
+
+	private void checkState() throws ConnectionLostException {
+		if (state_ == State.DEAD) {
+			throw new ConnectionLostException();
+		}
+		if (state_ == State.INCOMPATIBLE) {
+			throw new IllegalStateException(
+					"Incompatibility has been reported - IOIO cannot be used");
+		}
+		if (state_ != State.CONNECTED) {
+			throw new IllegalStateException(
+					"Connection has not yet been established");
+		}
+	}
+
+	/**
+	 * Waits for the next change of connection, giving up once the reconnect
+	 * timeout is exceeded. Must be called with the monitor held.
+	 * 
+	 * @param start
+	 *            When the caller started waiting. While the connection is
+	 *            still considered live, the timeout counts from there, else
+	 *            from the moment the connection was lost.
+	 */
+	private void awaitChange(long start) throws ConnectionLostException {
+		final long deadline = (current_ == null ? lostAtMs_ : start)
+				+ reconnectTimeoutMs_;
+		final long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0) {
+			giveUp();
+			throw new ConnectionLostException();
+		}
+		try {
+			wait(remaining);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionLostException(e);
+		}
+	}
+
+	/**
+	 * Gives up on a connection that has not been restored within the reconnect
+	 * timeout, whether or not anyone is waiting for it.
+	 */
+	private synchronized void enforceTimeout() {
+		try {
+			while (!terminated_ && state_ != State.DEAD) {
+				if (state_ != State.CONNECTED || current_ != null) {
+					wait();
+					continue;
+				}
+				final long remaining = lostAtMs_ + reconnectTimeoutMs_
+						- System.currentTimeMillis();
+				if (remaining <= 0) {
+					giveUp();
+				} else {
+					wait(remaining);
+				}
+			}
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/** Must be called with the monitor held. */
+	private void giveUp() {
+		Log.w(TAG, "Reconnect timed out, giving up");
+		state_ = State.DEAD;
+		disconnect();
+	}
+
+	private void supervise() {
+		while (true) {
+			IOIO ioio;
+			synchronized (this) {
+				if (disconnect_) {
+					break;
+				}
+				try {
+					ioio = IOIOFactory.create(factory_.createConnection());
+				} catch (Exception e) {
+					Log.e(TAG, "Failed to create IOIO", e);
+					break;
+				}
+				connecting_ = ioio;
+			}
+			boolean incompatible = false;
+			boolean connected = false;
+			try {
+				ioio.waitForConnect();
+				connected = true;
+				// Still reachable by disconnect() through connecting_.
+				restore(ioio);
+				synchronized (this) {
+					connecting_ = null;
+					if (!disconnect_) {
+						if (state_ == State.CONNECTED) {
+							Log.i(TAG, "Reconnected");
+						}
+						current_ = ioio;
+						state_ = State.CONNECTED;
+						notifyAll();
+					}
+				}
+			} catch (ConnectionLostException e) {
+			} catch (IncompatibilityException e) {
+				Log.e(TAG, "Incompatible IOIO firmware", e);
+				incompatible = true;
+				synchronized (this) {
+					state_ = State.INCOMPATIBLE;
+					notifyAll();
+				}
+			}
+			try {
+				ioio.waitForDisconnect();
+			} catch (InterruptedException e) {
+				ioio.disconnect();
+			}
+			synchronized (this) {
+				connecting_ = null;
+				if (current_ == ioio) {
+					Log.i(TAG, "Connection lost, reconnecting");
+					current_ = null;
+					lostAtMs_ = System.currentTimeMillis();
+				}
+				notifyAll();
+			}
+			if (incompatible) {
+				break;
+			}
+			if (!connected) {
+				synchronized (this) {
+					try {
+						if (!disconnect_) {
+							wait(RETRY_DELAY_MS);
+						}
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+		}
+		synchronized (this) {
+			state_ = State.DEAD;
+			current_ = null;
+			terminated_ = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Reopens all resources on ioio. Called without the monitor, so that
+	 * clients are not blocked for the whole replay: they wait for current_ to
+	 * be set anyway. Changes made meanwhile are reconciled at the end.
+	 */
+	private void restore(IOIO ioio) throws ConnectionLostException {
+		final List<Handle<?>> handles;
+		final List<FrameSubscription> subscriptions;
+		final Executor executor;
+		synchronized (this) {
+			if (disconnect_) {
+				return;
+			}
+			handles = new ArrayList<Handle<?>>(handles_);
+			subscriptions = new ArrayList<FrameSubscription>(
+					frameSubscriptions_);
+			executor = dispatchExecutor_;
+		}
+		if (executor != null) {
+			ioio.setDispatchExecutor(executor);
+		}
+		for (Handle<?> handle : handles) {
+			try {
+				handle.bind(ioio);
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Failed to restore " + handle, e);
+				synchronized (this) {
+					handle.failed_ = true;
+				}
+			}
+		}
+		for (FrameSubscription subscription : subscriptions) {
+			subscription.apply(ioio);
+		}
+		synchronized (this) {
+			if (dispatchExecutor_ != executor) {
+				ioio.setDispatchExecutor(dispatchExecutor_);
+			}
+			for (FrameSubscription subscription : subscriptions) {
+				if (!frameSubscriptions_.contains(subscription)) {
+					ioio.removeAnalogFrameListener(subscription.listener_);
+				}
+			}
+		}
+	}
+
+	private class FrameSubscription {
+		final AnalogInputHandle[] inputs_;
+		final AnalogFrameListener listener_;
+
+		FrameSubscription(AnalogInputHandle[] inputs,
+				AnalogFrameListener listener) {
+			inputs_ = inputs;
+			listener_ = listener;
+		}
+
+		void apply(IOIO ioio) throws ConnectionLostException {
+			final AnalogInput[] targets = new AnalogInput[inputs_.length];
+			synchronized (ReconnectingIOIO.this) {
+				for (int i = 0; i < inputs_.length; ++i) {
+					targets[i] = inputs_[i].target_;
+				}
+			}
+			ioio.addAnalogFrameListener(targets, listener_);
+		}
+	}
+
+	/**
+	 * A resource handle given to the client, bound to a resource on the
+	 * current connection.
+	 */
+	private abstract class Handle<T extends Closeable> implements Closeable {
+		// Guarded by ReconnectingIOIO.this.
+		T target_ = null;
+		boolean closed_ = false;
+		boolean failed_ = false;
+
+		/** Opens the resource on ioio and applies the recorded settings. */
+		abstract T open(IOIO ioio) throws ConnectionLostException;
+
+		void bind(IOIO ioio) throws ConnectionLostException {
+			final T target = open(ioio);
+			synchronized (ReconnectingIOIO.this) {
+				if (!closed_) {
+					target_ = target;
+					failed_ = false;
+					return;
+				}
+			}
+			// Closed while being reopened.
+			target.close();
+		}
+
+		T target() throws ConnectionLostException {
+			return awaitTarget(this, null);
+		}
+
+		/** Waits for the resource that replaces one that was lost. */
+		T replacement(T lost) throws ConnectionLostException {
+			return awaitTarget(this, lost);
+		}
+
+		@Override
+		public void close() {
+			final T target;
+			synchronized (ReconnectingIOIO.this) {
+				if (closed_) {
+					return;
+				}
+				closed_ = true;
+				handles_.remove(this);
+				target = target_;
+				ReconnectingIOIO.this.notifyAll();
+			}
+			if (target != null) {
+				target.close();
+			}
+		}
+	}
+
+	private class DigitalOutputHandle extends Handle<DigitalOutput> implements
+			DigitalOutput {
+		private final DigitalOutput.Spec spec_;
+		private volatile boolean value_;
+
+		DigitalOutputHandle(DigitalOutput.Spec spec, boolean startValue) {
+			spec_ = spec;
+			value_ = startValue;
+		}
+
+		@Override
+		DigitalOutput open(IOIO ioio) throws ConnectionLostException {
+			return ioio.openDigitalOutput(spec_, value_);
+		}
+
+		@Override
+		public void write(boolean val) throws ConnectionLostException {
+			value_ = val;
+			DigitalOutput target = target();
+			while (true) {
+				try {
+					target.write(val);
+					return;
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "DigitalOutput(" + spec_.pin + ")";
+		}
+	}
+
+	private class PwmOutputHandle extends Handle<PwmOutput> implements
+			PwmOutput {
+		private final DigitalOutput.Spec spec_;
+		private final int freqHz_;
+		// The last setting, replayed on reconnect. Guarded by this.
+		private boolean hasSetting_ = false;
+		private boolean isDutyCycle_;
+		private float setting_;
+
+		PwmOutputHandle(DigitalOutput.Spec spec, int freqHz) {
+			spec_ = spec;
+			freqHz_ = freqHz;
+		}
+
+		@Override
+		PwmOutput open(IOIO ioio) throws ConnectionLostException {
+			final PwmOutput pwm = ioio.openPwmOutput(spec_, freqHz_);
+			synchronized (this) {
+				if (hasSetting_) {
+					apply(pwm, isDutyCycle_, setting_);
+				}
+			}
+			return pwm;
+		}
+
+		@Override
+		public void setDutyCycle(float dutyCycle)
+				throws ConnectionLostException {
+			set(true, dutyCycle);
+		}
+
+		@Override
+		public void setPulseWidth(int pulseWidthUs)
+				throws ConnectionLostException {
+			set(false, pulseWidthUs);
+		}
+
+		@Override
+		public void setPulseWidth(float pulseWidthUs)
+				throws ConnectionLostException {
+			set(false, pulseWidthUs);
+		}
+
+		private void set(boolean isDutyCycle, float value)
+				throws ConnectionLostException {
+			synchronized (this) {
+				hasSetting_ = true;
+				isDutyCycle_ = isDutyCycle;
+				setting_ = value;
+			}
+			PwmOutput target = target();
+			while (true) {
+				try {
+					apply(target, isDutyCycle, value);
+					return;
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		private void apply(PwmOutput pwm, boolean isDutyCycle, float value)
+				throws ConnectionLostException {
+			if (isDutyCycle) {
+				pwm.setDutyCycle(value);
+			} else {
+				pwm.setPulseWidth(value);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "PwmOutput(" + spec_.pin + ")";
+		}
+	}
+
+	private class AnalogInputHandle extends Handle<AnalogInput> implements
+			AnalogInput {
+		private final int pin_;
+		private volatile int bufferCapacity_ = 0;
+
+		AnalogInputHandle(int pin) {
+			pin_ = pin;
+		}
+
+		@Override
+		AnalogInput open(IOIO ioio) throws ConnectionLostException {
+			final AnalogInput input = ioio.openAnalogInput(pin_);
+			if (bufferCapacity_ != 0) {
+				input.setBuffer(bufferCapacity_);
+			}
+			return input;
+		}
+
+		@Override
+		public float getVoltage() throws InterruptedException,
+				ConnectionLostException {
+			AnalogInput target = target();
+			while (true) {
+				try {
+					return target.getVoltage();
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public float getReference() {
+			synchronized (ReconnectingIOIO.this) {
+				if (target_ == null) {
+					throw new IllegalStateException(
+							"Trying to use a closed resource");
+				}
+				return target_.getReference();
+			}
+		}
+
+		@Override
+		public float read() throws InterruptedException,
+				ConnectionLostException {
+			AnalogInput target = target();
+			while (true) {
+				try {
+					return target.read();
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public void setBuffer(int capacity) throws ConnectionLostException {
+			bufferCapacity_ = capacity;
+			AnalogInput target = target();
+			while (true) {
+				try {
+					target.setBuffer(capacity);
+					return;
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public int getOverflowCount() throws ConnectionLostException {
+			AnalogInput target = target();
+			while (true) {
+				try {
+					return target.getOverflowCount();
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public int available() throws ConnectionLostException {
+			AnalogInput target = target();
+			while (true) {
+				try {
+					return target.available();
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public float readBuffered() throws InterruptedException,
+				ConnectionLostException {
+			AnalogInput target = target();
+			while (true) {
+				try {
+					return target.readBuffered();
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public float getVoltageBuffered() throws InterruptedException,
+				ConnectionLostException {
+			AnalogInput target = target();
+			while (true) {
+				try {
+					return target.getVoltageBuffered();
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public int readBuffered(float[] dst, int off, int len, BatchInfo info)
+				throws InterruptedException, ConnectionLostException {
+			AnalogInput target = target();
+			while (true) {
+				try {
+					return target.readBuffered(dst, off, len, info);
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public int readBufferedRaw(short[] dst, int off, int len,
+				BatchInfo info) throws InterruptedException,
+				ConnectionLostException {
+			AnalogInput target = target();
+			while (true) {
+				try {
+					return target.readBufferedRaw(dst, off, len, info);
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public float getSampleRate() throws ConnectionLostException {
+			AnalogInput target = target();
+			while (true) {
+				try {
+					return target.getSampleRate();
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "AnalogInput(" + pin_ + ")";
+		}
+	}
+
+	private class DigitalInputHandle extends Handle<DigitalInput> implements
+			DigitalInput {
+		private final DigitalInput.Spec spec_;
+		// Settings replayed on reconnect. Guarded by this.
+		private int edgeQueueCapacity_ = 0;
+		private final List<DigitalEdgeListener> edgeListeners_ = new ArrayList<DigitalEdgeListener>();
+
+		DigitalInputHandle(DigitalInput.Spec spec) {
+			spec_ = spec;
+		}
+
+		@Override
+		DigitalInput open(IOIO ioio) throws ConnectionLostException {
+			final DigitalInput input = ioio.openDigitalInput(spec_);
+			synchronized (this) {
+				if (edgeQueueCapacity_ != 0) {
+					input.setEdgeQueue(edgeQueueCapacity_);
+				}
+				for (DigitalEdgeListener listener : edgeListeners_) {
+					input.addEdgeListener(listener);
+				}
+			}
+			return input;
+		}
+
+		@Override
+		public boolean read() throws InterruptedException,
+				ConnectionLostException {
+			DigitalInput target = target();
+			while (true) {
+				try {
+					return target.read();
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public void waitForValue(boolean value) throws InterruptedException,
+				ConnectionLostException {
+			DigitalInput target = target();
+			while (true) {
+				try {
+					target.waitForValue(value);
+					return;
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public void addEdgeListener(DigitalEdgeListener listener)
+				throws ConnectionLostException {
+			synchronized (this) {
+				edgeListeners_.add(listener);
+			}
+			DigitalInput target = target();
+			while (true) {
+				try {
+					target.addEdgeListener(listener);
+					return;
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public void removeEdgeListener(DigitalEdgeListener listener) {
+			final DigitalInput target;
+			synchronized (this) {
+				edgeListeners_.remove(listener);
+			}
+			synchronized (ReconnectingIOIO.this) {
+				target = target_;
+			}
+			if (target != null) {
+				target.removeEdgeListener(listener);
+			}
+		}
+
+		@Override
+		public void setEdgeQueue(int capacity) throws ConnectionLostException {
+			synchronized (this) {
+				edgeQueueCapacity_ = capacity;
+			}
+			DigitalInput target = target();
+			while (true) {
+				try {
+					target.setEdgeQueue(capacity);
+					return;
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public int availableEdges() throws ConnectionLostException {
+			DigitalInput target = target();
+			while (true) {
+				try {
+					return target.availableEdges();
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public int readEdges(boolean[] levels, long[] timestamps, int off,
+				int len) throws InterruptedException, ConnectionLostException {
+			DigitalInput target = target();
+			while (true) {
+				try {
+					return target.readEdges(levels, timestamps, off, len);
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public int getMissedEdgeCount() throws ConnectionLostException {
+			DigitalInput target = target();
+			while (true) {
+				try {
+					return target.getMissedEdgeCount();
+				} catch (ConnectionLostException e) {
+					target = replacement(target);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "DigitalInput(" + spec_.pin + ")";
+		}
+	}
+
+	private class UartHandle extends Handle<Uart> implements Uart {
+		private final DigitalInput.Spec rx_;
+		private final DigitalOutput.Spec tx_;
+		private final int baud_;
+		private final Uart.Parity parity_;
+		private final Uart.StopBits stopbits_;
+		private final Uart.BufferSpec buffer_;
+		// Null for the default. Written with ReconnectingIOIO.this held.
+		private volatile OutgoingLaneStats.Lane lane_ = null;
+		private final ListenerArray<DataAvailableListener> dataListeners_ = new ListenerArray<DataAvailableListener>(
+				new DataAvailableListener[0]);
+		// Registered on every UART opened, reports this handle as the source.
+		private final DataAvailableListener forwarder_ = new DataAvailableListener() {
+			@Override
+			public void dataAvailable(Closeable resource) {
+				for (DataAvailableListener listener : dataListeners_.get()) {
+					try {
+						listener.dataAvailable(UartHandle.this);
+					} catch (RuntimeException e) {
+						Log.e(TAG, "Data listener failed", e);
+					}
+				}
+			}
+		};
+		private final InputStream in_ = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				Uart target = streamTarget(null);
+				while (true) {
+					try {
+						return target.getInputStream().read();
+					} catch (IOException e) {
+						target = recover(target, e);
+					}
+				}
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				Uart target = streamTarget(null);
+				while (true) {
+					try {
+						return target.getInputStream().read(b, off, len);
+					} catch (IOException e) {
+						target = recover(target, e);
+					}
+				}
+			}
+
+			@Override
+			public int available() throws IOException {
+				return streamTarget(null).getInputStream().available();
+			}
+
+			@Override
+			public void close() throws IOException {
+				UartHandle.this.close();
+			}
+		};
+		private final OutputStream out_ = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				Uart target = streamTarget(null);
+				while (true) {
+					try {
+						target.getOutputStream().write(b);
+						return;
+					} catch (IOException e) {
+						target = recover(target, e);
+					}
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				Uart target = streamTarget(null);
+				while (true) {
+					try {
+						target.getOutputStream().write(b, off, len);
+						return;
+					} catch (IOException e) {
+						target = recover(target, e);
+					}
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				Uart target = streamTarget(null);
+				while (true) {
+					try {
+						target.getOutputStream().flush();
+						return;
+					} catch (IOException e) {
+						target = recover(target, e);
+					}
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				UartHandle.this.close();
+			}
+		};
+
+		UartHandle(DigitalInput.Spec rx, DigitalOutput.Spec tx, int baud,
+				Uart.Parity parity, Uart.StopBits stopbits,
+				Uart.BufferSpec buffer) {
+			rx_ = rx;
+			tx_ = tx;
+			baud_ = baud;
+			parity_ = parity;
+			stopbits_ = stopbits;
+			buffer_ = buffer;
+		}
+
+		@Override
+		Uart open(IOIO ioio) throws ConnectionLostException {
+			final Uart uart;
+			if (buffer_ == null) {
+				uart = ioio.openUart(rx_, tx_, baud_, parity_, stopbits_);
+			} else {
+				uart = ioio.openUart(rx_, tx_, baud_, parity_, stopbits_,
+						buffer_);
+			}
+			uart.addDataAvailableListener(forwarder_);
+			if (lane_ != null) {
+				uart.setOutgoingLane(lane_);
+			}
+			return uart;
+		}
+
+		/**
+		 * The UART to use for stream access: the current one, or the
+		 * replacement of lost. Stream failures are reported as IOException.
+		 */
+		private Uart streamTarget(Uart lost) throws IOException {
+			try {
+				return lost == null ? target() : replacement(lost);
+			} catch (ConnectionLostException e) {
+				throw new IOException("Connection lost");
+			} catch (IllegalStateException e) {
+				throw new IOException("Stream has been closed");
+			}
+		}
+
+		/**
+		 * Handles a stream failure of lost: returns its replacement if the
+		 * failure was caused by the connection dropping, else rethrows.
+		 */
+		private Uart recover(Uart lost, IOException e) throws IOException {
+			if (e instanceof InterruptedIOException) {
+				throw e;
+			}
+			synchronized (ReconnectingIOIO.this) {
+				if (target_ == lost && current_ != null
+						&& current_.getState() == State.CONNECTED) {
+					// The connection is fine, so the failure is genuine.
+					throw e;
+				}
+			}
+			return streamTarget(lost);
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return in_;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return out_;
+		}
+
+		@Override
+		public void addDataAvailableListener(
+				DataAvailableListener listener) {
+			dataListeners_.add(listener);
+		}
+
+		@Override
+		public void removeDataAvailableListener(
+				DataAvailableListener listener) {
+			dataListeners_.remove(listener);
+		}
+
+		@Override
+		public void setOutgoingLane(OutgoingLaneStats.Lane lane) {
+			synchronized (ReconnectingIOIO.this) {
+				lane_ = lane;
+				if (target_ != null) {
+					target_.setOutgoingLane(lane);
+				}
+			}
+		}
+
+		@Override
+		public long getOverflowCount() {
+			synchronized (ReconnectingIOIO.this) {
+				return target_ == null ? 0 : target_.getOverflowCount();
+			}
+		}
+
+		@Override
+		public int getHighWatermark() {
+			synchronized (ReconnectingIOIO.this) {
+				return target_ == null ? 0 : target_.getHighWatermark();
+			}
+		}
+
+		@Override
+		public int getBufferCapacity() {
+			synchronized (ReconnectingIOIO.this) {
+				return target_ == null ? 0 : target_.getBufferCapacity();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Uart(" + (rx_ == null ? INVALID_PIN : rx_.pin) + ", "
+					+ (tx_ == null ? INVALID_PIN : tx_.pin) + ")";
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import ioio.lib.api.AnalogInput;
+import ioio.lib.api.DigitalInput;
+import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOFactory;
+import ioio.lib.api.IcspMaster;
+import ioio.lib.api.OutgoingLaneStats;
+import ioio.lib.api.PulseInput;
+import ioio.lib.api.SpiMaster;
+import ioio.lib.api.TwiMaster;
+import ioio.lib.api.Uart;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * End-to-end tests of the library against {@link IOIOEmulator}.
+ */
+public class EmulatorTest {
+	private static final long TIMEOUT_MS = 10000;
+
+	private IOIOEmulator emulator_;
+	private IOIO ioio_;
+
+	@Before
+	public void setUp() throws Exception {
+		final EmulatorIOIOConnection connection = new EmulatorIOIOConnection();
+		emulator_ = connection.getEmulator();
+		ioio_ = IOIOFactory.create(connection);
+		ioio_.waitForConnect();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ioio_.disconnect();
+		ioio_.waitForDisconnect();
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void digitalOutputIsApplied() throws Exception {
+		final DigitalOutput out = ioio_.openDigitalOutput(0, true);
+		out.write(false);
+		// A subsequent round trip guarantees the write has been processed.
+		ioio_.openDigitalInput(1).read();
+		assertFalse(emulator_.getDigitalOutput(0));
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void digitalInputFollowsLevel() throws Exception {
+		final DigitalInput in = ioio_.openDigitalInput(3);
+		assertFalse(in.read());
+		emulator_.setDigitalInput(3, true);
+		in.waitForValue(true);
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void analogInputReadsValue() throws Exception {
+		emulator_.setAnalogInput(40, 512);
+		final AnalogInput in = ioio_.openAnalogInput(40);
+		assertEquals(512f / 1023, in.read(), 0.001);
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void uartEchoesData() throws Exception {
+		final Uart uart = ioio_.openUart(6, 7, 115200, Uart.Parity.NONE,
+				Uart.StopBits.ONE);
+		final byte[] sent = new byte[1000];
+		for (int i = 0; i < sent.length; ++i) {
+			sent[i] = (byte) (i * 13);
+		}
+		uart.getOutputStream().write(sent);
+		final byte[] received = new byte[sent.length];
+		final InputStream in = uart.getInputStream();
+		int size = 0;
+		while (size < received.length) {
+			size += in.read(received, size, received.length - size);
+		}
+		assertArrayEquals(sent, received);
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void closedResourcesLeaveDispatchStats() throws Exception {
+		ioio_.setDispatchExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+		final Uart uart = ioio_.openUart(6, 7, 115200, Uart.Parity.NONE,
+				Uart.StopBits.ONE);
+		assertEquals(1, ioio_.getDispatchStats().size());
+		uart.close();
+		ioio_.setDispatchExecutor(null);
+		// A subsequent round trip guarantees the close has been processed.
+		ioio_.openDigitalInput(1).read();
+		assertTrue(ioio_.getDispatchStats().isEmpty());
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void uartCountsOutgoingLane() throws Exception {
+		final Uart uart = ioio_.openUart(6, 7, 115200, Uart.Parity.NONE,
+				Uart.StopBits.ONE);
+		// Small writes are sent directly while credits are available.
+		uart.getOutputStream().write(new byte[4]);
+		uart.getOutputStream().flush();
+		assertTrue(ioio_.getOutgoingLaneStats(
+				OutgoingLaneStats.Lane.CONTROL).packets > 0);
+		uart.setOutgoingLane(OutgoingLaneStats.Lane.BULK);
+		uart.getOutputStream().write(new byte[4]);
+		uart.getOutputStream().flush();
+		assertTrue(ioio_.getOutgoingLaneStats(
+				OutgoingLaneStats.Lane.BULK).packets > 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void uartRejectsOversizedBuffer() throws Exception {
+		ioio_.openUart(new DigitalInput.Spec(6), new DigitalOutput.Spec(7),
+				115200, Uart.Parity.NONE, Uart.StopBits.ONE,
+				new Uart.BufferSpec(1024, Uart.OverflowPolicy.GROW,
+						Integer.MAX_VALUE));
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void spiLoopsBack() throws Exception {
+		final SpiMaster spi = ioio_.openSpiMaster(10, 11, 12, 13,
+				SpiMaster.Rate.RATE_1M);
+		final byte[] sent = { 1, 2, 3, 4 };
+		final byte[] received = new byte[4];
+		spi.writeRead(sent, 4, 4, received, 4);
+		assertArrayEquals(sent, received);
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void spiTransferSpansFragments() throws Exception {
+		final SpiMaster.Config config = new SpiMaster.Config(
+				SpiMaster.Rate.RATE_1M);
+		config.toleratesDeselect = true;
+		final SpiMaster spi = ioio_.openSpiMaster(new DigitalInput.Spec(10),
+				new DigitalOutput.Spec(11), new DigitalOutput.Spec(12),
+				new DigitalOutput.Spec[] { new DigitalOutput.Spec(13) },
+				config);
+		final byte[] sent = new byte[1000];
+		for (int i = 0; i < sent.length; ++i) {
+			sent[i] = (byte) (i * 7);
+		}
+		final byte[] received = new byte[sent.length];
+		spi.transfer(0, sent, sent.length, sent.length, received,
+				received.length);
+		assertArrayEquals(sent, received);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void spiLongTransferRequiresOptIn() throws Exception {
+		final SpiMaster spi = ioio_.openSpiMaster(10, 11, 12, 13,
+				SpiMaster.Rate.RATE_1M);
+		spi.transfer(0, new byte[65], 65, 65, null, 0);
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void twiBatchCompletes() throws Exception {
+		emulator_.setTwiDevice(0, 0x19, new IOIOEmulator.TwiDevice() {
+			@Override
+			public boolean writeRead(byte[] writeData, int writeSize,
+					byte[] readData, int readSize) {
+				for (int i = 0; i < readSize; ++i) {
+					readData[i] = (byte) (writeData[0] + i);
+				}
+				return true;
+			}
+		});
+		final TwiMaster twi = ioio_.openTwiMaster(0,
+				TwiMaster.Rate.RATE_100KHz, false);
+		final TwiMaster.Batch batch = twi.createBatch(21);
+		final byte[][] responses = new byte[20][2];
+		for (int i = 0; i < 20; ++i) {
+			batch.add(0x19, false, new byte[] { (byte) i }, 1, responses[i], 2);
+		}
+		final int nacked = batch.add(0x20, false, new byte[] { 0 }, 1,
+				new byte[2], 2);
+		twi.submitBatch(batch, null);
+		assertFalse(batch.waitReady());
+		for (int i = 0; i < 20; ++i) {
+			assertTrue(batch.succeeded(i));
+			assertEquals(i + 1, responses[i][1]);
+		}
+		assertFalse(batch.succeeded(nacked));
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void twiBatchRecoversFromFailedSubmit() throws Exception {
+		emulator_.setTwiDevice(0, 0x19, new IOIOEmulator.TwiDevice() {
+			@Override
+			public boolean writeRead(byte[] writeData, int writeSize,
+					byte[] readData, int readSize) {
+				readData[0] = writeData[0];
+				return true;
+			}
+		});
+		final TwiMaster twi = ioio_.openTwiMaster(0,
+				TwiMaster.Rate.RATE_100KHz, false);
+		// Outgrows the outgoing queue, where the interrupt makes it fail.
+		final TwiMaster.Batch batch = twi.createBatch(1000);
+		for (int i = 0; i < 1000; ++i) {
+			batch.add(0x19, false, new byte[] { 1 }, 1, new byte[1], 1);
+		}
+		Thread.currentThread().interrupt();
+		try {
+			twi.submitBatch(batch, null);
+			fail("Submitted while interrupted");
+		} catch (ConnectionLostException e) {
+		}
+		assertFalse(batch.waitReady());
+		assertFalse(batch.succeeded(999));
+		// Responses are still matched to their requests.
+		final byte[] response = new byte[1];
+		assertTrue(twi.writeRead(0x19, false, new byte[] { 7 }, 1, response,
+				1));
+		assertEquals(7, response[0]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void twiRejectsForeignBatch() throws Exception {
+		final TwiMaster twi0 = ioio_.openTwiMaster(0,
+				TwiMaster.Rate.RATE_100KHz, false);
+		final TwiMaster twi1 = ioio_.openTwiMaster(1,
+				TwiMaster.Rate.RATE_100KHz, false);
+		twi1.submitBatch(twi0.createBatch(1), null);
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void twiRejectsInvalidNumber() throws Exception {
+		// 1 << 32 == 1 << 0: must not claim TWI 0.
+		try {
+			ioio_.openTwiMaster(32, TwiMaster.Rate.RATE_100KHz, false);
+			fail("Opened TWI 32");
+		} catch (IllegalArgumentException e) {
+		}
+		ioio_.openTwiMaster(0, TwiMaster.Rate.RATE_100KHz, false).close();
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void pulsesAreDrained() throws Exception {
+		emulator_.setPulseDuration(5, 1000);
+		final PulseInput pulse = ioio_.openPulseInput(new DigitalInput.Spec(
+				5), PulseInput.ClockRate.RATE_16MHz,
+				PulseInput.PulseMode.POSITIVE, false);
+		final long[] raw = new long[16];
+		int drained = 0;
+		while (drained < 10) {
+			final int count = pulse.drainRaw(raw);
+			for (int i = 0; i < count; ++i) {
+				assertEquals(1000, raw[i]);
+			}
+			drained += count;
+		}
+		assertEquals(0, pulse.drainRaw(new long[0]));
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void emptyDrainDoesNotBlock() throws Exception {
+		final PulseInput pulse = ioio_.openPulseInput(5,
+				PulseInput.PulseMode.POSITIVE);
+		assertEquals(0, pulse.drainPulses(new float[0]));
+		assertEquals(0, pulse.drainRaw(new long[0]));
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void icspSequenceReturnsVisi() throws Exception {
+		final IcspMaster icsp = ioio_.openIcspMaster();
+		icsp.enterProgramming();
+		final int[] sequence = new int[200];
+		for (int i = 0; i < sequence.length; i += 2) {
+			sequence[i] = 0x880000 | i;
+			sequence[i + 1] = IcspMaster.READ_VISI;
+		}
+		icsp.executeSequence(sequence, 0, sequence.length);
+		final int[] results = new int[sequence.length / 2];
+		icsp.waitVisiResults(results, 0, results.length);
+		for (int i = 0; i < results.length; ++i) {
+			assertEquals(2 * i, results[i]);
+		}
+		icsp.exitProgramming();
+	}
+}
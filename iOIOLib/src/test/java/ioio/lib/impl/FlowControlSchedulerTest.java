@@ -0,0 +1,122 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import ioio.lib.api.OutgoingLaneStats;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link FlowControlScheduler}.
+ */
+public class FlowControlSchedulerTest {
+	private static final long TIMEOUT_MS = 10000;
+
+	@Test(timeout = TIMEOUT_MS)
+	public void closeAfterShutdownStopsThread() throws Exception {
+		final FlowControlScheduler scheduler = new FlowControlScheduler();
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final int[] pumped = { 0 };
+		final FlowControlScheduler.Pump blocking = new FlowControlScheduler.Pump() {
+			@Override
+			public boolean pump() {
+				running.countDown();
+				// Swallows the interrupt of shutdown().
+				while (true) {
+					try {
+						release.await();
+						return false;
+					} catch (InterruptedException e) {
+					}
+				}
+			}
+		};
+		final FlowControlScheduler.Pump counting = new FlowControlScheduler.Pump() {
+			@Override
+			public boolean pump() {
+				++pumped[0];
+				return false;
+			}
+		};
+		// Register from a non-daemon thread, whose status the scheduler
+		// thread would otherwise inherit.
+		final FlowControlScheduler.Channel[] busy = { null };
+		final Thread registrar = new Thread() {
+			@Override
+			public void run() {
+				busy[0] = scheduler.register(blocking,
+						OutgoingLaneStats.Lane.BULK);
+			}
+		};
+		registrar.setDaemon(false);
+		registrar.start();
+		registrar.join();
+		final FlowControlScheduler.Channel queued = scheduler.register(
+				counting, OutgoingLaneStats.Lane.BULK);
+		final Thread thread = findSchedulerThread();
+		assertTrue(thread.isDaemon());
+		final Throwable[] crash = { null };
+		thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread t, Throwable e) {
+				crash[0] = e;
+			}
+		});
+
+		busy[0].schedule();
+		running.await();
+		queued.schedule();
+		scheduler.shutdown();
+		queued.close();
+		release.countDown();
+		thread.join();
+		assertNull(crash[0]);
+		assertEquals(0, pumped[0]);
+		// Neither may restart anything.
+		queued.schedule();
+		busy[0].close();
+		assertEquals(0, pumped[0]);
+	}
+
+	private static Thread findSchedulerThread() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread instanceof FlowControlScheduler.SchedulerThread
+					&& thread.isAlive()) {
+				return thread;
+			}
+		}
+		throw new AssertionError("No scheduler thread");
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOFactory;
+import ioio.lib.spi.IOIOConnectionFactory;
+import ioio.lib.util.IOIOConnectionRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link LoopbackIOIOConnection} and its bootstrap.
+ */
+public class LoopbackIOIOConnectionTest {
+	private static final long TIMEOUT_MS = 10000;
+
+	@Test(timeout = TIMEOUT_MS)
+	public void interruptedReadKeepsStatus() throws Exception {
+		final LoopbackIOIOConnection connection = new LoopbackIOIOConnection();
+		final InputStream in = connection.getInputStream();
+		Thread.currentThread().interrupt();
+		try {
+			in.read();
+			fail("Read returned");
+		} catch (IOException e) {
+			assertTrue(Thread.interrupted());
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void selectableThroughRegistry() throws Exception {
+		final IOIOEmulator[] emulator = new IOIOEmulator[1];
+		LoopbackIOIOConnectionBootstrap
+				.setPeer(new LoopbackIOIOConnectionBootstrap.Peer() {
+					@Override
+					public void connectionCreated(
+							LoopbackIOIOConnection connection) {
+						emulator[0] = new IOIOEmulator(connection
+								.getPeerInputStream(), connection
+								.getPeerOutputStream());
+						emulator[0].start();
+					}
+				});
+		IOIOConnectionRegistry
+				.addBootstraps(new String[] { "ioio.lib.impl.LoopbackIOIOConnectionBootstrap" });
+		IOIOConnectionFactory factory = null;
+		for (IOIOConnectionFactory f : IOIOConnectionRegistry
+				.getConnectionFactories()) {
+			if (f.getType().equals(
+					LoopbackIOIOConnection.class.getCanonicalName())) {
+				factory = f;
+			}
+		}
+		assertNotNull(factory);
+		final IOIO ioio = IOIOFactory.create(factory.createConnection());
+		try {
+			ioio.waitForConnect();
+			assertEquals(IOIO.State.CONNECTED, ioio.getState());
+		} finally {
+			ioio.disconnect();
+			ioio.waitForDisconnect();
+			emulator[0].stop();
+			LoopbackIOIOConnectionBootstrap.setPeer(null);
+		}
+	}
+}
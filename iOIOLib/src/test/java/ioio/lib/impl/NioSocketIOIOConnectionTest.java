@@ -0,0 +1,239 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link NioSocketIOIOConnection} against a plain client socket
+ * playing the IOIO.
+ */
+public class NioSocketIOIOConnectionTest {
+	private static final long TIMEOUT_MS = 10000;
+
+	private NioSocketIOIOConnection connection_;
+	private Socket peer_;
+
+	@Before
+	public void setUp() throws Exception {
+		final int port = freePort();
+		connection_ = new NioSocketIOIOConnection(port);
+		peer_ = connect(connection_, port);
+	}
+
+	private static int freePort() throws IOException {
+		final ServerSocket probe = new ServerSocket(0);
+		final int port = probe.getLocalPort();
+		probe.close();
+		return port;
+	}
+
+	/** Connects a peer to connection, which listens on port. */
+	private static Socket connect(final NioSocketIOIOConnection connection,
+			int port) throws Exception {
+		final Exception[] error = new Exception[1];
+		final Thread connector = new Thread() {
+			@Override
+			public void run() {
+				try {
+					connection.waitForConnect();
+				} catch (Exception e) {
+					error[0] = e;
+				}
+			}
+		};
+		connector.start();
+		Socket peer = null;
+		while (peer == null) {
+			try {
+				peer = new Socket("localhost", port);
+			} catch (IOException e) {
+				Thread.sleep(10);
+			}
+		}
+		connector.join();
+		if (error[0] != null) {
+			throw error[0];
+		}
+		return peer;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connection_.disconnect();
+		peer_.close();
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void inputStreamReceives() throws Exception {
+		final byte[] sent = new byte[3 * NioEventLoop.MAX_PENDING_BYTES];
+		for (int i = 0; i < sent.length; ++i) {
+			sent[i] = (byte) i;
+		}
+		final InputStream in = connection_.getInputStream();
+		peer_.getOutputStream().write(sent);
+		peer_.shutdownOutput();
+		final byte[] received = new byte[sent.length];
+		int total = 0;
+		int count;
+		while ((count = in.read(received, total, received.length - total)) > 0) {
+			total += count;
+		}
+		assertArrayEquals(sent, received);
+		assertEquals(-1, in.read());
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void disconnectReleasesBlockedWriter() throws Exception {
+		final OutputStream out = connection_.getOutputStream();
+		final long[] written = new long[1];
+		final boolean[] failed = new boolean[1];
+		final Thread writer = new Thread() {
+			@Override
+			public void run() {
+				final byte[] chunk = new byte[Constants.BUFFER_SIZE];
+				try {
+					// The peer never reads, so this eventually blocks.
+					while (true) {
+						out.write(chunk, 0, chunk.length);
+						synchronized (written) {
+							written[0] += chunk.length;
+						}
+					}
+				} catch (IOException e) {
+					failed[0] = true;
+				}
+			}
+		};
+		writer.start();
+		long last = -1;
+		while (true) {
+			Thread.sleep(200);
+			synchronized (written) {
+				if (written[0] == last) {
+					break;
+				}
+				last = written[0];
+			}
+		}
+		connection_.disconnect();
+		writer.join();
+		assertTrue(failed[0]);
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void blockedSinksShareBoundedDispatchers() throws Exception {
+		final int numConnections = 2 * NioSocketIOIOConnectionBootstrap.DEFAULT_DISPATCHER_THREADS;
+		final NioSocketIOIOConnection[] connections = new NioSocketIOIOConnection[numConnections];
+		final Socket[] peers = new Socket[numConnections];
+		final int[] received = new int[numConnections];
+		final Object gate = new Object();
+		final boolean[] open = { false };
+		try {
+			for (int i = 0; i < numConnections; ++i) {
+				final int port = freePort();
+				connections[i] = new NioSocketIOIOConnection(port);
+				peers[i] = connect(connections[i], port);
+				final int index = i;
+				connections[i].startReading(new PushIOIOConnection.Sink() {
+					@Override
+					public void dataReceived(byte[] data, int size)
+							throws IOException {
+						synchronized (gate) {
+							try {
+								while (!open[0]) {
+									gate.wait();
+								}
+							} catch (InterruptedException e) {
+								throw new IOException(e);
+							}
+							for (int j = 0; j < size; ++j) {
+								assertEquals((byte) received[index]++, data[j]);
+							}
+							gate.notifyAll();
+						}
+					}
+
+					@Override
+					public void endOfStream() {
+					}
+				});
+			}
+			final byte[] sent = new byte[NioEventLoop.MAX_PENDING_BYTES];
+			for (int j = 0; j < sent.length; ++j) {
+				sent[j] = (byte) j;
+			}
+			for (Socket peer : peers) {
+				peer.getOutputStream().write(sent);
+			}
+			Thread.sleep(200);
+			assertTrue(countDispatchers() <= NioSocketIOIOConnectionBootstrap.DEFAULT_DISPATCHER_THREADS);
+			synchronized (gate) {
+				open[0] = true;
+				gate.notifyAll();
+				for (int i = 0; i < numConnections; ++i) {
+					while (received[i] < sent.length) {
+						gate.wait();
+					}
+				}
+			}
+		} finally {
+			for (int i = 0; i < numConnections; ++i) {
+				if (connections[i] != null) {
+					connections[i].disconnect();
+				}
+				if (peers[i] != null) {
+					peers[i].close();
+				}
+			}
+		}
+	}
+
+	private static int countDispatchers() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().endsWith(" dispatcher")) {
+				++count;
+			}
+		}
+		return count;
+	}
+}
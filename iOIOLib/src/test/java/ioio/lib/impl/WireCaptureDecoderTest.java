@@ -0,0 +1,69 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link WireCaptureDecoder} on captures written by
+ * {@link WireCapture}.
+ */
+public class WireCaptureDecoderTest {
+	@Rule
+	public TemporaryFolder folder_ = new TemporaryFolder();
+
+	@Test
+	public void softCloseEndsIncomingStream() throws Exception {
+		final WireCapture capture = new WireCapture(folder_.getRoot(),
+				"capture", 1 << 17, 1 << 20, 1);
+		final byte[] softClose = { (byte) IOIOProtocol.SOFT_CLOSE };
+		capture.record(WireCapture.INCOMING, softClose, 0, 1);
+		// Anything after the soft close is ignored.
+		capture.record(WireCapture.INCOMING, softClose, 0, 1);
+		capture.record(WireCapture.OUTGOING, softClose, 0, 1);
+		capture.close();
+
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final PrintStream out = new PrintStream(output);
+		final WireCaptureDecoder decoder = new WireCaptureDecoder(out);
+		decoder.decode(capture.getFile(0).getPath());
+		decoder.printSummary(out);
+		out.flush();
+		final String text = output.toString();
+		assertTrue(text, text.contains("end of stream: Soft close"));
+		assertTrue(text, text.contains("# module,starved_from_ms,duration_ms"));
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOFactory;
+import ioio.lib.impl.EmulatorIOIOConnection;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link EventDrivenIOIOLooper}.
+ */
+public class EventDrivenIOIOLooperTest {
+	private static final long TIMEOUT_MS = 10000;
+
+	private static class CountingLooper extends EventDrivenIOIOLooper {
+		int processed_ = 0;
+		boolean timedOut_ = true;
+
+		@Override
+		protected void process(boolean timedOut) {
+			++processed_;
+			timedOut_ = timedOut;
+		}
+	}
+
+	private static IOIO connect() throws Exception {
+		final IOIO ioio = IOIOFactory.create(new EmulatorIOIOConnection());
+		ioio.waitForConnect();
+		return ioio;
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void processesRightAfterEverySetup() throws Exception {
+		final CountingLooper looper = new CountingLooper();
+		final IOIO first = connect();
+		final IOIO second = connect();
+		try {
+			looper.setup(first);
+			looper.loop();
+			assertEquals(1, looper.processed_);
+			first.disconnect();
+			// No wakeup is pending when the next connection comes up.
+			looper.setup(second);
+			looper.loop();
+			assertEquals(2, looper.processed_);
+			looper.wake();
+			looper.loop();
+			assertEquals(3, looper.processed_);
+			assertFalse(looper.timedOut_);
+		} finally {
+			first.disconnect();
+			second.disconnect();
+		}
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void schedulerIsCalledBackOnWake() throws Exception {
+		final CountingLooper looper = new CountingLooper();
+		final int[] callbacks = { 0 };
+		looper.setWakeCallback(new Runnable() {
+			@Override
+			public void run() {
+				++callbacks[0];
+			}
+		});
+		final IOIO ioio = connect();
+		try {
+			looper.setup(ioio);
+			assertEquals(0, looper.nanosUntilNextRun());
+			looper.loop();
+			// Nothing to do: come back for the state check.
+			assertTrue(looper.nanosUntilNextRun() > 0);
+			looper.wake();
+			looper.wake();
+			assertEquals(1, callbacks[0]);
+			assertEquals(0, looper.nanosUntilNextRun());
+			looper.loop();
+			assertEquals(2, looper.processed_);
+			assertTrue(looper.nanosUntilNextRun() > 0);
+		} finally {
+			ioio.disconnect();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link FixedRateIOIOLooper}.
+ */
+public class FixedRateIOIOLooperTest {
+	private static final long TIMEOUT_MS = 10000;
+	/** Long enough that oversleeping by half a period is unlikely. */
+	private static final long PERIOD_MS = 40;
+
+	/** Stalls once, for 25.5 periods, on its first iteration. */
+	private static class StallingLooper extends BaseIOIOLooper {
+		private boolean stalled_ = false;
+
+		@Override
+		public void loop() throws InterruptedException {
+			if (!stalled_) {
+				stalled_ = true;
+				Thread.sleep(PERIOD_MS * 51 / 2);
+			}
+		}
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void catchUpIsCapped() throws Exception {
+		final FixedRateIOIOLooper looper = new FixedRateIOIOLooper(
+				new StallingLooper(), PERIOD_MS, TimeUnit.MILLISECONDS,
+				FixedRateIOIOLooper.OverrunPolicy.CATCH_UP);
+		looper.setup(null);
+		looper.loop();
+		// 25 deadlines passed, the next one included.
+		assertEquals(25 - FixedRateIOIOLooper.MAX_CATCH_UP,
+				looper.getSkippedCount());
+		for (int i = 0; i < FixedRateIOIOLooper.MAX_CATCH_UP; ++i) {
+			looper.loop();
+		}
+		assertEquals(FixedRateIOIOLooper.MAX_CATCH_UP + 1, looper
+				.getExecutionHistogram().getCount());
+		assertEquals(FixedRateIOIOLooper.MAX_CATCH_UP, looper
+				.getJitterHistogram().getCount());
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void skipDropsAllMissed() throws Exception {
+		final FixedRateIOIOLooper looper = new FixedRateIOIOLooper(
+				new StallingLooper(), PERIOD_MS, TimeUnit.MILLISECONDS,
+				FixedRateIOIOLooper.OverrunPolicy.SKIP);
+		looper.setup(null);
+		looper.loop();
+		assertEquals(25, looper.getSkippedCount());
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOConnection;
+import ioio.lib.api.PwmOutput;
+import ioio.lib.api.Uart;
+import ioio.lib.impl.EmulatorIOIOConnection;
+import ioio.lib.impl.IOIOEmulator;
+import ioio.lib.impl.LoopbackIOIOConnection;
+import ioio.lib.spi.IOIOConnectionFactory;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link ReconnectingIOIO}.
+ */
+public class ReconnectingIOIOTest {
+	private static final long TIMEOUT_MS = 10000;
+
+	/**
+	 * Connects to an emulator the first time, then to a connection nobody
+	 * answers on.
+	 */
+	private static class OneShotFactory implements IOIOConnectionFactory {
+		EmulatorIOIOConnection first_ = null;
+
+		@Override
+		public String getType() {
+			return "test";
+		}
+
+		@Override
+		public Object getExtra() {
+			return null;
+		}
+
+		@Override
+		public synchronized IOIOConnection createConnection() {
+			if (first_ == null) {
+				first_ = new EmulatorIOIOConnection();
+				return first_;
+			}
+			return new LoopbackIOIOConnection();
+		}
+	}
+
+	/** Connects to a new emulator every time. */
+	private static class EmulatorFactory implements IOIOConnectionFactory {
+		private EmulatorIOIOConnection latest_ = null;
+
+		@Override
+		public String getType() {
+			return "test";
+		}
+
+		@Override
+		public Object getExtra() {
+			return null;
+		}
+
+		@Override
+		public synchronized IOIOConnection createConnection() {
+			latest_ = new EmulatorIOIOConnection();
+			notifyAll();
+			return latest_;
+		}
+
+		/** Waits for a connection other than stale. */
+		synchronized EmulatorIOIOConnection awaitNext(
+				EmulatorIOIOConnection stale) throws InterruptedException {
+			while (latest_ == null || latest_ == stale) {
+				wait();
+			}
+			return latest_;
+		}
+	}
+
+	private static void awaitDigitalOutput(IOIOEmulator emulator, int pin,
+			boolean level) throws InterruptedException {
+		while (emulator.getDigitalOutput(pin) != level) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void handlesSurviveReconnect() throws Exception {
+		final EmulatorFactory factory = new EmulatorFactory();
+		final IOIO ioio = new ReconnectingIOIO(factory, 5000);
+		ioio.waitForConnect();
+		try {
+			final DigitalOutput led = ioio.openDigitalOutput(3, false);
+			final PwmOutput pwm = ioio.openPwmOutput(10, 1000);
+			final Uart uart = ioio.openUart(6, 7, 115200, Uart.Parity.NONE,
+					Uart.StopBits.ONE);
+			final InputStream in = uart.getInputStream();
+			final OutputStream out = uart.getOutputStream();
+			led.write(true);
+			pwm.setDutyCycle(0.25f);
+			out.write(42);
+			assertEquals(42, in.read());
+
+			final EmulatorIOIOConnection first = factory.awaitNext(null);
+			awaitDigitalOutput(first.getEmulator(), 3, true);
+			final int period = first.getEmulator().getPwmPeriod(0);
+			final int dutyCycle = first.getEmulator().getPwmDutyCycle(0);
+			first.disconnect();
+			final EmulatorIOIOConnection second = factory.awaitNext(first);
+			assertNotSame(first, second);
+			assertEquals(IOIO.State.CONNECTED, ioio.getState());
+
+			// The last written values are back, without touching the handles.
+			final IOIOEmulator emulator = second.getEmulator();
+			awaitDigitalOutput(emulator, 3, true);
+			while (emulator.getPwmDutyCycle(0) != dutyCycle) {
+				Thread.sleep(10);
+			}
+			assertEquals(period, emulator.getPwmPeriod(0));
+
+			// And the same handles keep working.
+			out.write(43);
+			assertEquals(43, in.read());
+			led.write(false);
+			awaitDigitalOutput(emulator, 3, false);
+			pwm.setDutyCycle(0.5f);
+			while (emulator.getPwmDutyCycle(0) == dutyCycle) {
+				Thread.sleep(10);
+			}
+		} finally {
+			ioio.disconnect();
+			ioio.waitForDisconnect();
+		}
+	}
+
+	@Test(timeout = TIMEOUT_MS)
+	public void givesUpWithoutWaiters() throws Exception {
+		final OneShotFactory factory = new OneShotFactory();
+		final IOIO ioio = new ReconnectingIOIO(factory, 200);
+		ioio.waitForConnect();
+		factory.first_.disconnect();
+		ioio.waitForDisconnect();
+		assertEquals(IOIO.State.DEAD, ioio.getState());
+	}
+
+	@Test(timeout = TIMEOUT_MS, expected = InterruptedIOException.class)
+	public void interruptedReadIsNotRetried() throws Exception {
+		final OneShotFactory factory = new OneShotFactory();
+		final IOIO ioio = new ReconnectingIOIO(factory, 60000);
+		ioio.waitForConnect();
+		try {
+			final Uart uart = ioio.openUart(6, 7, 115200, Uart.Parity.NONE,
+					Uart.StopBits.ONE);
+			Thread.currentThread().interrupt();
+			uart.getInputStream().read();
+		} finally {
+			Thread.interrupted();
+			ioio.disconnect();
+			ioio.waitForDisconnect();
+		}
+	}
+}
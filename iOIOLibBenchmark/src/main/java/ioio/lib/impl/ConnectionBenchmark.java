@@ -0,0 +1,162 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOFactory;
+import ioio.lib.api.exception.ConnectionLostException;
+import ioio.lib.api.exception.IncompatibilityException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * {@link LoopbackIOIOConnection} against a localhost TCP socket, the
+ * transport of {@link SocketIOIOConnection}: a round trip of one message
+ * through a peer that echoes it, and the time to bring up and tear down a
+ * whole emulated board.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConnectionBenchmark {
+	/** Echoes everything received until the stream ends. */
+	private static class Echo extends Thread {
+		private final InputStream in_;
+		private final OutputStream out_;
+
+		Echo(InputStream in, OutputStream out) {
+			in_ = in;
+			out_ = out;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			final byte[] buffer = new byte[1024];
+			try {
+				int size;
+				while ((size = in_.read(buffer)) != -1) {
+					out_.write(buffer, 0, size);
+					out_.flush();
+				}
+			} catch (IOException e) {
+				// Closed.
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Transport {
+		@Param({ "loopback", "socket" })
+		public String type;
+
+		@Param({ "16", "256" })
+		public int messageSize;
+
+		private InputStream in_;
+		private OutputStream out_;
+		private LoopbackIOIOConnection loopback_;
+		private ServerSocket server_;
+		private Socket client_;
+		private Socket peer_;
+		private byte[] message_;
+
+		@Setup
+		public void setUp() throws IOException, ConnectionLostException {
+			if (type.equals("loopback")) {
+				loopback_ = new LoopbackIOIOConnection();
+				new Echo(loopback_.getPeerInputStream(),
+						loopback_.getPeerOutputStream()).start();
+				in_ = loopback_.getInputStream();
+				out_ = loopback_.getOutputStream();
+			} else {
+				server_ = new ServerSocket(0, 1,
+						InetAddress.getLoopbackAddress());
+				client_ = new Socket(InetAddress.getLoopbackAddress(),
+						server_.getLocalPort());
+				client_.setTcpNoDelay(true);
+				peer_ = server_.accept();
+				peer_.setTcpNoDelay(true);
+				new Echo(peer_.getInputStream(), peer_.getOutputStream())
+						.start();
+				in_ = client_.getInputStream();
+				out_ = client_.getOutputStream();
+			}
+			message_ = new byte[messageSize];
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			if (loopback_ != null) {
+				loopback_.disconnect();
+			} else {
+				client_.close();
+				peer_.close();
+				server_.close();
+			}
+		}
+	}
+
+	@Benchmark
+	public void roundTrip(Transport transport) throws IOException {
+		transport.out_.write(transport.message_);
+		transport.out_.flush();
+		int size = 0;
+		while (size < transport.message_.length) {
+			size += transport.in_.read(transport.message_, size,
+					transport.message_.length - size);
+		}
+	}
+
+	/** Handshake with an emulated board, then disconnect. */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void connectDisconnect() throws ConnectionLostException,
+			IncompatibilityException, InterruptedException {
+		final IOIO ioio = IOIOFactory.create(new EmulatorIOIOConnection());
+		ioio.waitForConnect();
+		ioio.disconnect();
+		ioio.waitForDisconnect();
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.impl.IOIOProtocol.IncomingHandler;
+
+/**
+ * An {@link IncomingHandler} that only counts the messages it gets, so that
+ * parsing can be measured on its own.
+ */
+class CountingIncomingHandler implements IncomingHandler {
+	long messages;
+
+	@Override
+	public void handleEstablishConnection(byte[] hardwareId,
+			byte[] bootloaderId, byte[] firmwareId) {
+		++messages;
+	}
+
+	@Override
+	public void handleConnectionLost() {
+	}
+
+	@Override
+	public void handleSoftReset() {
+		++messages;
+	}
+
+	@Override
+	public void handleCheckInterfaceResponse(boolean supported) {
+		++messages;
+	}
+
+	@Override
+	public void handleSetChangeNotify(int pin, boolean changeNotify) {
+		++messages;
+	}
+
+	@Override
+	public void handleReportDigitalInStatus(int pin, boolean level) {
+		++messages;
+	}
+
+	@Override
+	public void handleRegisterPeriodicDigitalSampling(int pin, int freqScale) {
+		++messages;
+	}
+
+	@Override
+	public void handleReportPeriodicDigitalInStatus(int frameNum,
+			boolean[] values) {
+		++messages;
+	}
+
+	@Override
+	public void handleAnalogPinStatus(int pin, boolean open) {
+		++messages;
+	}
+
+	@Override
+	public void handleReportAnalogInStatus(int[] pins, int[] values) {
+		++messages;
+	}
+
+	@Override
+	public void handleUartOpen(int uartNum) {
+		++messages;
+	}
+
+	@Override
+	public void handleUartClose(int uartNum) {
+		++messages;
+	}
+
+	@Override
+	public void handleUartData(int uartNum, int numBytes, byte[] data) {
+		++messages;
+	}
+
+	@Override
+	public void handleUartReportTxStatus(int uartNum, int bytesRemaining) {
+		++messages;
+	}
+
+	@Override
+	public void handleSpiOpen(int spiNum) {
+		++messages;
+	}
+
+	@Override
+	public void handleSpiClose(int spiNum) {
+		++messages;
+	}
+
+	@Override
+	public void handleSpiData(int spiNum, int ssPin, byte[] data,
+			int dataBytes) {
+		++messages;
+	}
+
+	@Override
+	public void handleSpiReportTxStatus(int spiNum, int bytesRemaining) {
+		++messages;
+	}
+
+	@Override
+	public void handleI2cOpen(int i2cNum) {
+		++messages;
+	}
+
+	@Override
+	public void handleI2cClose(int i2cNum) {
+		++messages;
+	}
+
+	@Override
+	public void handleI2cResult(int i2cNum, int size, byte[] data) {
+		++messages;
+	}
+
+	@Override
+	public void handleI2cReportTxStatus(int spiNum, int bytesRemaining) {
+		++messages;
+	}
+
+	@Override
+	public void handleIcspOpen() {
+		++messages;
+	}
+
+	@Override
+	public void handleIcspClose() {
+		++messages;
+	}
+
+	@Override
+	public void handleIcspReportRxStatus(int bytesRemaining) {
+		++messages;
+	}
+
+	@Override
+	public void handleIcspResult(int size, byte[] data) {
+		++messages;
+	}
+
+	@Override
+	public void handleIncapReport(int incapNum, int size, byte[] data) {
+		++messages;
+	}
+
+	@Override
+	public void handleIncapClose(int incapNum) {
+		++messages;
+	}
+
+	@Override
+	public void handleIncapOpen(int incapNum) {
+		++messages;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.impl.IncomingState.InputPinListener;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Dispatch of a 16-pin analog frame to the pin listeners by
+ * {@link IncomingState}, against the previous design, where each pin peeked
+ * at the head of a queue of listeners for every value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+	private static final int NUM_ANALOG_PINS = 16;
+	private static final int FIRST_ANALOG_PIN = 31;
+
+	private static class CountingListener implements InputPinListener {
+		int sum_;
+
+		@Override
+		public void setValue(int value) {
+			sum_ += value;
+		}
+	}
+
+	/** The per-pin state as it was before the listener arrays. */
+	private static class QueuedPinState {
+		private final Queue<InputPinListener> listeners_ = new ConcurrentLinkedQueue<InputPinListener>();
+		private boolean currentOpen_ = false;
+
+		void setValue(int v) {
+			assert (currentOpen_);
+			listeners_.peek().setValue(v);
+		}
+	}
+
+	private final IncomingState state_ = new IncomingState();
+	private final QueuedPinState[] queuedStates_ = new QueuedPinState[Constants.NUM_PINS];
+	private final CountingListener listener_ = new CountingListener();
+	private final int[] pins_ = new int[NUM_ANALOG_PINS];
+	private final int[] values_ = new int[NUM_ANALOG_PINS];
+
+	@Setup
+	public void setUp() {
+		for (int i = 0; i < NUM_ANALOG_PINS; ++i) {
+			final int pin = FIRST_ANALOG_PIN + i;
+			pins_[i] = pin;
+			values_[i] = i * 64;
+			state_.addInputPinListener(pin, listener_);
+			state_.handleAnalogPinStatus(pin, true);
+		}
+		for (int i = 0; i < queuedStates_.length; ++i) {
+			queuedStates_[i] = new QueuedPinState();
+			queuedStates_[i].listeners_.add(listener_);
+			queuedStates_[i].currentOpen_ = true;
+		}
+	}
+
+	@Benchmark
+	public int arrayDispatch() {
+		state_.handleReportAnalogInStatus(pins_, values_);
+		return listener_.sum_;
+	}
+
+	@Benchmark
+	public int queueDispatch() {
+		for (int i = 0; i < pins_.length; ++i) {
+			queuedStates_[pins_[i]].setValue(values_[i]);
+		}
+		return listener_.sum_;
+	}
+}
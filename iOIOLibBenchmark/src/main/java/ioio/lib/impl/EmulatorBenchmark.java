@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOFactory;
+import ioio.lib.api.Uart;
+import ioio.lib.api.exception.ConnectionLostException;
+import ioio.lib.api.exception.IncompatibilityException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The whole host-side stack, {@link IOIOImpl} down to the protocol and back
+ * up through the incoming thread, against {@link IOIOEmulator} over an
+ * in-memory connection. No radio or USB is involved, so the scores are an
+ * upper bound of what the library itself allows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmulatorBenchmark {
+	private IOIO ioio_;
+	private DigitalOutput led_;
+	private OutputStream uartOut_;
+	private InputStream uartIn_;
+	private final byte[] uartData_ = new byte[64];
+	private boolean level_;
+
+	@Setup
+	public void setUp() throws ConnectionLostException,
+			IncompatibilityException {
+		ioio_ = IOIOFactory.create(new EmulatorIOIOConnection());
+		ioio_.waitForConnect();
+		led_ = ioio_.openDigitalOutput(0);
+		final Uart uart = ioio_.openUart(6, 7, 115200, Uart.Parity.NONE,
+				Uart.StopBits.ONE);
+		uartOut_ = uart.getOutputStream();
+		uartIn_ = uart.getInputStream();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		ioio_.disconnect();
+		ioio_.waitForDisconnect();
+	}
+
+	/** Cost to the caller of one digital write; the write is asynchronous. */
+	@Benchmark
+	public void digitalWrite() throws ConnectionLostException {
+		level_ = !level_;
+		led_.write(level_);
+	}
+
+	/** 64 bytes out to the emulator's UART echo and back in. */
+	@Benchmark
+	public void uartEcho64() throws IOException {
+		uartOut_.write(uartData_);
+		int size = 0;
+		while (size < uartData_.length) {
+			size += uartIn_.read(uartData_, size, uartData_.length - size);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.OutgoingLaneStats;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Throughput of the flow-controlled outgoing paths, {@link
+ * FlowControlledOutputStream} (UART data) and {@link
+ * FlowControlledPacketSender} (SPI and TWI requests), through the
+ * {@link FlowControlScheduler}. The sender hands the credits back right away,
+ * as an IOIO draining its buffer instantly would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FlowControlBenchmark {
+	/** Size of each write to the stream. */
+	@Param({ "16", "4096" })
+	public int writeSize;
+
+	private FlowControlScheduler scheduler_;
+	private FlowControlledOutputStream stream_;
+	private FlowControlledPacketSender packetSender_;
+	private byte[] data_;
+	private final FlowControlledPacketSender.Packet packet_ = new FlowControlledPacketSender.Packet() {
+		@Override
+		public int getSize() {
+			return 16;
+		}
+	};
+
+	@Setup
+	public void setUp() {
+		scheduler_ = new FlowControlScheduler();
+		stream_ = new FlowControlledOutputStream(
+				new FlowControlledOutputStream.Sender() {
+					@Override
+					public void send(byte[] data, int size) {
+						stream_.readyToSend(size);
+					}
+				}, 64, scheduler_, OutgoingLaneStats.Lane.CONTROL);
+		stream_.readyToSend(256);
+		packetSender_ = new FlowControlledPacketSender(
+				new FlowControlledPacketSender.Sender() {
+					@Override
+					public void send(FlowControlledPacketSender.Packet packet) {
+						packetSender_.readyToSend(packet.getSize());
+					}
+				}, scheduler_, OutgoingLaneStats.Lane.BULK);
+		packetSender_.readyToSend(256);
+		data_ = new byte[writeSize];
+	}
+
+	@TearDown
+	public void tearDown() {
+		stream_.close();
+		packetSender_.close();
+		scheduler_.shutdown();
+	}
+
+	/** Writes one buffer and waits until all of it has been sent. */
+	@Benchmark
+	public void streamWriteFlush() throws IOException {
+		stream_.write(data_, 0, data_.length);
+		stream_.flush();
+	}
+
+	/**
+	 * Latency of one packet through the sender: queued, pumped by the
+	 * scheduler thread and sent.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void packetRoundTrip() throws IOException {
+		packetSender_.write(packet_);
+		packetSender_.flush();
+	}
+}
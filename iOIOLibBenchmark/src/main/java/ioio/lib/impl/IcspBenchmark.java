@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOFactory;
+import ioio.lib.api.IcspMaster;
+import ioio.lib.api.exception.ConnectionLostException;
+import ioio.lib.api.exception.IncompatibilityException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * ICSP throughput, in instructions per second, against {@link IOIOEmulator}:
+ * a sequence shaped like a Flash read, where every fourth entry reads VISI,
+ * submitted with {@link IcspMaster#executeSequence(int[], int, int)} and, for
+ * comparison, one call at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IcspBenchmark {
+	private static final int SEQUENCE_LENGTH = 1024;
+	private static final int NUM_READS = SEQUENCE_LENGTH / 4;
+
+	private IOIO ioio_;
+	private IcspMaster icsp_;
+	private final int[] sequence_ = new int[SEQUENCE_LENGTH];
+	private final int[] results_ = new int[NUM_READS];
+
+	@Setup
+	public void setUp() throws ConnectionLostException,
+			IncompatibilityException {
+		ioio_ = IOIOFactory.create(new EmulatorIOIOConnection());
+		ioio_.waitForConnect();
+		icsp_ = ioio_.openIcspMaster();
+		icsp_.enterProgramming();
+		for (int i = 0; i < SEQUENCE_LENGTH; ++i) {
+			sequence_[i] = i % 4 == 3 ? IcspMaster.READ_VISI : 0x000000;
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		ioio_.disconnect();
+		ioio_.waitForDisconnect();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SEQUENCE_LENGTH)
+	public int executeSequence() throws ConnectionLostException,
+			InterruptedException {
+		icsp_.executeSequence(sequence_, 0, SEQUENCE_LENGTH);
+		icsp_.waitVisiResults(results_, 0, NUM_READS);
+		return results_[0];
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SEQUENCE_LENGTH)
+	public int oneByOne() throws ConnectionLostException,
+			InterruptedException {
+		int result = 0;
+		for (int i = 0; i < SEQUENCE_LENGTH; ++i) {
+			if (sequence_[i] == IcspMaster.READ_VISI) {
+				icsp_.readVisi();
+				result = icsp_.waitVisiResult();
+			} else {
+				icsp_.executeInstruction(sequence_[i]);
+			}
+		}
+		return result;
+	}
+}
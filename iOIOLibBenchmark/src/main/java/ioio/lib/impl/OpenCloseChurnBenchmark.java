@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOFactory;
+import ioio.lib.api.PulseInput;
+import ioio.lib.api.exception.ConnectionLostException;
+import ioio.lib.api.exception.IncompatibilityException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Open/close churn on one board from several threads, as done by clients
+ * that open a {@link PulseInput} per sonar reading. Each thread opens and
+ * closes a pulse input and a digital output on its own pins, against
+ * {@link IOIOEmulator}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OpenCloseChurnBenchmark {
+	// Peripheral input capable, one per thread.
+	private static final int[] PULSE_PINS = { 10, 12, 14 };
+	private static final int[] OUTPUT_PINS = { 11, 13, 27 };
+
+	@State(Scope.Benchmark)
+	public static class Board {
+		IOIO ioio_;
+
+		@Setup
+		public void setUp() throws ConnectionLostException,
+				IncompatibilityException {
+			ioio_ = IOIOFactory.create(new EmulatorIOIOConnection());
+			ioio_.waitForConnect();
+		}
+
+		@TearDown
+		public void tearDown() throws InterruptedException {
+			ioio_.disconnect();
+			ioio_.waitForDisconnect();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Pins {
+		int pulsePin_;
+		int outputPin_;
+
+		@Setup
+		public void setUp(ThreadParams params) {
+			final int index = params.getThreadIndex();
+			if (index >= PULSE_PINS.length) {
+				throw new IllegalStateException("At most "
+						+ PULSE_PINS.length + " threads");
+			}
+			pulsePin_ = PULSE_PINS[index];
+			outputPin_ = OUTPUT_PINS[index];
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void openCloseOneThread(Board board, Pins pins)
+			throws ConnectionLostException {
+		openClose(board.ioio_, pins);
+	}
+
+	@Benchmark
+	@Threads(3)
+	public void openCloseThreeThreads(Board board, Pins pins)
+			throws ConnectionLostException {
+		openClose(board.ioio_, pins);
+	}
+
+	private static void openClose(IOIO ioio, Pins pins)
+			throws ConnectionLostException {
+		final PulseInput pulse = ioio.openPulseInput(pins.pulsePin_,
+				PulseInput.PulseMode.POSITIVE);
+		final DigitalOutput output = ioio.openDigitalOutput(pins.outputPin_);
+		output.close();
+		pulse.close();
+	}
+}
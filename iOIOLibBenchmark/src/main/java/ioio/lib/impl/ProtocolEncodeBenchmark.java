@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of encoding outgoing commands in {@link IOIOProtocol}, each one
+ * flushed to a sink that discards the bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProtocolEncodeBenchmark {
+	private IOIOProtocol protocol_;
+	private final byte[] data_ = new byte[64];
+	private boolean level_;
+
+	@Setup
+	public void setUp() {
+		protocol_ = new IOIOProtocol(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}, new CountingIncomingHandler());
+	}
+
+	@Benchmark
+	public void digitalOut() throws IOException {
+		protocol_.setDigitalOutLevel(10, level_ = !level_);
+	}
+
+	@Benchmark
+	public void pwmDutyCycle() throws IOException {
+		protocol_.setPwmDutyCycle(1, 1000, 2);
+	}
+
+	@Benchmark
+	public void uartData64() throws IOException {
+		protocol_.uartData(0, 64, data_);
+	}
+
+	@Benchmark
+	public void spiRequest64() throws IOException {
+		protocol_.spiMasterRequest(0, 20, data_, 64, 64, 64);
+	}
+
+	@Benchmark
+	public void i2cWriteRead() throws IOException {
+		protocol_.i2cWriteRead(0, false, 0x19, 8, 8, data_);
+	}
+
+	/** Several commands encoded as one batch, flushed once. */
+	@Benchmark
+	public void batchOf8DigitalOut() throws IOException {
+		protocol_.beginBatch();
+		for (int i = 0; i < 8; ++i) {
+			protocol_.setDigitalOutLevel(i, level_ = !level_);
+		}
+		protocol_.endBatch();
+	}
+}
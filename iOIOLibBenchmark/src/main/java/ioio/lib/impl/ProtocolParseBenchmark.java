@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of the incoming message parser in push mode, fed a recording of
+ * typical inbound traffic in chunks, as a connection would deliver it. The
+ * recording mixes 16-pin analog frames, 64-byte UART data, digital input
+ * changes and TX credit reports. The score is per recording of
+ * {@link #RECORDING_SIZE} bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProtocolParseBenchmark {
+	static final int RECORDING_SIZE = 1 << 16;
+
+	/** Size of each chunk passed to the parser. */
+	@Param({ "64", "1024" })
+	public int chunkSize;
+
+	private IOIOProtocol protocol_;
+	private CountingIncomingHandler handler_;
+	private byte[] recording_;
+	private final byte[] chunk_ = new byte[1024];
+
+	@Setup
+	public void setUp() throws IOException {
+		handler_ = new CountingIncomingHandler();
+		protocol_ = new IOIOProtocol(new ByteArrayOutputStream(), handler_);
+		// Declare the analog frame format once, as the IOIO would.
+		final byte[] format = new byte[18];
+		format[0] = (byte) IOIOProtocol.REPORT_ANALOG_IN_FORMAT;
+		format[1] = 16;
+		for (int i = 0; i < 16; ++i) {
+			format[2 + i] = (byte) (31 + i);
+		}
+		protocol_.dataReceived(format, format.length);
+		recording_ = record();
+	}
+
+	private static byte[] record() {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(
+				RECORDING_SIZE);
+		int i = 0;
+		while (out.size() < RECORDING_SIZE - 100) {
+			// Analog frame: a header byte of low bits per 4 pins.
+			out.write(IOIOProtocol.REPORT_ANALOG_IN_STATUS);
+			for (int pin = 0; pin < 16; ++pin) {
+				if (pin % 4 == 0) {
+					out.write(i & 0xFF);
+				}
+				out.write((i + pin) & 0xFF);
+			}
+			if (i % 4 == 0) {
+				out.write(IOIOProtocol.UART_DATA);
+				out.write(63);
+				for (int b = 0; b < 64; ++b) {
+					out.write(b);
+				}
+				out.write(IOIOProtocol.UART_REPORT_TX_STATUS);
+				out.write(64 << 2);
+				out.write(0);
+			}
+			if (i % 8 == 0) {
+				out.write(IOIOProtocol.REPORT_DIGITAL_IN_STATUS);
+				out.write((10 << 2) | (i & 1));
+			}
+			++i;
+		}
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public long parseRecording() throws IOException {
+		final byte[] recording = recording_;
+		final byte[] chunk = chunk_;
+		for (int off = 0; off < recording.length; off += chunkSize) {
+			// Copied, as from a connection's read buffer.
+			final int size = Math.min(chunkSize, recording.length - off);
+			System.arraycopy(recording, off, chunk, 0, size);
+			protocol_.dataReceived(chunk, size);
+		}
+		return handler_.messages;
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.Uart.OverflowPolicy;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of {@link QueueInputStream}, the receive buffer of UARTs: the
+ * incoming thread writes chunks, a client thread reads them. Scores are in
+ * chunks per second. The baseline benchmarks run the same workloads against
+ * the previous design, a monitor-guarded queue of boxed bytes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QueueInputStreamBenchmark {
+	/**
+	 * The stream as it was before the byte ring, minus blocking and closing,
+	 * which the benchmarks don't exercise. Sized like the ring rather than
+	 * at its fixed Constants.BUFFER_SIZE, so that both drop at the same
+	 * fill level.
+	 */
+	static class QueuedStream {
+		private final Queue<Byte> queue_;
+		private final int capacity_;
+		long dropped_ = 0;
+
+		QueuedStream(int capacity) {
+			queue_ = new ArrayBlockingQueue<Byte>(capacity);
+			capacity_ = capacity;
+		}
+
+		synchronized int read(byte[] b, int off, int len) {
+			if (len > queue_.size()) {
+				len = queue_.size();
+			}
+			for (int i = 0; i < len; ++i) {
+				b[off++] = queue_.remove();
+			}
+			return len;
+		}
+
+		synchronized void write(byte[] data, int size) {
+			for (int i = 0; i < size; ++i) {
+				if (queue_.size() == capacity_) {
+					dropped_ += size - i;
+					break;
+				}
+				queue_.add(data[i]);
+			}
+			notifyAll();
+		}
+
+		synchronized int available() {
+			return queue_.size();
+		}
+	}
+
+	/** Single-threaded write-then-read of one chunk. */
+	@State(Scope.Thread)
+	public static class Single {
+		@Param({ "64", "1024" })
+		public int chunkSize;
+
+		QueueInputStream stream_;
+		byte[] chunk_;
+
+		@Setup
+		public void setUp() {
+			stream_ = new QueueInputStream(4096, OverflowPolicy.DROP_NEWEST,
+					4096);
+			chunk_ = new byte[chunkSize];
+		}
+	}
+
+	@Benchmark
+	public int writeRead(Single state) throws IOException {
+		state.stream_.write(state.chunk_, state.chunk_.length);
+		return state.stream_.read(state.chunk_, 0, state.chunk_.length);
+	}
+
+	/** {@link Single} on the previous design. */
+	@State(Scope.Thread)
+	public static class SingleBaseline {
+		@Param({ "64", "1024" })
+		public int chunkSize;
+
+		QueuedStream stream_;
+		byte[] chunk_;
+
+		@Setup
+		public void setUp() {
+			stream_ = new QueuedStream(4096);
+			chunk_ = new byte[chunkSize];
+		}
+	}
+
+	@Benchmark
+	public int writeReadBaseline(SingleBaseline state) {
+		state.stream_.write(state.chunk_, state.chunk_.length);
+		return state.stream_.read(state.chunk_, 0, state.chunk_.length);
+	}
+
+	/**
+	 * A producer and a consumer thread on one stream. Neither side blocks:
+	 * the stream drops data when full and the consumer only reads what is
+	 * available, so that the trial can end. The bytesRead counter is the
+	 * figure of merit.
+	 */
+	@State(Scope.Group)
+	public static class Shared {
+		@Param({ "64", "1024" })
+		public int chunkSize;
+
+		QueueInputStream stream_;
+
+		@Setup
+		public void setUp() {
+			stream_ = new QueueInputStream(16384,
+					OverflowPolicy.DROP_NEWEST, 16384);
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Consumed {
+		public long bytesRead;
+		byte[] chunk_;
+
+		@Setup
+		public void setUp(Shared shared) {
+			chunk_ = new byte[shared.chunkSize];
+		}
+	}
+
+	@Benchmark
+	@Group("producerConsumer")
+	@GroupThreads(1)
+	public void produce(Shared shared, Consumed consumed) {
+		shared.stream_.write(consumed.chunk_, consumed.chunk_.length);
+	}
+
+	@Benchmark
+	@Group("producerConsumer")
+	@GroupThreads(1)
+	public void consume(Shared shared, Consumed consumed) throws IOException {
+		final int available = shared.stream_.available();
+		if (available > 0) {
+			consumed.bytesRead += shared.stream_.read(consumed.chunk_, 0,
+					Math.min(available, consumed.chunk_.length));
+		}
+	}
+
+	/** {@link Shared} on the previous design. */
+	@State(Scope.Group)
+	public static class SharedBaseline {
+		@Param({ "64", "1024" })
+		public int chunkSize;
+
+		QueuedStream stream_;
+
+		@Setup
+		public void setUp() {
+			stream_ = new QueuedStream(16384);
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class ConsumedBaseline {
+		public long bytesRead;
+		byte[] chunk_;
+
+		@Setup
+		public void setUp(SharedBaseline shared) {
+			chunk_ = new byte[shared.chunkSize];
+		}
+	}
+
+	@Benchmark
+	@Group("producerConsumerBaseline")
+	@GroupThreads(1)
+	public void produceBaseline(SharedBaseline shared,
+			ConsumedBaseline consumed) {
+		shared.stream_.write(consumed.chunk_, consumed.chunk_.length);
+	}
+
+	@Benchmark
+	@Group("producerConsumerBaseline")
+	@GroupThreads(1)
+	public void consumeBaseline(SharedBaseline shared,
+			ConsumedBaseline consumed) {
+		final int available = shared.stream_.available();
+		if (available > 0) {
+			consumed.bytesRead += shared.stream_.read(consumed.chunk_, 0,
+					Math.min(available, consumed.chunk_.length));
+		}
+	}
+}
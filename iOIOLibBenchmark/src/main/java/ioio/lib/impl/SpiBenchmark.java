@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.impl;
+
+import ioio.lib.api.DigitalInput;
+import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOFactory;
+import ioio.lib.api.SpiMaster;
+import ioio.lib.api.exception.ConnectionLostException;
+import ioio.lib.api.exception.IncompatibilityException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * SPI throughput, in bytes per second, against the loop-back of
+ * {@link IOIOEmulator}: a display-refresh sized buffer sent with
+ * {@link SpiMaster#transfer(int, byte[], int, int, byte[], int)} and, for
+ * comparison, one synchronous 64-byte transaction at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SpiBenchmark {
+	private static final int TRANSACTION_SIZE = 64;
+	private static final int BUFFER_SIZE = 4096;
+
+	private IOIO ioio_;
+	private SpiMaster spi_;
+	private final byte[] sent_ = new byte[BUFFER_SIZE];
+	private final byte[] received_ = new byte[BUFFER_SIZE];
+
+	@Setup
+	public void setUp() throws ConnectionLostException,
+			IncompatibilityException {
+		ioio_ = IOIOFactory.create(new EmulatorIOIOConnection());
+		ioio_.waitForConnect();
+		SpiMaster.Config config = new SpiMaster.Config(SpiMaster.Rate.RATE_8M);
+		config.toleratesDeselect = true;
+		spi_ = ioio_.openSpiMaster(new DigitalInput.Spec(10),
+				new DigitalOutput.Spec(11), new DigitalOutput.Spec(12),
+				new DigitalOutput.Spec[] { new DigitalOutput.Spec(13) },
+				config);
+		for (int i = 0; i < BUFFER_SIZE; ++i) {
+			sent_[i] = (byte) i;
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		ioio_.disconnect();
+		ioio_.waitForDisconnect();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BUFFER_SIZE)
+	public byte transfer() throws ConnectionLostException,
+			InterruptedException {
+		spi_.transfer(0, sent_, BUFFER_SIZE, BUFFER_SIZE, received_,
+				BUFFER_SIZE);
+		return received_[BUFFER_SIZE - 1];
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BUFFER_SIZE)
+	public byte writeRead() throws ConnectionLostException,
+			InterruptedException {
+		final byte[] sent = new byte[TRANSACTION_SIZE];
+		final byte[] received = new byte[TRANSACTION_SIZE];
+		for (int offset = 0; offset < BUFFER_SIZE; offset += TRANSACTION_SIZE) {
+			System.arraycopy(sent_, offset, sent, 0, TRANSACTION_SIZE);
+			spi_.writeRead(0, sent, TRANSACTION_SIZE, TRANSACTION_SIZE,
+					received, TRANSACTION_SIZE);
+			System.arraycopy(received, 0, received_, offset, TRANSACTION_SIZE);
+		}
+		return received_[BUFFER_SIZE - 1];
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.util;
+
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IOIOFactory;
+import ioio.lib.api.Uart;
+import ioio.lib.api.exception.ConnectionLostException;
+import ioio.lib.api.exception.IncompatibilityException;
+import ioio.lib.impl.EmulatorIOIOConnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Wake-up latency of {@link EventDrivenIOIOLooper} against
+ * {@link ioio.lib.impl.IOIOEmulator}: from {@link EventDrivenIOIOLooper#wake()}
+ * on another thread, and from a byte written to a looped-back UART, to the
+ * end of the resulting {@link EventDrivenIOIOLooper#process(boolean)} call on
+ * the looper thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventDrivenLooperBenchmark {
+	private IOIO ioio_;
+	private Uart uart_;
+	private OutputStream out_;
+	private EventDrivenIOIOLooper looper_;
+	private Thread thread_;
+	private final byte[] buffer_ = new byte[64];
+	// Guarded by this.
+	private long processed_ = 0;
+	private volatile boolean running_ = true;
+
+	@Setup
+	public void setUp() throws ConnectionLostException,
+			IncompatibilityException, InterruptedException {
+		ioio_ = IOIOFactory.create(new EmulatorIOIOConnection());
+		ioio_.waitForConnect();
+		looper_ = new EventDrivenIOIOLooper() {
+			private InputStream in_;
+
+			@Override
+			protected void setup() throws ConnectionLostException {
+				uart_ = ioio_.openUart(6, 7, 115200, Uart.Parity.NONE,
+						Uart.StopBits.ONE);
+				in_ = uart_.getInputStream();
+				subscribe(uart_);
+			}
+
+			@Override
+			protected void process(boolean timedOut) {
+				try {
+					while (in_.available() > 0) {
+						in_.read(buffer_, 0, buffer_.length);
+					}
+				} catch (IOException e) {
+					return;
+				}
+				synchronized (EventDrivenLooperBenchmark.this) {
+					++processed_;
+					EventDrivenLooperBenchmark.this.notifyAll();
+				}
+			}
+		};
+		looper_.setup(ioio_);
+		out_ = uart_.getOutputStream();
+		thread_ = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (running_) {
+						looper_.loop();
+					}
+				} catch (ConnectionLostException e) {
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		thread_.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		running_ = false;
+		looper_.wake();
+		thread_.join();
+		ioio_.disconnect();
+		ioio_.waitForDisconnect();
+	}
+
+	@Benchmark
+	public synchronized long wake() throws InterruptedException {
+		final long target = processed_ + 1;
+		looper_.wake();
+		while (processed_ < target) {
+			wait();
+		}
+		return processed_;
+	}
+
+	@Benchmark
+	public synchronized long uartByte() throws InterruptedException,
+			IOException {
+		final long target = processed_ + 1;
+		out_.write(0x55);
+		while (processed_ < target) {
+			wait();
+		}
+		return processed_;
+	}
+}
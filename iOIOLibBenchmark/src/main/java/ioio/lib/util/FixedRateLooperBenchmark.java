@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011 Ytai Ben-Tsvi. All rights reserved.
+ *  
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ * 
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ * 
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL ARSHAN POURSOHI OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied.
+ */
+package ioio.lib.util;
+
+import ioio.lib.api.IOIO;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Scheduling accuracy of {@link FixedRateIOIOLooper}: the time between
+ * consecutive calls of loop() around an empty looper, sampled so that the
+ * percentiles show the jitter around the period. Also the cost of recording
+ * into a {@link Histogram}, which is paid twice per iteration.
+ */
+@State(Scope.Thread)
+public class FixedRateLooperBenchmark {
+	@Param({ "1000", "10000" })
+	public int periodUs;
+
+	private FixedRateIOIOLooper looper_;
+	private Histogram histogram_;
+	private long nanos_ = 0;
+
+	@Setup
+	public void setUp() throws ConnectionLostException, InterruptedException {
+		looper_ = new FixedRateIOIOLooper(new IOIOLooper() {
+			@Override
+			public void setup(IOIO ioio) {
+			}
+
+			@Override
+			public void loop() {
+			}
+
+			@Override
+			public void disconnected() {
+			}
+
+			@Override
+			public void incompatible() {
+			}
+		}, periodUs, TimeUnit.MICROSECONDS,
+				FixedRateIOIOLooper.OverrunPolicy.SKIP);
+		looper_.setup(null);
+		histogram_ = new Histogram();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void loop() throws ConnectionLostException, InterruptedException {
+		looper_.loop();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public void record() {
+		nanos_ += 997;
+		histogram_.record(nanos_ & 0xFFFFFFF);
+	}
+}